@@ -0,0 +1,97 @@
+package clay.vehicle.benchmarks;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageDeserializer;
+import clay.vehicle.networking.NetworkMessageSerializer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding and decoding a message with the streaming codec against the tree codec it
+ * replaced. Both go from a message to datagram bytes and back, the tree codec through a string as
+ * the networking managers used to.
+ *
+ * <p>Run with {@code java -jar benchmarks/target/benchmarks.jar CodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CodecBenchmark {
+  /** A command a client sends, or a reply listing this many vehicles */
+  @Param({"command", "reply"})
+  public String kind;
+
+  private static final SocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 4000);
+
+  private NetworkMessage message;
+  private ByteBuffer buffer;
+  private byte[] encoded;
+
+  @Setup(Level.Trial)
+  public void prepare() {
+    if (kind.equals("command")) {
+      message =
+          NetworkMessage.newBuilder()
+              .setType(MessageType.COMMAND)
+              .setCommand("add")
+              .setArgs(new String[] {"car", "1.5", "2.5", "120", "3000", "CAR", "NUCLEAR"})
+              .setToken("0123456789abcdef0123456789abcdef")
+              .build();
+    } else {
+      StringBuilder rows = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        rows.append("Vehicle{id=")
+            .append(i)
+            .append(", name='car', coordinates=(1.5; 2.5), enginePower=120.0}\n");
+      }
+      message =
+          NetworkMessage.newBuilder()
+              .setType(MessageType.RESPONSE)
+              .setMessage(rows.toString())
+              .build();
+    }
+    buffer = ByteBuffer.allocate(65507);
+    encoded = TreeCodec.serialize(message).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteBuffer serializeStreaming() {
+    buffer.clear();
+    NetworkMessageSerializer.serialize(message, buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public byte[] serializeTree() {
+    return TreeCodec.serialize(message).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public NetworkMessage deserializeStreaming() {
+    return NetworkMessageDeserializer.deserialize(encoded, 0, encoded.length, ADDRESS);
+  }
+
+  @Benchmark
+  public NetworkMessage deserializeTree() {
+    return TreeCodec.deserialize(new String(encoded, StandardCharsets.UTF_8), ADDRESS);
+  }
+}
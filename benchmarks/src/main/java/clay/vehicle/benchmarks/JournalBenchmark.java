@@ -0,0 +1,101 @@
+package clay.vehicle.benchmarks;
+
+import clay.vehicle.dataStorage.PendingWrite;
+import clay.vehicle.dataStorage.WriteBehindJournal;
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forced appends per second of the write-behind journal, each append being durable when it returns.
+ * The journal is kept in the {@code dir} parameter, which must be on the disk being measured: on
+ * tmpfs a force costs almost nothing. With several threads, appenders share forces.
+ *
+ * <p>Run with {@code java -jar benchmarks/target/benchmarks.jar JournalBenchmark -p
+ * dir=/path/on/disk}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JournalBenchmark {
+  /** Directory the journal is created in, deleted afterwards */
+  @Param("benchmarks/target/journal")
+  public String dir;
+
+  private WriteBehindJournal journal;
+  private List<PendingWrite> write;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    delete(Path.of(dir));
+    journal = new WriteBehindJournal(Path.of(dir));
+    Vehicle vehicle =
+        new Vehicle(
+            1,
+            "benchmark",
+            new Coordinates(1.5, 2.5),
+            ZonedDateTime.now(),
+            120f,
+            3000f,
+            null,
+            FuelType.NUCLEAR,
+            1);
+    write = List.of(PendingWrite.upsert(vehicle));
+  }
+
+  /** Keeps the journal from growing across iterations. */
+  @TearDown(Level.Iteration)
+  public void truncate() throws IOException {
+    journal.truncate();
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    journal.close();
+    delete(Path.of(dir));
+  }
+
+  private static void delete(Path path) throws IOException {
+    if (!Files.exists(path)) return;
+    try (Stream<Path> files = Files.walk(path)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void append() throws IOException {
+    journal.append(write);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void appendConcurrently() throws IOException {
+    journal.append(write);
+  }
+}
@@ -0,0 +1,93 @@
+package clay.vehicle.benchmarks;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.net.SocketAddress;
+
+/**
+ * The message codec as it was before the streaming one, kept as the baseline of {@link
+ * CodecBenchmark}: every message goes through a Jackson tree and an intermediate string.
+ */
+final class TreeCodec {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private TreeCodec() {}
+
+  static String serialize(NetworkMessage message) {
+    try {
+      ObjectNode node = objectMapper.createObjectNode();
+      if (message.getType() != null) {
+        node.put("type", message.getType().name());
+      }
+      if (message.getMessage() != null) {
+        node.put("message", message.getMessage());
+      }
+      if (message.getCommand() != null) {
+        node.put("command", message.getCommand());
+      }
+      if (message.getArgs() != null) {
+        ArrayNode arrayNode = objectMapper.createArrayNode();
+        for (String arg : message.getArgs()) {
+          arrayNode.add(arg);
+        }
+        node.set("args", arrayNode);
+      }
+      if (message.getLogin() != null) {
+        node.put("login", message.getLogin());
+      }
+      if (message.getPassword() != null) {
+        node.put("password", message.getPassword());
+      }
+      if (message.getToken() != null) {
+        node.put("token", message.getToken());
+      }
+      return objectMapper.writeValueAsString(node);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to serialize NetworkMessage", e);
+    }
+  }
+
+  static NetworkMessage deserialize(String json, SocketAddress address) {
+    try {
+      JsonNode node = objectMapper.readTree(json);
+      NetworkMessage.Builder builder = NetworkMessage.newBuilder();
+
+      if (node.hasNonNull("type")) {
+        builder.setType(MessageType.valueOf(node.get("type").asText()));
+      }
+      if (node.hasNonNull("message")) {
+        builder.setMessage(node.get("message").asText());
+      }
+      if (node.hasNonNull("command")) {
+        builder.setCommand(node.get("command").asText());
+      }
+      if (address != null) {
+        builder.setAdress(address);
+      }
+      if (node.hasNonNull("args") && node.get("args").isArray()) {
+        JsonNode argsNode = node.get("args");
+        String[] args = new String[argsNode.size()];
+        for (int i = 0; i < argsNode.size(); i++) {
+          args[i] = argsNode.get(i).asText();
+        }
+        builder.setArgs(args);
+      } else builder.setArgs(null);
+      if (node.hasNonNull("login")) {
+        builder.setLogin(node.get("login").asText());
+      }
+      if (node.hasNonNull("password")) {
+        builder.setPassword(node.get("password").asText());
+      }
+      if (node.hasNonNull("token")) {
+        builder.setToken(node.get("token").asText());
+      }
+      return builder.build();
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to deserialize NetworkMessage", e);
+    }
+  }
+}
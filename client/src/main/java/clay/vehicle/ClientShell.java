@@ -3,12 +3,16 @@ package clay.vehicle;
 import clay.vehicle.commands.Executable;
 import clay.vehicle.commands.RecursionException;
 import clay.vehicle.networking.ClientNetworkingManager;
+import clay.vehicle.networking.MessageType;
 import clay.vehicle.networking.NetworkMessage;
 import clay.vehicle.networking.NetworkMessageDeserializer;
-import clay.vehicle.networking.NetworkMessageSerializer;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Scanner;
 import lombok.Getter;
@@ -22,8 +26,16 @@ public class ClientShell implements Shell {
 
   @Getter CommandProcessor processor;
 
-  private String login = null;
-  private String password = null;
+  private String token = null;
+
+  /** Time added to the response timeout for every command of a batch, which runs them in turn */
+  private static final int BATCH_TIMEOUT_PER_COMMAND_MS = 20;
+
+  /**
+   * Correlation id of the next request. Starts at random, so that a shell which gets the port of an
+   * earlier one isn't answered from the server's replies to that one.
+   */
+  private int nextCorrelationId = new SecureRandom().nextInt();
 
   private ClientNetworkingManager nm;
 
@@ -107,9 +119,175 @@ public class ClientShell implements Shell {
     }
   }
 
-  public void setLogin(String login, String password) {
-    this.login = login;
-    this.password = password;
+  /**
+   * Sets the session token attached to every request sent to the server.
+   *
+   * @param token the token issued by the server on login, or null to sign out
+   */
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  /**
+   * Sends one command and prints the response, with all its pages.
+   *
+   * @param packet the command
+   */
+  private void send(NetworkMessage packet) {
+    if (token != null && !packet.hasLogin()) packet.setToken(token);
+    try {
+      NetworkMessage response = request(packet);
+      if (response.hasToken()) setToken(response.getToken());
+      else if ("logout".equals(packet.getCommand())) setToken(null);
+      print(response);
+    } catch (SocketTimeoutException e) {
+      System.out.println("! Server did not respond within 5 seconds. Please try again. womp womp.");
+    } catch (IOException e) {
+      System.out.println("! IO exception: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Sends the commands collected so far, as many per datagram as fit, and prints their responses in
+   * order. If the server stops answering, the commands whose outcome is unknown and the ones never
+   * sent are listed.
+   *
+   * @param pending the commands, emptied afterwards
+   */
+  private void flush(List<NetworkMessage> pending) {
+    if (pending.size() == 1) send(pending.get(0));
+    else if (!pending.isEmpty()) {
+      int from = 0;
+      // the size that last fit in a datagram, the next batch likely fits it too
+      int size = pending.size();
+      List<NetworkMessage> batch = List.of();
+      try {
+        while (from < pending.size()) {
+          batch = pending.subList(from, Math.min(from + size, pending.size()));
+          if (sendBatch(batch)) from += batch.size();
+          else if (batch.size() > 1) size = batch.size() / 2;
+          else {
+            System.out.println("! Command doesn't fit in a datagram: " + describe(batch.get(0)));
+            from++;
+          }
+        }
+      } catch (IOException e) {
+        if (e instanceof SocketTimeoutException)
+          System.out.println("! Server did not respond in time. Please try again. womp womp.");
+        else System.out.println("! IO exception: " + e.getMessage());
+        System.out.println("! No response to these commands, they may or may not have run:");
+        for (NetworkMessage command : batch) System.out.println("!   " + describe(command));
+        List<NetworkMessage> unsent = pending.subList(from + batch.size(), pending.size());
+        if (!unsent.isEmpty()) {
+          System.out.println("! Not sent:");
+          for (NetworkMessage command : unsent) System.out.println("!   " + describe(command));
+        }
+      }
+    }
+    pending.clear();
+  }
+
+  /** Gets a command as the user would type it. */
+  private static String describe(NetworkMessage command) {
+    return command.hasArgs()
+        ? command.getCommand() + " " + String.join(" ", command.getArgs())
+        : command.getCommand();
+  }
+
+  /**
+   * Sends a request under a new correlation id and waits for its response. Responses carrying
+   * another id, such as late answers to requests that timed out, are dropped.
+   *
+   * @param message the request
+   * @return the response to it
+   * @throws SocketTimeoutException if no response arrives within the timeout
+   * @throws IOException if sending or receiving fails
+   */
+  private NetworkMessage request(NetworkMessage message) throws IOException {
+    int id = nextCorrelationId++;
+    message.setCorrelationId(id);
+    nm.transmit(message);
+    NetworkMessage response;
+    do {
+      response = nm.receive();
+    } while (!response.hasCorrelationId() || response.getCorrelationId() != id);
+    return response;
+  }
+
+  /**
+   * Sends commands as one batch and prints their responses. The commands are numbered within the
+   * batch, the batch itself gets a correlation id of its own. The server runs them in turn, so the
+   * response timeout grows with their number.
+   *
+   * @param commands the commands, in order
+   * @return false if the batch doesn't fit in a datagram, in which case nothing was sent
+   * @throws IOException if sending or receiving fails
+   */
+  private boolean sendBatch(List<NetworkMessage> commands) throws IOException {
+    NetworkMessage[] items = new NetworkMessage[commands.size()];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = commands.get(i);
+      items[i].setCorrelationId(i);
+    }
+    NetworkMessage.Builder batch =
+        NetworkMessage.newBuilder().setType(MessageType.BATCH).setBatch(items);
+    if (token != null) batch.setToken(token);
+    NetworkMessage response;
+    int timeout = nm.getTimeout();
+    nm.setTimeout(timeout + items.length * BATCH_TIMEOUT_PER_COMMAND_MS);
+    try {
+      response = request(batch.build());
+    } catch (BufferOverflowException e) {
+      return false;
+    } finally {
+      nm.setTimeout(timeout);
+    }
+
+    if (!response.hasBatch()) {
+      print(response);
+      return true;
+    }
+    NetworkMessage[] responses = new NetworkMessage[items.length];
+    for (NetworkMessage item : response.getBatch())
+      if (item.hasCorrelationId()
+          && item.getCorrelationId() >= 0
+          && item.getCorrelationId() < responses.length) responses[item.getCorrelationId()] = item;
+    for (NetworkMessage item : responses) {
+      if (item == null) System.out.println("! Server did not answer a command of the batch");
+      else print(item);
+    }
+    return true;
+  }
+
+  /**
+   * Prints a response, fetching the rest of a paged listing page by page.
+   *
+   * @param response the response
+   * @throws IOException if fetching a page fails
+   */
+  private void print(NetworkMessage response) throws IOException {
+    System.out.println(response.getMessage());
+    while (response.hasCursor()) {
+      response = nextPage(response.getCursor());
+      System.out.println(response.getMessage());
+    }
+  }
+
+  /**
+   * Asks the server for the next page of a paged listing.
+   *
+   * @param cursor the cursor the previous page came with
+   * @return the response holding the page, with a cursor if there are more
+   * @throws IOException if sending or receiving fails
+   */
+  private NetworkMessage nextPage(String cursor) throws IOException {
+    NetworkMessage.Builder request =
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("next_page")
+            .setArgs(new String[] {cursor});
+    if (token != null) request.setToken(token);
+    return request(request.build());
   }
 
   /**
@@ -130,32 +308,26 @@ public class ClientShell implements Shell {
       processor.addInstruction(line);
       try {
         ret = processor.runReturnable();
+        List<NetworkMessage> pending = new ArrayList<>();
         for (String cmd : ret.split("\n")) {
-          if (cmd.charAt(0) == '!') System.out.println(cmd);
-          else {
-            if (login != null) {
-              NetworkMessage packet = NetworkMessageDeserializer.deserialize(cmd);
-              packet.setAuth(login, password);
-              cmd = NetworkMessageSerializer.serialize(packet);
-            }
-            nm.transmit(cmd);
-            try {
-              System.out.println(NetworkMessageDeserializer.deserialize(nm.receive()).getMessage());
-            } catch (SocketTimeoutException e) {
-              System.out.println(
-                  "! Server did not respond within 5 seconds. Please try again. womp womp.");
-            } catch (IOException e) {
-              System.out.println("! IO exception: " + e.getMessage());
-            }
+          if (cmd.charAt(0) == '!') {
+            flush(pending);
+            System.out.println(cmd);
+          } else {
+            NetworkMessage packet = NetworkMessageDeserializer.deserialize(cmd);
+            if (packet.hasLogin() || "logout".equals(packet.getCommand())) {
+              // the commands after it need the session it opens or closes
+              flush(pending);
+              send(packet);
+            } else pending.add(packet);
           }
         }
+        flush(pending);
       } catch (InvalidInstructionException e) {
         System.out.println("! Unknown command");
       } catch (RecursionException e) {
         processor.clearQueue();
         System.out.println("! Recursion not allowed. Call stack: " + e.getMessage());
-      } catch (IOException e) {
-        System.out.println("! IO exception: " + e.getMessage());
       }
     }
   }
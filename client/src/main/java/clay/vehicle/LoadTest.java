@@ -0,0 +1,106 @@
+package clay.vehicle;
+
+import clay.vehicle.networking.AsyncClientNetworkingManager;
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for a running server. Sends the same read-only command many times through {@link
+ * AsyncClientNetworkingManager}, keeping a number of requests in flight, and reports how many were
+ * answered and how fast.
+ */
+public class LoadTest {
+  /**
+   * Runs the load.
+   *
+   * @param args server address, port, number of requests, requests in flight, and optionally the
+   *     command to send and the login and password to send it with
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    System.setProperty("log4j2.StatusLogger.level", "OFF");
+
+    if (args.length != 4 && args.length != 5 && args.length != 7) {
+      System.out.println(
+          "Usage: LoadTest server_address port requests in_flight [command [login password]]");
+      System.exit(0);
+    }
+
+    int port, requests, inFlight;
+    try {
+      port = Integer.parseInt(args[1]);
+      requests = Integer.parseInt(args[2]);
+      inFlight = Integer.parseInt(args[3]);
+    } catch (NumberFormatException e) {
+      System.out.println("! Port, requests and in_flight must be numbers");
+      System.exit(-1);
+      return;
+    }
+    String command = args.length > 4 ? args[4] : "info";
+
+    try (AsyncClientNetworkingManager nm =
+        new AsyncClientNetworkingManager(args[0], port, true, 2000, 3, inFlight)) {
+      nm.init();
+
+      String token = null;
+      if (args.length == 7) {
+        NetworkMessage login =
+            NetworkMessage.newBuilder()
+                .setType(MessageType.COMMAND)
+                .setCommand("login")
+                .setLogin(args[5])
+                .setPassword(args[6])
+                .build();
+        try {
+          NetworkMessage response = nm.send(login).get();
+          if (!response.hasToken()) {
+            System.out.println("! " + response.getMessage());
+            System.exit(-1);
+          }
+          token = response.getToken();
+        } catch (ExecutionException e) {
+          System.out.println("! Login failed: " + e.getCause().getMessage());
+          System.exit(-1);
+        }
+      }
+
+      AtomicInteger answered = new AtomicInteger();
+      AtomicInteger errors = new AtomicInteger();
+      AtomicInteger failed = new AtomicInteger();
+      CompletableFuture<?>[] calls = new CompletableFuture<?>[requests];
+      long start = System.nanoTime();
+      for (int i = 0; i < requests; i++) {
+        NetworkMessage.Builder request =
+            NetworkMessage.newBuilder().setType(MessageType.COMMAND).setCommand(command);
+        if (token != null) request.setToken(token);
+        calls[i] =
+            nm.send(request.build())
+                .whenComplete(
+                    (response, e) -> {
+                      if (e != null) failed.incrementAndGet();
+                      else if (response.getType() == MessageType.ERROR) errors.incrementAndGet();
+                      else answered.incrementAndGet();
+                    });
+      }
+      try {
+        CompletableFuture.allOf(calls).join();
+      } catch (RuntimeException e) {
+        // counted as failed above
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf(
+          "%d requests, %d in flight: %d answered, %d errors, %d failed in %.2f s, %.0f req/s%n",
+          requests,
+          inFlight,
+          answered.get(),
+          errors.get(),
+          failed.get(),
+          seconds,
+          requests / seconds);
+    }
+  }
+}
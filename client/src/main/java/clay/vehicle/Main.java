@@ -31,8 +31,8 @@ public class Main {
     String hostname;
     Integer port = null;
 
-    if (args.length < 2) {
-      System.out.println("Usage: client server_address port");
+    if (args.length < 2 || args.length > 3) {
+      System.out.println("Usage: client server_address port [binary|json]");
       System.exit(0);
     }
 
@@ -49,12 +49,24 @@ public class Main {
       System.out.println("! Invalid port");
       System.exit(-1);
     }
+
+    // binary by default, JSON for servers that don't understand it yet
+    boolean binary = true;
+    if (args.length == 3) {
+      if (args[2].equals("json")) binary = false;
+      else if (!args[2].equals("binary")) {
+        System.out.println("! Unknown protocol " + args[2]);
+        System.exit(-1);
+      }
+    }
     CommandProcessor processor = new CommandProcessor();
     ClientShell shell = new ClientShell(processor);
 
     shell.attachCommand(new Exit(shell), "exit");
     shell.attachCommand(new Info(), "info");
+    shell.attachCommand(new Stats(), "stats");
     shell.attachCommand(new Show(), "show");
+    shell.attachCommand(new ShowMine(), "show_mine");
     shell.attachCommand(new Help(), "help");
     shell.attachCommand(new RemoveKey(), "remove_key");
     shell.attachCommand(new Insert(shell), "insert");
@@ -67,11 +79,18 @@ public class Main {
     shell.attachCommand(new RemoveAnyByEnginePower(), "remove_any_by_engine_power");
     shell.attachCommand(new PrintAscending(), "print_ascending");
     shell.attachCommand(new GroupCountungByCoordinates(), "group_counting_by_coordinates");
+    shell.attachCommand(new CountInBox(), "count_in_box");
+    shell.attachCommand(new Nearest(), "nearest");
+    shell.attachCommand(new Query(), "query");
+    shell.attachCommand(new TopK("top_k"), "top_k");
+    shell.attachCommand(new TopK("bottom_k"), "bottom_k");
+    shell.attachCommand(new Range(), "range");
     shell.attachCommand(new Login(shell), "login");
+    shell.attachCommand(new Logout(), "logout");
     shell.attachCommand(new Register(shell), "register");
 
     try {
-      networkingManager = new ClientNetworkingManager(hostname, port);
+      networkingManager = new ClientNetworkingManager(hostname, port, binary);
       networkingManager.init();
       networkingManager.setTimeout(5000);
     } catch (UnknownHostException e) {
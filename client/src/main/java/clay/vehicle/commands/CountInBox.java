@@ -0,0 +1,35 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+
+/**
+ * Command implementation for counting vehicles inside a rectangle of coordinates given by two
+ * opposite corners.
+ */
+public class CountInBox implements Executable {
+
+  /**
+   * Executes the count_in_box command.
+   *
+   * @param args command arguments, where args[0..3] are x1, y1, x2 and y2
+   * @return the serialized request
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 4) return "! Not enough arguments";
+    try {
+      for (int i = 0; i < 4; i++) Double.parseDouble(args[i]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("count_in_box")
+            .setArgs(args)
+            .build());
+  }
+}
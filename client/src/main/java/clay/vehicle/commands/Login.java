@@ -1,6 +1,9 @@
 package clay.vehicle.commands;
 
 import clay.vehicle.ClientShell;
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
 
 /** Command implementation for user sign in */
 public class Login implements Executable {
@@ -13,10 +16,11 @@ public class Login implements Executable {
   }
 
   /**
-   * Executes the login command. Sets authentication parameter within client.
+   * Executes the login command. Sends credentials to the server, which replies with a session token
+   * used by all further commands.
    *
    * @param args command arguments (not used)
-   * @return a message indicating which user
+   * @return a serialized login request
    */
   @Override
   public String execute(String[] args) {
@@ -26,9 +30,13 @@ public class Login implements Executable {
 
     if (login.contains(" ") || password.contains(" "))
       return "! login and password should not contain spaces";
-    else {
-      shell.setLogin(login, password);
-      return "! Logged in as " + login;
-    }
+    else
+      return NetworkMessageSerializer.serialize(
+          NetworkMessage.newBuilder()
+              .setType(MessageType.COMMAND)
+              .setCommand("login")
+              .setLogin(login)
+              .setPassword(password)
+              .build());
   }
 }
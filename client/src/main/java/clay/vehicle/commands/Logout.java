@@ -0,0 +1,15 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+
+/** Command implementation for closing the current session */
+public class Logout implements Executable {
+
+  @Override
+  public String execute(String[] args) {
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder().setType(MessageType.COMMAND).setCommand("logout").build());
+  }
+}
@@ -0,0 +1,34 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+
+/** Command implementation for finding the k vehicles closest to a point. */
+public class Nearest implements Executable {
+
+  /**
+   * Executes the nearest command.
+   *
+   * @param args command arguments, where args[0] and args[1] are x and y and args[2] is k
+   * @return the serialized request
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 3) return "! Not enough arguments";
+    try {
+      Double.parseDouble(args[0]);
+      Double.parseDouble(args[1]);
+      Integer.parseInt(args[2]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("nearest")
+            .setArgs(args)
+            .build());
+  }
+}
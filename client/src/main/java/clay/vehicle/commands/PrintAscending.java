@@ -5,13 +5,13 @@ import clay.vehicle.networking.NetworkMessage;
 import clay.vehicle.networking.NetworkMessageSerializer;
 
 public class PrintAscending implements Executable {
-
   @Override
   public String execute(String[] args) {
     return NetworkMessageSerializer.serialize(
         NetworkMessage.newBuilder()
             .setType(MessageType.COMMAND)
-            .setMessage("print_ascending")
+            .setCommand("print_ascending")
+            .setArgs(new String[] {Show.PAGE_SIZE})
             .build());
   }
 }
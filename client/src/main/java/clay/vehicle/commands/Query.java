@@ -0,0 +1,37 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+import java.util.Arrays;
+
+/**
+ * Command implementation for finding vehicles by their fields. Terms are key=value pairs evaluated
+ * by the server; the result is fetched page by page.
+ */
+public class Query implements Executable {
+
+  /**
+   * Executes the query command.
+   *
+   * @param args command arguments, the terms of the query
+   * @return the serialized request
+   */
+  @Override
+  public String execute(String[] args) {
+    for (String arg : args) if (arg.indexOf('=') <= 0) return "! Expected key=value, got " + arg;
+
+    String[] terms = args;
+    if (Arrays.stream(args).noneMatch(arg -> arg.startsWith("page="))) {
+      terms = Arrays.copyOf(args, args.length + 1);
+      terms[args.length] = "page=" + Show.PAGE_SIZE;
+    }
+
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("query")
+            .setArgs(terms)
+            .build());
+  }
+}
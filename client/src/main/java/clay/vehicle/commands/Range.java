@@ -0,0 +1,37 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+
+/**
+ * Command implementation for listing a window of the vehicles in ascending order of enginePower or
+ * distanceTravelled.
+ */
+public class Range implements Executable {
+
+  /**
+   * Executes the range command.
+   *
+   * @param args command arguments, where args[0] is the field, args[1] is the position to start at
+   *     and args[2] is the count
+   * @return the serialized request
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 3) return "! Not enough arguments";
+    try {
+      Integer.parseInt(args[1]);
+      Integer.parseInt(args[2]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("range")
+            .setArgs(args)
+            .build());
+  }
+}
@@ -5,10 +5,16 @@ import clay.vehicle.networking.NetworkMessage;
 import clay.vehicle.networking.NetworkMessageSerializer;
 
 public class Show implements Executable {
+  /** Vehicles asked for per page, the rest are fetched page by page */
+  static final String PAGE_SIZE = "100";
 
   @Override
   public String execute(String[] args) {
     return NetworkMessageSerializer.serialize(
-        NetworkMessage.newBuilder().setType(MessageType.COMMAND).setCommand("show").build());
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand("show")
+            .setArgs(new String[] {PAGE_SIZE})
+            .build());
   }
 }
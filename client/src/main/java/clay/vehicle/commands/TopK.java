@@ -0,0 +1,46 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.networking.MessageType;
+import clay.vehicle.networking.NetworkMessage;
+import clay.vehicle.networking.NetworkMessageSerializer;
+
+/**
+ * Command implementation for listing the vehicles with the highest or lowest value of enginePower
+ * or distanceTravelled.
+ */
+public class TopK implements Executable {
+  /** The name of the command sent, top_k or bottom_k */
+  String command;
+
+  /**
+   * Constructs a new TopK command.
+   *
+   * @param command top_k or bottom_k
+   */
+  public TopK(String command) {
+    this.command = command;
+  }
+
+  /**
+   * Executes the top_k or bottom_k command.
+   *
+   * @param args command arguments, where args[0] is the field and args[1] is k
+   * @return the serialized request
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 2) return "! Not enough arguments";
+    try {
+      Integer.parseInt(args[1]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+
+    return NetworkMessageSerializer.serialize(
+        NetworkMessage.newBuilder()
+            .setType(MessageType.COMMAND)
+            .setCommand(command)
+            .setArgs(args)
+            .build());
+  }
+}
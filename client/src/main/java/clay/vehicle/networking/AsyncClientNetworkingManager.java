@@ -0,0 +1,395 @@
+package clay.vehicle.networking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking counterpart of {@link ClientNetworkingManager}, for loaders and load tests that keep
+ * many requests in flight. Every request gets a correlation id and a future; a receiver thread
+ * completes the futures as responses arrive, in whatever order the server answers them.
+ *
+ * <p>At most a fixed number of requests are in flight at once, the rest wait in order for a slot,
+ * so a burst of requests doesn't overflow the server's socket buffer. A request without a response
+ * within its timeout is sent again with the same correlation id, up to its number of retries, then
+ * its future fails with a {@link SocketTimeoutException}. The server remembers the responses to
+ * recent requests that change data, so a retry never runs such a command twice. Responses sent in
+ * fragments are reassembled alongside each other, asking for missing fragments the same way the
+ * blocking client does.
+ */
+public class AsyncClientNetworkingManager implements Closeable {
+  /** How long to wait for the next fragment before asking for the missing ones */
+  private static final int FRAGMENT_GAP_MS = 300;
+
+  private static final int MAX_NACKS = 10;
+
+  /** Most fragments accepted for one response, matching the largest response the server sends */
+  private static final int MAX_FRAGMENTS = (64 << 20) / Fragments.FRAGMENT_PAYLOAD + 1;
+
+  /** How many ids of finished fragmented responses are remembered to ignore their late fragments */
+  private static final int FINISHED_IDS = 1024;
+
+  private final String hostname;
+  private final int port;
+
+  /** Whether requests are sent in binary form rather than JSON */
+  private final boolean binary;
+
+  private final long timeoutMs;
+  private final int retries;
+  private final int maxInFlight;
+
+  private DatagramChannel dc;
+  private Thread receiver;
+  private volatile boolean closed;
+
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "async-client-timer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Correlation id of the last request. Starts at random, so that a client which gets the port of
+   * an earlier one isn't answered from the server's replies to that one.
+   */
+  private final AtomicInteger nextCorrelationId = new AtomicInteger(new SecureRandom().nextInt());
+
+  /** Requests waiting for a response, by correlation id */
+  private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+  /** Requests not sent yet because maxInFlight others are, guarded by itself */
+  private final Queue<Pending> waiting = new ArrayDeque<>();
+
+  private int inFlight;
+
+  /** Fragmented responses being reassembled, by message id */
+  private final Map<Integer, Partial> partials = new ConcurrentHashMap<>();
+
+  private final Set<Integer> finished =
+      Collections.synchronizedSet(
+          Collections.newSetFromMap(
+              new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                  return size() > FINISHED_IDS;
+                }
+              }));
+
+  /** A request in flight */
+  private static final class Pending {
+    final int id;
+    final ByteBuffer request;
+    final CompletableFuture<NetworkMessage> response = new CompletableFuture<>();
+    final long timeoutMs;
+    int retriesLeft;
+    ScheduledFuture<?> timeout;
+
+    /** Whether the request took a slot, guarded by waiting */
+    boolean started;
+
+    Pending(int id, ByteBuffer request, long timeoutMs, int retries) {
+      this.id = id;
+      this.request = request;
+      this.timeoutMs = timeoutMs;
+      this.retriesLeft = retries;
+    }
+  }
+
+  /** The fragments of one response received so far */
+  private static final class Partial {
+    final byte[][] parts;
+    int missing;
+    int received;
+    int receivedAtCheck;
+    int nacks;
+    ScheduledFuture<?> check;
+
+    Partial(int count) {
+      this.parts = new byte[count][];
+      this.missing = count;
+    }
+  }
+
+  /**
+   * Constructs a new AsyncClientNetworkingManager.
+   *
+   * @param hostname the server host
+   * @param port the server port
+   * @param binary whether to send requests in binary form rather than JSON
+   * @param timeoutMs how long to wait for a response before sending a request again
+   * @param retries how many times a request is sent again before giving up
+   * @param maxInFlight how many requests may wait for a response at once
+   */
+  public AsyncClientNetworkingManager(
+      String hostname, int port, boolean binary, long timeoutMs, int retries, int maxInFlight) {
+    this.hostname = hostname;
+    this.port = port;
+    this.binary = binary;
+    this.timeoutMs = timeoutMs;
+    this.retries = retries;
+    this.maxInFlight = maxInFlight;
+  }
+
+  public void init() throws IOException {
+    this.dc = DatagramChannel.open();
+    this.dc.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+    this.dc.connect(new InetSocketAddress(Inet4Address.getByName(hostname), port));
+    this.receiver = new Thread(this::receiveLoop, "async-client-receiver");
+    this.receiver.setDaemon(true);
+    this.receiver.start();
+  }
+
+  /**
+   * Sends a request with the default timeout and retries.
+   *
+   * @param message the request; its correlation id is replaced
+   * @return a future completed with the response
+   */
+  public CompletableFuture<NetworkMessage> send(NetworkMessage message) {
+    return send(message, timeoutMs, retries);
+  }
+
+  /**
+   * Sends a request.
+   *
+   * @param message the request; its correlation id is replaced
+   * @param timeoutMs how long to wait for a response before sending the request again
+   * @param retries how many times the request is sent again before giving up
+   * @return a future completed with the response, or failed when the retries run out, the request
+   *     doesn't fit in a datagram or the manager is closed
+   */
+  public CompletableFuture<NetworkMessage> send(
+      NetworkMessage message, long timeoutMs, int retries) {
+    if (closed) return CompletableFuture.failedFuture(new IOException("Client is closed"));
+
+    int id = nextCorrelationId.incrementAndGet();
+    message.setCorrelationId(id);
+    ByteBuffer request = ByteBuffer.allocate(Fragments.MAX_DATAGRAM);
+    try {
+      if (binary) BinaryMessageCodec.encode(message, request);
+      else NetworkMessageSerializer.serialize(message, request);
+    } catch (BufferOverflowException e) {
+      return CompletableFuture.failedFuture(new IOException("Request doesn't fit in a datagram"));
+    }
+    request.flip();
+
+    Pending call = new Pending(id, request, timeoutMs, retries);
+    pending.put(id, call);
+    call.response.whenComplete(
+        (response, e) -> {
+          pending.remove(id);
+          ScheduledFuture<?> timeout = call.timeout;
+          if (timeout != null) timeout.cancel(false);
+          release(call);
+        });
+    boolean slot;
+    synchronized (waiting) {
+      slot = inFlight < maxInFlight;
+      if (slot) {
+        inFlight++;
+        call.started = true;
+      } else waiting.add(call);
+    }
+    if (slot) transmit(id, call);
+    return call.response;
+  }
+
+  /** Hands the slot of a finished request to the next waiting one. */
+  private void release(Pending call) {
+    Pending next;
+    synchronized (waiting) {
+      if (!call.started) {
+        // failed while waiting, by close
+        waiting.remove(call);
+        return;
+      }
+      next = waiting.poll();
+      if (next == null) inFlight--;
+      else next.started = true;
+    }
+    if (next != null) transmit(next.id, next);
+  }
+
+  private void transmit(int id, Pending call) {
+    try {
+      dc.write(call.request.duplicate());
+    } catch (IOException e) {
+      call.response.completeExceptionally(e);
+      return;
+    }
+    try {
+      call.timeout = timer.schedule(() -> expire(id, call), call.timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      call.response.completeExceptionally(new IOException("Client is closed"));
+      return;
+    }
+    // the response may have come before the timeout was stored
+    if (call.response.isDone()) call.timeout.cancel(false);
+  }
+
+  /** Runs on the timer when a request had no response in time. */
+  private void expire(int id, Pending call) {
+    if (call.response.isDone()) return;
+    if (call.retriesLeft-- > 0) transmit(id, call);
+    else
+      call.response.completeExceptionally(
+          new SocketTimeoutException(
+              "No response to request " + id + " within " + call.timeoutMs + " ms"));
+  }
+
+  private void receiveLoop() {
+    ByteBuffer buffer = ByteBuffer.allocate(Fragments.MAX_DATAGRAM);
+    while (!closed) {
+      buffer.clear();
+      try {
+        dc.read(buffer);
+      } catch (AsynchronousCloseException e) {
+        break;
+      } catch (IOException e) {
+        // nothing listens on the port yet; the requests are retried on their timeouts
+        continue;
+      }
+      buffer.flip();
+
+      ByteBuffer received = buffer;
+      if (Fragments.isFragment(buffer)) {
+        received = collect(buffer);
+        if (received == null) continue;
+      }
+
+      NetworkMessage response;
+      try {
+        if (BinaryMessageCodec.isBinary(received))
+          response = BinaryMessageCodec.decode(received, null);
+        else
+          response =
+              NetworkMessageDeserializer.deserialize(
+                  received.array(),
+                  received.arrayOffset() + received.position(),
+                  received.remaining(),
+                  null);
+      } catch (RuntimeException e) {
+        continue;
+      }
+      if (!response.hasCorrelationId()) continue;
+      Pending call = pending.get(response.getCorrelationId());
+      // a late answer to a retried request finds it already completed
+      if (call != null) call.response.complete(response);
+    }
+  }
+
+  /**
+   * Adds a fragment to the response it belongs to.
+   *
+   * @param fragment the fragment
+   * @return the reassembled response if this was its last missing fragment, otherwise null
+   */
+  private ByteBuffer collect(ByteBuffer fragment) {
+    int id = Fragments.messageId(fragment);
+    int count = Fragments.count(fragment);
+    int index = Fragments.index(fragment);
+    if (finished.contains(id) || count <= 0 || count > MAX_FRAGMENTS) return null;
+
+    Partial partial =
+        partials.computeIfAbsent(
+            id,
+            key -> {
+              Partial created = new Partial(count);
+              created.check =
+                  timer.scheduleWithFixedDelay(
+                      () -> check(key, created),
+                      FRAGMENT_GAP_MS,
+                      FRAGMENT_GAP_MS,
+                      TimeUnit.MILLISECONDS);
+              return created;
+            });
+    synchronized (partial) {
+      if (index < 0 || index >= partial.parts.length || partial.parts[index] != null) return null;
+      ByteBuffer payload = Fragments.payload(fragment);
+      partial.parts[index] = new byte[payload.remaining()];
+      payload.get(partial.parts[index]);
+      partial.received++;
+      if (--partial.missing > 0) return null;
+      partial.check.cancel(false);
+    }
+    partials.remove(id);
+    finished.add(id);
+
+    int size = 0;
+    for (byte[] part : partial.parts) size += part.length;
+    ByteBuffer message = ByteBuffer.allocate(size);
+    for (byte[] part : partial.parts) message.put(part);
+    return message.flip();
+  }
+
+  /**
+   * Runs on the timer every fragment gap while a response is incomplete, asking for the missing
+   * fragments when none arrived since the last run and giving up after {@link #MAX_NACKS} runs
+   * without progress. The request of a dropped response is then answered by its retry.
+   */
+  private void check(int id, Partial partial) {
+    List<Integer> lost;
+    synchronized (partial) {
+      if (partial.missing == 0) return;
+      if (partial.received > partial.receivedAtCheck) {
+        partial.receivedAtCheck = partial.received;
+        partial.nacks = 0;
+        return;
+      }
+      if (++partial.nacks > MAX_NACKS) {
+        partial.check.cancel(false);
+        partials.remove(id);
+        finished.add(id);
+        return;
+      }
+      lost = new ArrayList<>(partial.missing);
+      for (int i = 0; i < partial.parts.length; i++) if (partial.parts[i] == null) lost.add(i);
+    }
+    try {
+      dc.write(Fragments.nack(id, lost));
+    } catch (IOException ignored) {
+      // asked again on the next run
+    }
+  }
+
+  /**
+   * Stops receiving and fails every request still waiting for a response.
+   *
+   * @throws IOException if closing the channel fails
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    timer.shutdownNow();
+    if (dc != null) dc.close();
+    IOException e = new IOException("Client is closed");
+    for (Pending call : pending.values()) call.response.completeExceptionally(e);
+  }
+}
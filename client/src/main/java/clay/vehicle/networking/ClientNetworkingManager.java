@@ -4,26 +4,49 @@ import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ClientNetworkingManager {
-  private byte[] send;
   private byte[] receive;
-  private DatagramChannel dc;
   private ByteBuffer snd;
+  private DatagramChannel dc;
   private SocketAddress addr;
   private String hostname;
   private int port;
 
+  /** Whether requests are sent in binary form rather than JSON */
+  private final boolean binary;
+
+  /** How long to wait for the next fragment before asking for the missing ones */
+  private static final int FRAGMENT_GAP_MS = 300;
+
+  private static final int MAX_NACKS = 10;
+
+  /** Most fragments accepted for one response, matching the largest response the server sends */
+  private static final int MAX_FRAGMENTS = (64 << 20) / Fragments.FRAGMENT_PAYLOAD + 1;
+
+  /** Id of the last fragmented response, whose late duplicates are ignored */
+  private int lastMessageId = -1;
+
   public ClientNetworkingManager(String hostname, int port) {
+    this(hostname, port, true);
+  }
+
+  public ClientNetworkingManager(String hostname, int port, boolean binary) {
     this.receive = new byte[65507]; // максимальный размер UDP пакета
+    this.snd = ByteBuffer.allocate(65507);
     this.hostname = hostname;
     this.port = port;
+    this.binary = binary;
   }
 
   public void init() throws UnknownHostException, IOException {
     this.addr = new InetSocketAddress(Inet4Address.getByName(hostname), port);
     this.dc = DatagramChannel.open();
     this.dc.configureBlocking(true); // Ensure blocking mode
+    // room for a burst of fragments of a large response
+    this.dc.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
   }
 
   public void setTimeout(int timeMs) throws SocketException, IOException {
@@ -31,17 +54,104 @@ public class ClientNetworkingManager {
     dc.configureBlocking(true);
   }
 
-  public void transmit(String message) throws IOException {
-    send = message.getBytes();
-    snd = ByteBuffer.wrap(send);
-    dc.send(snd, addr);
+  public int getTimeout() throws SocketException {
+    return dc.socket().getSoTimeout();
+  }
+
+  public void transmit(NetworkMessage message) throws IOException {
     snd.clear();
+    if (binary) BinaryMessageCodec.encode(message, snd);
+    else NetworkMessageSerializer.serialize(message, snd);
+    snd.flip();
+    dc.send(snd, addr);
   }
 
-  public String receive() throws SocketTimeoutException, IOException {
+  /**
+   * Waits for a response. The server answers in the form it was asked in, but either is accepted. A
+   * response sent in fragments is reassembled, asking the server again for fragments that don't
+   * arrive.
+   *
+   * @return the received message
+   * @throws SocketTimeoutException if nothing arrives within the timeout
+   * @throws IOException if receiving fails
+   */
+  public NetworkMessage receive() throws SocketTimeoutException, IOException {
     DatagramPacket dp = new DatagramPacket(receive, receive.length);
-    dc.socket().receive(dp);
+    ByteBuffer received;
+    do {
+      dc.socket().receive(dp);
+      received = ByteBuffer.wrap(dp.getData(), 0, dp.getLength());
+      if (Fragments.isFragment(received)) received = reassemble(received);
+      // a late fragment of an earlier response was skipped, wait for this one
+    } while (received == null);
+    return decode(received);
+  }
+
+  private static NetworkMessage decode(ByteBuffer received) {
+    if (BinaryMessageCodec.isBinary(received)) return BinaryMessageCodec.decode(received, null);
+    return NetworkMessageDeserializer.deserialize(
+        received.array(), received.arrayOffset() + received.position(), received.remaining(), null);
+  }
+
+  /**
+   * Collects the fragments of a response, starting with the first one received.
+   *
+   * @param first the first fragment received, in any position
+   * @return the reassembled response, or null if the fragment belongs to a response that was
+   *     already given up on
+   * @throws SocketTimeoutException if the missing fragments don't arrive after asking repeatedly
+   */
+  private ByteBuffer reassemble(ByteBuffer first) throws IOException {
+    int id = Fragments.messageId(first);
+    int count = Fragments.count(first);
+    if (id == lastMessageId) return null;
+    if (count <= 0 || count > MAX_FRAGMENTS)
+      throw new IOException("Invalid fragment count " + count);
+
+    byte[][] parts = new byte[count][];
+    int missing = count;
+    int timeout = dc.socket().getSoTimeout();
+    dc.socket().setSoTimeout(FRAGMENT_GAP_MS);
+    try {
+      ByteBuffer fragment = first;
+      int nacks = 0;
+      while (true) {
+        if (fragment != null
+            && Fragments.isFragment(fragment)
+            && Fragments.messageId(fragment) == id) {
+          int index = Fragments.index(fragment);
+          if (index >= 0 && index < count && parts[index] == null) {
+            ByteBuffer payload = Fragments.payload(fragment);
+            parts[index] = new byte[payload.remaining()];
+            payload.get(parts[index]);
+            missing--;
+            nacks = 0;
+          }
+        }
+        if (missing == 0) break;
+
+        DatagramPacket dp = new DatagramPacket(receive, receive.length);
+        try {
+          dc.socket().receive(dp);
+          fragment = ByteBuffer.wrap(dp.getData(), 0, dp.getLength());
+        } catch (SocketTimeoutException e) {
+          if (++nacks > MAX_NACKS)
+            throw new SocketTimeoutException(missing + " of " + count + " fragments never arrived");
+          List<Integer> lost = new ArrayList<>(missing);
+          for (int i = 0; i < count; i++) if (parts[i] == null) lost.add(i);
+          dc.send(Fragments.nack(id, lost), addr);
+          fragment = null;
+        }
+      }
+    } finally {
+      dc.socket().setSoTimeout(timeout);
+      lastMessageId = id;
+    }
 
-    return new String(dp.getData(), 0, dp.getLength());
+    int size = 0;
+    for (byte[] part : parts) size += part.length;
+    ByteBuffer message = ByteBuffer.allocate(size);
+    for (byte[] part : parts) message.put(part);
+    return message.flip();
   }
 }
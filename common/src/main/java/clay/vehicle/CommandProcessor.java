@@ -40,6 +40,23 @@ public class CommandProcessor {
     instructions.clear();
   }
 
+  /**
+   * Executes a single instruction immediately, bypassing the shared queue. Unlike {@link
+   * #runReturnable()} this method doesn't lock the processor, so independent instructions can run
+   * concurrently as long as the attached commands are thread-safe.
+   *
+   * @param instruction the command instruction to execute
+   * @return the command output
+   * @throws InvalidInstructionException if the command is unknown
+   */
+  public String runInstruction(String instruction) throws InvalidInstructionException {
+    String[] splitInstruction = MiscUtils.splitQuoted(instruction);
+    Executable curCommand = commands.get(splitInstruction[0]);
+    if (curCommand == null) throw new InvalidInstructionException("1: " + instruction);
+    return curCommand.execute(Arrays.copyOfRange(splitInstruction, 1, splitInstruction.length))
+        + "\n";
+  }
+
   public synchronized String runReturnable() throws InvalidInstructionException {
     String instruction;
     StringBuilder builder = new StringBuilder();
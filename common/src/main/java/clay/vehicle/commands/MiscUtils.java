@@ -26,10 +26,32 @@ public class MiscUtils {
 
   static DbStoreManager db;
 
+  private static volatile Validator validator;
+
   public static void attachDB(DbStoreManager manager) {
     db = manager;
   }
 
+  /**
+   * Gets a shared bean validator. Building a validator factory is expensive, so it is done once;
+   * the returned validator is thread-safe.
+   *
+   * @return the shared validator
+   */
+  public static Validator getValidator() {
+    Validator v = validator;
+    if (v == null) {
+      synchronized (MiscUtils.class) {
+        v = validator;
+        if (v == null) {
+          v = Validation.buildDefaultValidatorFactory().getValidator();
+          validator = v;
+        }
+      }
+    }
+    return v;
+  }
+
   /**
    * Prompts the user for a non-null Double value. Keeps prompting until a valid number is entered.
    *
@@ -163,8 +185,7 @@ public class MiscUtils {
     if (args.length < 7)
       throw new ValidationException("Not enough arguments: " + String.join(" ", args));
 
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
+    Validator validator = getValidator();
 
     Vehicle v;
 
@@ -201,8 +222,7 @@ public class MiscUtils {
     if (args.length < 7)
       throw new ValidationException("Not enough arguments: " + String.join(" ", args));
 
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
+    Validator validator = getValidator();
 
     Vehicle v;
 
@@ -234,8 +254,7 @@ public class MiscUtils {
   }
 
   public static String[] getVehicleSpecsFromInput(Shell shell) throws ValidationException {
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
+    Validator validator = getValidator();
 
     String name = getaStringNotNull(shell, "name: ");
     Double x = getaDoubleNotNull(shell, "x coordinate: ");
@@ -0,0 +1,151 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates over the whole collection, maintained on every change instead of computed by scans:
+ * counts per fuel and vehicle type, and count, sum, minimum and maximum of engine power and
+ * distance travelled. Per-coordinate counts are kept by {@link SpatialIndex}.
+ */
+public class AggregateIndex implements VehicleIndex {
+  private static final FuelType[] FUEL_TYPES = FuelType.values();
+  private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+
+  private final AtomicLongArray fuelTypes = new AtomicLongArray(FUEL_TYPES.length);
+
+  /** Counts per vehicle type, the last slot counts vehicles without a type */
+  private final AtomicLongArray vehicleTypes = new AtomicLongArray(VEHICLE_TYPES.length + 1);
+
+  private final Column enginePower = new Column();
+  private final Column distanceTravelled = new Column();
+
+  /**
+   * Summary of one numeric field.
+   *
+   * @param count the number of values
+   * @param sum the exact sum of the values
+   * @param min the smallest value, null if there are none
+   * @param max the largest value, null if there are none
+   */
+  public record Summary(long count, BigDecimal sum, Float min, Float max) {}
+
+  /**
+   * Multiset of the values of one float field. Values are kept ordered, so the minimum and maximum
+   * survive removals, and summed exactly, so adding and removing a value never leaves a rounding
+   * error behind.
+   */
+  private static class Column {
+    private final ConcurrentNavigableMap<Float, Long> values = new ConcurrentSkipListMap<>();
+    private long count;
+    private BigDecimal sum = BigDecimal.ZERO;
+
+    void add(float value) {
+      values.merge(value, 1L, Long::sum);
+      synchronized (this) {
+        count++;
+        sum = sum.add(new BigDecimal(value));
+      }
+    }
+
+    void remove(float value) {
+      values.computeIfPresent(value, (v, n) -> n == 1 ? null : n - 1);
+      synchronized (this) {
+        count--;
+        sum = sum.subtract(new BigDecimal(value));
+      }
+    }
+
+    synchronized void clear() {
+      values.clear();
+      count = 0;
+      sum = BigDecimal.ZERO;
+    }
+
+    Summary summary() {
+      long count;
+      BigDecimal sum;
+      synchronized (this) {
+        count = this.count;
+        sum = this.sum;
+      }
+      Map.Entry<Float, Long> min = values.firstEntry(), max = values.lastEntry();
+      return new Summary(
+          count, sum, min == null ? null : min.getKey(), max == null ? null : max.getKey());
+    }
+  }
+
+  @Override
+  public void add(Vehicle vehicle) {
+    fuelTypes.incrementAndGet(vehicle.getFuelType().ordinal());
+    vehicleTypes.incrementAndGet(typeSlot(vehicle.getType()));
+    enginePower.add(vehicle.getEnginePower());
+    distanceTravelled.add(vehicle.getDistanceTravelled());
+  }
+
+  @Override
+  public void remove(Vehicle vehicle) {
+    fuelTypes.decrementAndGet(vehicle.getFuelType().ordinal());
+    vehicleTypes.decrementAndGet(typeSlot(vehicle.getType()));
+    enginePower.remove(vehicle.getEnginePower());
+    distanceTravelled.remove(vehicle.getDistanceTravelled());
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < fuelTypes.length(); i++) fuelTypes.set(i, 0);
+    for (int i = 0; i < vehicleTypes.length(); i++) vehicleTypes.set(i, 0);
+    enginePower.clear();
+    distanceTravelled.clear();
+  }
+
+  private static int typeSlot(VehicleType type) {
+    return type == null ? VEHICLE_TYPES.length : type.ordinal();
+  }
+
+  /**
+   * Gets the number of vehicles using each fuel type.
+   *
+   * @return the counts, including zero ones
+   */
+  public Map<FuelType, Long> fuelTypeCounts() {
+    Map<FuelType, Long> counts = new EnumMap<>(FuelType.class);
+    for (FuelType fuelType : FUEL_TYPES) counts.put(fuelType, fuelTypes.get(fuelType.ordinal()));
+    return counts;
+  }
+
+  /**
+   * Gets the number of vehicles of each type.
+   *
+   * @return the counts, including zero ones
+   */
+  public Map<VehicleType, Long> vehicleTypeCounts() {
+    Map<VehicleType, Long> counts = new EnumMap<>(VehicleType.class);
+    for (VehicleType type : VEHICLE_TYPES) counts.put(type, vehicleTypes.get(type.ordinal()));
+    return counts;
+  }
+
+  /**
+   * Gets the number of vehicles without a type.
+   *
+   * @return the count
+   */
+  public long untypedCount() {
+    return vehicleTypes.get(VEHICLE_TYPES.length);
+  }
+
+  public Summary enginePower() {
+    return enginePower.summary();
+  }
+
+  public Summary distanceTravelled() {
+    return distanceTravelled.summary();
+  }
+}
@@ -2,6 +2,8 @@ package clay.vehicle.dataStorage;
 
 import clay.vehicle.vehicles.Vehicle;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Properties;
 
 public interface DbStoreManager {
@@ -11,14 +13,72 @@ public interface DbStoreManager {
 
   void syncFromDB(Storage storage) throws SQLException;
 
+  /**
+   * Gets the change version of the database as of now. Passing it to {@link #syncDelta} later picks
+   * up every change made since, so it should be taken before a full {@link #syncFromDB}.
+   *
+   * @return the current change version
+   * @throws SQLException if the version can't be read
+   */
+  long currentChangeVersion() throws SQLException;
+
+  /**
+   * Applies to the storage only the vehicles inserted, updated or deleted since the given version.
+   *
+   * @param storage the storage to bring up to date
+   * @param sinceVersion the version returned by the previous call or by {@link
+   *     #currentChangeVersion}
+   * @return the version to pass to the next call
+   * @throws SQLException if the changes can't be read
+   */
+  long syncDelta(Storage storage, long sinceVersion) throws SQLException;
+
+  /**
+   * Records the oldest change version this node may still sync from and deletes the changes that no
+   * node sharing the database needs anymore. Nodes that haven't recorded a version for a while stop
+   * holding the changes back; when they sync again they reload everything.
+   *
+   * @param neededVersion the oldest version this node may still pass to {@link #syncDelta}
+   * @return the number of changes deleted
+   * @throws SQLException if the changes can't be pruned
+   */
+  long pruneChanges(long neededVersion) throws SQLException;
+
+  /**
+   * Starts applying changes made by other nodes sharing the database to the storage as they happen.
+   * Stopped by {@link #disconnect}.
+   *
+   * @param storage the storage to keep up to date
+   * @throws SQLException if listening can't be started
+   */
+  void listenForChanges(Storage storage) throws SQLException;
+
   void insert(Vehicle vehicle) throws SQLException;
 
   int nextVehicleId() throws SQLException;
 
+  /**
+   * Takes several ids for new vehicles from the sequence at once, e.g. to keep inserting while the
+   * database is unreachable.
+   *
+   * @param count how many ids to take
+   * @return the ids, distinct but not necessarily consecutive
+   * @throws SQLException if the ids can't be taken
+   */
+  int[] reserveVehicleIds(int count) throws SQLException;
+
   void removeKey(int id) throws SQLException;
 
   void update(int id, Vehicle vehicle) throws SQLException;
 
+  void insertAll(Collection<Vehicle> vehicles) throws SQLException;
+
+  void updateAll(Map<Integer, Vehicle> vehicles) throws SQLException;
+
+  void removeKeys(Collection<Integer> ids) throws SQLException;
+
+  void applyChanges(Collection<Vehicle> upserts, Collection<Integer> deletes) throws SQLException;
+
   void truncateVehicles() throws SQLException;
 
   void resetVehicleIDs() throws SQLException;
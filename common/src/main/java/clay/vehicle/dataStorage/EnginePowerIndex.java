@@ -0,0 +1,147 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ordered index of vehicle ids by engine power. Each vehicle is one long key holding the engine
+ * power bits, mapped so that signed long order matches float order, in the high half and the id in
+ * the low half, kept in a concurrent skip list. Range lookups cost O(log n + k).
+ *
+ * <p>The index is live: storages update it after publishing each snapshot, so while a reader walks
+ * it, it may hold keys of a newer or an older version than the reader's snapshot. Walks over a
+ * snapshot check every key against the snapshot's vehicle and skip the keys that don't match it, so
+ * they never list a vehicle twice or out of order, but may miss one that changes meanwhile.
+ */
+public class EnginePowerIndex implements VehicleIndex {
+  private final NavigableSet<Long> keys = new ConcurrentSkipListSet<>();
+
+  private static long key(float enginePower, int id) {
+    return ((long) sortableBits(enginePower) << 32) | (id & 0xffffffffL);
+  }
+
+  private static int sortableBits(float value) {
+    int bits = Float.floatToIntBits(value);
+    // negative floats order backwards as ints, flipping their magnitude bits fixes that
+    return bits ^ ((bits >> 31) & 0x7fffffff);
+  }
+
+  private static int id(long key) {
+    return (int) key;
+  }
+
+  @Override
+  public void add(Vehicle vehicle) {
+    keys.add(key(vehicle.getEnginePower(), vehicle.getId()));
+  }
+
+  @Override
+  public void remove(Vehicle vehicle) {
+    keys.remove(key(vehicle.getEnginePower(), vehicle.getId()));
+  }
+
+  @Override
+  public void clear() {
+    keys.clear();
+  }
+
+  /**
+   * Gets the ids of vehicles with engine power strictly below a value, in ascending order.
+   *
+   * @param enginePower the bound
+   * @return the matching ids
+   */
+  public List<Integer> idsBelow(float enginePower) {
+    return ids(keys.headSet(((long) sortableBits(enginePower) << 32), false));
+  }
+
+  /**
+   * Gets the ids of vehicles with exactly the given engine power.
+   *
+   * @param enginePower the engine power
+   * @return the matching ids
+   */
+  public List<Integer> idsEqual(float enginePower) {
+    long low = (long) sortableBits(enginePower) << 32;
+    return ids(keys.subSet(low, true, low | 0xffffffffL, true));
+  }
+
+  /**
+   * Gets the ids of vehicles with engine power between two values, bounds included, in ascending
+   * engine power order.
+   *
+   * @param min the lowest engine power
+   * @param max the highest engine power
+   * @return the matching ids
+   */
+  public List<Integer> idsBetween(float min, float max) {
+    long low = (long) sortableBits(min) << 32;
+    long high = ((long) sortableBits(max) << 32) | 0xffffffffL;
+    if (low > high) return List.of();
+    return ids(keys.subSet(low, true, high, true));
+  }
+
+  /**
+   * Iterates over the vehicles of a snapshot in ascending engine power order, ties ordered by id,
+   * lazily. Vehicles changed since the snapshot are listed by their engine power in the snapshot,
+   * or not at all if the index dropped that key already.
+   *
+   * @param snapshot the snapshot to read vehicles from
+   * @return the vehicles
+   */
+  public Iterator<Vehicle> ascending(StorageSnapshot snapshot) {
+    return vehicles(keys.iterator(), snapshot);
+  }
+
+  /**
+   * Iterates over the vehicles of a snapshot in descending engine power order, ties ordered by
+   * descending id, lazily. See {@link #ascending(StorageSnapshot)}.
+   *
+   * @param snapshot the snapshot to read vehicles from
+   * @return the vehicles
+   */
+  public Iterator<Vehicle> descending(StorageSnapshot snapshot) {
+    return vehicles(keys.descendingIterator(), snapshot);
+  }
+
+  private static Iterator<Vehicle> vehicles(Iterator<Long> it, StorageSnapshot snapshot) {
+    return new Iterator<>() {
+      private Vehicle next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && it.hasNext()) {
+          long key = it.next();
+          Vehicle vehicle = snapshot.get(id(key));
+          // a key of another version of the vehicle is out of place for this snapshot
+          if (vehicle != null && key(vehicle.getEnginePower(), vehicle.getId()) == key)
+            next = vehicle;
+        }
+        return next != null;
+      }
+
+      @Override
+      public Vehicle next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Vehicle vehicle = next;
+        next = null;
+        return vehicle;
+      }
+    };
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  private static List<Integer> ids(NavigableSet<Long> range) {
+    List<Integer> ids = new ArrayList<>();
+    for (long key : range) ids.add(id(key));
+    return ids;
+  }
+}
@@ -0,0 +1,509 @@
+package clay.vehicle.dataStorage;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Persistent map from int keys to values, implemented as a hash array mapped trie with the key
+ * itself as the hash. Maps are never changed in place: {@link #put} and {@link #remove} return a
+ * new map sharing all untouched nodes with the old one, so an instance can be read and iterated
+ * from any number of threads while others derive new versions from it. A {@link Builder} makes many
+ * changes without copying the nodes it created itself, for bulk loads.
+ *
+ * @param <V> the type of values
+ */
+public final class IntTrieMap<V> implements Iterable<IntTrieMap.Entry<V>> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final IntTrieMap<?> EMPTY = new IntTrieMap<>(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  /**
+   * Key and value pair stored in the trie.
+   *
+   * @param key the key
+   * @param value the value
+   * @param <V> the type of the value
+   */
+  public record Entry<V>(int key, V value) {}
+
+  /**
+   * Inner trie node. Bit {@code i} of the bitmap is set when slot {@code i} of this level is used,
+   * used slots are packed in order into the array and hold either an {@link Entry} or a child node.
+   * Nodes are only mutated by the builder that created them, identified by {@code edit}.
+   */
+  private static final class Node {
+    final Object edit;
+    int bitmap;
+    Object[] slots;
+
+    Node(Object edit, int bitmap, Object[] slots) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    Node withSlot(Object edit, int index, Object slot) {
+      if (edit != null && this.edit == edit) {
+        slots[index] = slot;
+        return this;
+      }
+      Object[] copy = slots.clone();
+      copy[index] = slot;
+      return new Node(edit, bitmap, copy);
+    }
+
+    Node withInserted(Object edit, int bit, int index, Object slot) {
+      Object[] copy = new Object[slots.length + 1];
+      System.arraycopy(slots, 0, copy, 0, index);
+      copy[index] = slot;
+      System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+      if (edit != null && this.edit == edit) {
+        bitmap |= bit;
+        slots = copy;
+        return this;
+      }
+      return new Node(edit, bitmap | bit, copy);
+    }
+
+    Node withRemoved(Object edit, int bit, int index) {
+      if (bitmap == bit) return null;
+      Object[] copy = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, copy, 0, index);
+      System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+      if (edit != null && this.edit == edit) {
+        bitmap ^= bit;
+        slots = copy;
+        return this;
+      }
+      return new Node(edit, bitmap ^ bit, copy);
+    }
+  }
+
+  private IntTrieMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Gets the empty map.
+   *
+   * @param <V> the type of values
+   * @return the empty map
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> IntTrieMap<V> empty() {
+    return (IntTrieMap<V>) EMPTY;
+  }
+
+  /**
+   * Gets the number of entries.
+   *
+   * @return the size of the map
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the value of a key.
+   *
+   * @param key the key
+   * @return the value, or null if the key is absent
+   */
+  public V get(int key) {
+    return get(root, key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V get(Node root, int key) {
+    Node node = root;
+    int shift = 0;
+    while (node != null) {
+      int bit = 1 << ((key >>> shift) & MASK);
+      if ((node.bitmap & bit) == 0) return null;
+      Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+      if (slot instanceof Node child) {
+        node = child;
+        shift += BITS;
+      } else {
+        Entry<V> entry = (Entry<V>) slot;
+        return entry.key() == key ? entry.value() : null;
+      }
+    }
+    return null;
+  }
+
+  public boolean containsKey(int key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Derives a map with a key set to a value.
+   *
+   * @param key the key
+   * @param value the value, not null
+   * @return the new map, or this one if nothing changed
+   */
+  public IntTrieMap<V> put(int key, V value) {
+    boolean[] added = new boolean[1];
+    Node newRoot = put(root, 0, key, value, null, added);
+    if (newRoot == root) return this;
+    return new IntTrieMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Derives a map without a key.
+   *
+   * @param key the key
+   * @return the new map, or this one if the key was absent
+   */
+  public IntTrieMap<V> remove(int key) {
+    if (root == null) return this;
+    boolean[] removed = new boolean[1];
+    Node newRoot = remove(root, 0, key, null, removed);
+    if (!removed[0]) return this;
+    return newRoot == null ? empty() : new IntTrieMap<>(newRoot, size - 1);
+  }
+
+  /**
+   * Starts a builder with the contents of this map. This map is not affected by the builder.
+   *
+   * @return a new builder
+   */
+  public Builder<V> toBuilder() {
+    return new Builder<>(root, size);
+  }
+
+  private static Node put(
+      Node node, int shift, int key, Object value, Object edit, boolean[] added) {
+    if (node == null) {
+      added[0] = true;
+      return new Node(edit, 1 << ((key >>> shift) & MASK), new Object[] {new Entry<>(key, value)});
+    }
+    int bit = 1 << ((key >>> shift) & MASK);
+    int index = Integer.bitCount(node.bitmap & (bit - 1));
+    if ((node.bitmap & bit) == 0) {
+      added[0] = true;
+      return node.withInserted(edit, bit, index, new Entry<>(key, value));
+    }
+
+    Object slot = node.slots[index];
+    if (slot instanceof Node child) {
+      Node newChild = put(child, shift + BITS, key, value, edit, added);
+      return newChild == child ? node : node.withSlot(edit, index, newChild);
+    }
+    Entry<?> entry = (Entry<?>) slot;
+    if (entry.key() == key) {
+      return entry.value() == value ? node : node.withSlot(edit, index, new Entry<>(key, value));
+    }
+    added[0] = true;
+    return node.withSlot(edit, index, pair(shift + BITS, entry, new Entry<>(key, value), edit));
+  }
+
+  /** Builds the smallest subtree holding two entries with different keys. */
+  private static Node pair(int shift, Entry<?> a, Entry<?> b, Object edit) {
+    int ia = (a.key() >>> shift) & MASK;
+    int ib = (b.key() >>> shift) & MASK;
+    if (ia == ib) return new Node(edit, 1 << ia, new Object[] {pair(shift + BITS, a, b, edit)});
+    return new Node(
+        edit, (1 << ia) | (1 << ib), ia < ib ? new Object[] {a, b} : new Object[] {b, a});
+  }
+
+  private static Node remove(Node node, int shift, int key, Object edit, boolean[] removed) {
+    int bit = 1 << ((key >>> shift) & MASK);
+    if ((node.bitmap & bit) == 0) return node;
+    int index = Integer.bitCount(node.bitmap & (bit - 1));
+
+    Object slot = node.slots[index];
+    if (slot instanceof Node child) {
+      Node newChild = remove(child, shift + BITS, key, edit, removed);
+      if (!removed[0]) return node;
+      if (newChild == null) return node.withRemoved(edit, bit, index);
+      // a child left with a single entry is replaced by the entry itself
+      if (newChild.slots.length == 1 && newChild.slots[0] instanceof Entry<?> only)
+        return node.withSlot(edit, index, only);
+      return node.withSlot(edit, index, newChild);
+    }
+    if (((Entry<?>) slot).key() != key) return node;
+    removed[0] = true;
+    return node.withRemoved(edit, bit, index);
+  }
+
+  /**
+   * Iterates over the entries in key bit order, which is not numeric order.
+   *
+   * @return an iterator over the entries
+   */
+  @Override
+  public Iterator<Entry<V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  /**
+   * Gets a read-only view of the values.
+   *
+   * @return the values
+   */
+  public Collection<V> values() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<V> iterator() {
+        Iterator<Entry<V>> entries = IntTrieMap.this.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public V next() {
+            return entries.next().value();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Gets a read-only view of the keys.
+   *
+   * @return the keys
+   */
+  public Set<Integer> keySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Integer> iterator() {
+        Iterator<Entry<V>> entries = IntTrieMap.this.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Integer next() {
+            return entries.next().key();
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return o instanceof Integer key && containsKey(key);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Gets a read-only {@link Map} view of this map.
+   *
+   * @return the map view
+   */
+  public Map<Integer, V> asMap() {
+    return new AbstractMap<>() {
+      @Override
+      public Set<Map.Entry<Integer, V>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Map.Entry<Integer, V>> iterator() {
+            Iterator<IntTrieMap.Entry<V>> entries = IntTrieMap.this.iterator();
+            return new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return entries.hasNext();
+              }
+
+              @Override
+              public Map.Entry<Integer, V> next() {
+                IntTrieMap.Entry<V> e = entries.next();
+                return Map.entry(e.key(), e.value());
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return size;
+          }
+        };
+      }
+
+      @Override
+      public V get(Object key) {
+        return key instanceof Integer k ? IntTrieMap.this.get(k) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return key instanceof Integer k && IntTrieMap.this.containsKey(k);
+      }
+
+      @Override
+      public Set<Integer> keySet() {
+        return IntTrieMap.this.keySet();
+      }
+
+      @Override
+      public Collection<V> values() {
+        return IntTrieMap.this.values();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /** Depth-first iterator keeping one position per trie level. */
+  private static final class EntryIterator<V> implements Iterator<Entry<V>> {
+    // 32-bit keys in 5-bit levels never go deeper than 7 levels
+    private final Node[] nodes = new Node[7];
+    private final int[] positions = new int[7];
+    private int depth = -1;
+    private Entry<V> next;
+
+    EntryIterator(Node root) {
+      if (root != null) {
+        nodes[0] = root;
+        depth = 0;
+      }
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        Node node = nodes[depth];
+        if (positions[depth] >= node.slots.length) {
+          depth--;
+          continue;
+        }
+        Object slot = node.slots[positions[depth]++];
+        if (slot instanceof Node child) {
+          depth++;
+          nodes[depth] = child;
+          positions[depth] = 0;
+        } else {
+          next = (Entry<V>) slot;
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<V> next() {
+      if (next == null) throw new NoSuchElementException();
+      Entry<V> result = next;
+      advance();
+      return result;
+    }
+  }
+
+  /**
+   * Mutable builder of an {@link IntTrieMap}. Nodes copied or created by the builder are changed in
+   * place until {@link #build} is called, nodes shared with the source map are copied first. Not
+   * thread-safe.
+   *
+   * @param <V> the type of values
+   */
+  public static final class Builder<V> {
+    private Object edit = new Object();
+    private Node root;
+    private int size;
+
+    private Builder(Node root, int size) {
+      this.root = root;
+      this.size = size;
+    }
+
+    /**
+     * Sets a key to a value.
+     *
+     * @param key the key
+     * @param value the value, not null
+     * @return this builder
+     */
+    public Builder<V> put(int key, V value) {
+      ensureEditable();
+      boolean[] added = new boolean[1];
+      root = IntTrieMap.put(root, 0, key, value, edit, added);
+      if (added[0]) size++;
+      return this;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key
+     * @return this builder
+     */
+    public Builder<V> remove(int key) {
+      ensureEditable();
+      if (root == null) return this;
+      boolean[] removed = new boolean[1];
+      root = IntTrieMap.remove(root, 0, key, edit, removed);
+      if (removed[0]) size--;
+      return this;
+    }
+
+    /**
+     * Gets the value a key is set to so far.
+     *
+     * @param key the key
+     * @return the value, or null if the key is absent
+     */
+    public V get(int key) {
+      ensureEditable();
+      return IntTrieMap.get(root, key);
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Finishes building. The builder can't be used afterwards.
+     *
+     * @return the built map
+     */
+    public IntTrieMap<V> build() {
+      ensureEditable();
+      edit = null;
+      return root == null ? empty() : new IntTrieMap<>(root, size);
+    }
+
+    private void ensureEditable() {
+      if (edit == null) throw new IllegalStateException("Builder was already used");
+    }
+  }
+}
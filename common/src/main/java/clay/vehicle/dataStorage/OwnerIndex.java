@@ -0,0 +1,64 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of vehicle ids by the id of the user owning them. Lets user-scoped commands visit only that
+ * user's vehicles instead of the whole collection.
+ */
+public class OwnerIndex implements VehicleIndex {
+  private final ConcurrentMap<Integer, Set<Integer>> byUser = new ConcurrentHashMap<>();
+
+  @Override
+  public void add(Vehicle vehicle) {
+    // compute runs atomically with remove's computeIfPresent, so a set is never dropped while used
+    byUser.compute(
+        vehicle.getUserId(),
+        (uid, ids) -> {
+          if (ids == null) ids = ConcurrentHashMap.newKeySet();
+          ids.add(vehicle.getId());
+          return ids;
+        });
+  }
+
+  @Override
+  public void remove(Vehicle vehicle) {
+    byUser.computeIfPresent(
+        vehicle.getUserId(),
+        (uid, ids) -> {
+          ids.remove(vehicle.getId());
+          return ids.isEmpty() ? null : ids;
+        });
+  }
+
+  @Override
+  public void clear() {
+    byUser.clear();
+  }
+
+  /**
+   * Gets the ids of the vehicles owned by a user.
+   *
+   * @param uid the user id
+   * @return a read-only live view of the ids, empty if the user owns nothing
+   */
+  public Set<Integer> idsOf(int uid) {
+    Set<Integer> ids = byUser.get(uid);
+    return ids == null ? Set.of() : Collections.unmodifiableSet(ids);
+  }
+
+  /**
+   * Gets the number of vehicles owned by a user.
+   *
+   * @param uid the user id
+   * @return the number of vehicles
+   */
+  public int countOf(int uid) {
+    Set<Integer> ids = byUser.get(uid);
+    return ids == null ? 0 : ids.size();
+  }
+}
@@ -0,0 +1,232 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.Vehicle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Spatial index of vehicles by coordinates. Keeps the number of vehicles at every distinct point,
+ * so grouping by coordinates costs O(distinct points), and a uniform grid of square cells holding
+ * the ids in each cell, for box counts and nearest neighbour lookups. Coordinates are bounded only
+ * on one side (x > -731, y ≤ 803), so cells are created on demand and dropped when empty.
+ */
+public class SpatialIndex implements VehicleIndex {
+  /** Side of a grid cell, sized so that the usual coordinate range spans a few dozen cells */
+  private static final double CELL_SIZE = 32;
+
+  private final ConcurrentMap<Point, Integer> counts = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ConcurrentMap<Integer, Point>> cells =
+      new ConcurrentHashMap<>();
+
+  /** Immutable copy of a coordinate pair, since {@link Coordinates} has setters */
+  private record Point(double x, double y) {
+    double distanceTo(double x, double y) {
+      return Math.hypot(this.x - x, this.y - y);
+    }
+  }
+
+  private record Candidate(int id, double distance) {}
+
+  private static Point point(Vehicle vehicle) {
+    Coordinates coordinates = vehicle.getCoordinates();
+    return new Point(coordinates.getX(), coordinates.getY());
+  }
+
+  private static int cell(double coordinate) {
+    // saturates for huge coordinates, which only makes their cell crowded
+    return (int) Math.floor(coordinate / CELL_SIZE);
+  }
+
+  private static long cellKey(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+
+  @Override
+  public void add(Vehicle vehicle) {
+    Point point = point(vehicle);
+    counts.merge(point, 1, Integer::sum);
+    cells.compute(
+        cellKey(cell(point.x()), cell(point.y())),
+        (key, ids) -> {
+          if (ids == null) ids = new ConcurrentHashMap<>();
+          ids.put(vehicle.getId(), point);
+          return ids;
+        });
+  }
+
+  @Override
+  public void remove(Vehicle vehicle) {
+    Point point = point(vehicle);
+    counts.computeIfPresent(point, (p, count) -> count == 1 ? null : count - 1);
+    cells.computeIfPresent(
+        cellKey(cell(point.x()), cell(point.y())),
+        (key, ids) -> {
+          ids.remove(vehicle.getId());
+          return ids.isEmpty() ? null : ids;
+        });
+  }
+
+  @Override
+  public void clear() {
+    counts.clear();
+    cells.clear();
+  }
+
+  /**
+   * Gets the number of vehicles at every distinct point.
+   *
+   * @return the counts by coordinates
+   */
+  public Map<Coordinates, Integer> countsByCoordinates() {
+    Map<Coordinates, Integer> result = new LinkedHashMap<>();
+    counts.forEach((point, count) -> result.put(new Coordinates(point.x(), point.y()), count));
+    return result;
+  }
+
+  /**
+   * Counts the vehicles inside a box, borders included.
+   *
+   * @param minX the lowest x
+   * @param minY the lowest y
+   * @param maxX the highest x
+   * @param maxY the highest y
+   * @return the number of vehicles in the box
+   */
+  public int countInBox(double minX, double minY, double maxX, double maxY) {
+    if (minX > maxX || minY > maxY) return 0;
+    int fromX = cell(minX), toX = cell(maxX), fromY = cell(minY), toY = cell(maxY);
+    int count = 0;
+    if (((long) toX - fromX + 1) * ((long) toY - fromY + 1) > cells.size()) {
+      // a huge box, cheaper to go over the occupied cells than over the box
+      for (Map<Integer, Point> ids : cells.values())
+        count += countInBox(ids, minX, minY, maxX, maxY);
+      return count;
+    }
+    for (long cx = fromX; cx <= toX; cx++)
+      for (long cy = fromY; cy <= toY; cy++) {
+        Map<Integer, Point> ids = cells.get(cellKey((int) cx, (int) cy));
+        if (ids == null) continue;
+        boolean inside = cx > fromX && cx < toX && cy > fromY && cy < toY;
+        count += inside ? ids.size() : countInBox(ids, minX, minY, maxX, maxY);
+      }
+    return count;
+  }
+
+  private static int countInBox(
+      Map<Integer, Point> ids, double minX, double minY, double maxX, double maxY) {
+    int count = 0;
+    for (Point p : ids.values())
+      if (p.x() >= minX && p.x() <= maxX && p.y() >= minY && p.y() <= maxY) count++;
+    return count;
+  }
+
+  /**
+   * Gets the ids of the vehicles inside a box, borders included. Visits the same cells as {@link
+   * #countInBox}.
+   *
+   * @param minX the lowest x
+   * @param minY the lowest y
+   * @param maxX the highest x
+   * @param maxY the highest y
+   * @return the matching ids, in no particular order
+   */
+  public List<Integer> idsInBox(double minX, double minY, double maxX, double maxY) {
+    List<Integer> result = new ArrayList<>();
+    if (minX > maxX || minY > maxY) return result;
+    int fromX = cell(minX), toX = cell(maxX), fromY = cell(minY), toY = cell(maxY);
+    if (((long) toX - fromX + 1) * ((long) toY - fromY + 1) > cells.size()) {
+      for (Map<Integer, Point> ids : cells.values())
+        collectInBox(result, ids, minX, minY, maxX, maxY);
+      return result;
+    }
+    for (long cx = fromX; cx <= toX; cx++)
+      for (long cy = fromY; cy <= toY; cy++) {
+        Map<Integer, Point> ids = cells.get(cellKey((int) cx, (int) cy));
+        if (ids == null) continue;
+        if (cx > fromX && cx < toX && cy > fromY && cy < toY) result.addAll(ids.keySet());
+        else collectInBox(result, ids, minX, minY, maxX, maxY);
+      }
+    return result;
+  }
+
+  private static void collectInBox(
+      List<Integer> result,
+      Map<Integer, Point> ids,
+      double minX,
+      double minY,
+      double maxX,
+      double maxY) {
+    for (Map.Entry<Integer, Point> entry : ids.entrySet()) {
+      Point p = entry.getValue();
+      if (p.x() >= minX && p.x() <= maxX && p.y() >= minY && p.y() <= maxY)
+        result.add(entry.getKey());
+    }
+  }
+
+  /**
+   * Finds the vehicles nearest to a point, searching rings of cells outwards until no unvisited
+   * cell can hold anything closer.
+   *
+   * @param x the x of the point
+   * @param y the y of the point
+   * @param k the number of vehicles to find
+   * @return up to k ids, nearest first, ties ordered by id
+   */
+  public List<Integer> nearest(double x, double y, int k) {
+    Comparator<Candidate> nearestFirst =
+        Comparator.comparingDouble(Candidate::distance).thenComparingInt(Candidate::id);
+    PriorityQueue<Candidate> best = new PriorityQueue<>(nearestFirst.reversed());
+    if (k <= 0) return List.of();
+
+    int cx = cell(x), cy = cell(y);
+    int occupied = cells.size();
+    for (long r = 0; ; r++) {
+      if ((2 * r + 1) * (2 * r + 1) > 4L * occupied) {
+        // the rings outgrew the occupied cells, start over going through all of them
+        best.clear();
+        for (Map<Integer, Point> ids : cells.values()) offer(best, ids, x, y, k, nearestFirst);
+        break;
+      }
+      for (long i = cx - r; i <= cx + r; i++)
+        for (long j = cy - r; j <= cy + r; j += (i == cx - r || i == cx + r) ? 1 : 2 * r) {
+          Map<Integer, Point> ids = cells.get(cellKey((int) i, (int) j));
+          if (ids != null) offer(best, ids, x, y, k, nearestFirst);
+          if (r == 0) break;
+        }
+      // anything outside the visited square is at least this far away
+      double reach =
+          Math.min(
+              Math.min(x - (cx - r) * CELL_SIZE, (cx + r + 1) * CELL_SIZE - x),
+              Math.min(y - (cy - r) * CELL_SIZE, (cy + r + 1) * CELL_SIZE - y));
+      if (best.size() == k && best.peek().distance() <= reach) break;
+    }
+
+    List<Candidate> sorted = new ArrayList<>(best);
+    sorted.sort(nearestFirst);
+    return sorted.stream().map(Candidate::id).toList();
+  }
+
+  private static void offer(
+      PriorityQueue<Candidate> best,
+      Map<Integer, Point> ids,
+      double x,
+      double y,
+      int k,
+      Comparator<Candidate> nearestFirst) {
+    for (Map.Entry<Integer, Point> entry : ids.entrySet()) {
+      Candidate candidate = new Candidate(entry.getKey(), entry.getValue().distanceTo(x, y));
+      if (best.size() < k) best.add(candidate);
+      else if (nearestFirst.compare(candidate, best.peek()) < 0) {
+        best.poll();
+        best.add(candidate);
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package clay.vehicle.dataStorage;
 
 import clay.vehicle.vehicles.Vehicle;
 import java.sql.SQLException;
+import java.time.ZonedDateTime;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -11,16 +12,56 @@ public interface Storage {
 
   Collection<Vehicle> getValues();
 
+  /**
+   * Gets an immutable, consistent version of the collection. Implementations should return it
+   * without copying.
+   *
+   * @return the current snapshot
+   */
+  StorageSnapshot snapshot();
+
+  /**
+   * Gets the secondary indexes, kept in sync with the collection.
+   *
+   * @return the indexes
+   */
+  StorageIndexes getIndexes();
+
   Vehicle getElement(int id);
 
   Vehicle removeKey(int id) throws SQLException;
 
   void clearLocalCollection();
 
+  /**
+   * Replaces the local collection with the given vehicles at once, without touching the database.
+   * The vehicles are added to the new contents as the source produces them.
+   *
+   * @param vehicles the new contents
+   * @throws SQLException if the source fails, in which case the collection is left unchanged
+   */
+  void replaceLocalCollection(VehicleSource vehicles) throws SQLException;
+
+  /**
+   * Applies changes made by other writers of the database to the local collection only.
+   *
+   * @param upserts vehicles to put, replacing any with the same id
+   * @param deletes ids of vehicles to remove
+   */
+  void applyRemoteChanges(Collection<Vehicle> upserts, Collection<Integer> deletes);
+
   void updateElement(int id, Vehicle vehicle) throws SQLException;
 
+  void insertAll(Collection<Vehicle> vehicles) throws SQLException;
+
+  void updateAll(Map<Integer, Vehicle> vehicles) throws SQLException;
+
+  int removeKeys(Collection<Integer> ids) throws SQLException;
+
   String getType();
 
+  ZonedDateTime getInitDate();
+
   Integer getLen();
 
   Set<Integer> getKeys();
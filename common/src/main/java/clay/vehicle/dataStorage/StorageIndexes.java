@@ -0,0 +1,100 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Secondary indexes of a storage. Storages report every published change here, and commands use the
+ * indexes to find candidate vehicles without scanning the collection. Indexes may briefly lag
+ * behind the collection, so candidates should be checked against a {@link StorageSnapshot}.
+ *
+ * <p>A rebuild fills new indexes off to the side and swaps them in at once, so readers see either
+ * the old or the new contents in full, never an emptied or half-filled index.
+ */
+public class StorageIndexes {
+  /** One generation of the indexes, replaced as a whole by a rebuild */
+  private record Generation(
+      EnginePowerIndex enginePower,
+      OwnerIndex owners,
+      SpatialIndex coordinates,
+      AggregateIndex aggregates,
+      List<VehicleIndex> all) {
+    Generation(
+        EnginePowerIndex enginePower,
+        OwnerIndex owners,
+        SpatialIndex coordinates,
+        AggregateIndex aggregates) {
+      this(
+          enginePower,
+          owners,
+          coordinates,
+          aggregates,
+          List.of(enginePower, owners, coordinates, aggregates));
+    }
+
+    Generation() {
+      this(new EnginePowerIndex(), new OwnerIndex(), new SpatialIndex(), new AggregateIndex());
+    }
+  }
+
+  private volatile Generation current = new Generation();
+
+  public EnginePowerIndex getEnginePower() {
+    return current.enginePower();
+  }
+
+  public OwnerIndex getOwners() {
+    return current.owners();
+  }
+
+  public SpatialIndex getCoordinates() {
+    return current.coordinates();
+  }
+
+  public AggregateIndex getAggregates() {
+    return current.aggregates();
+  }
+
+  /**
+   * Updates the indexes after a change of some vehicles. The caller must keep those ids from being
+   * changed by anyone else until this returns.
+   *
+   * @param before the snapshot before the change
+   * @param after the snapshot after the change
+   * @param ids the changed vehicle ids
+   */
+  public void update(StorageSnapshot before, StorageSnapshot after, Collection<Integer> ids) {
+    if (before == after) return;
+    Set<Integer> distinct = ids instanceof Set<Integer> set ? set : new HashSet<>(ids);
+    for (int id : distinct) update(before.get(id), after.get(id));
+  }
+
+  /**
+   * Updates the indexes after a change of one vehicle.
+   *
+   * @param old the previous vehicle, or null if it was inserted
+   * @param now the new vehicle, or null if it was removed
+   */
+  public void update(Vehicle old, Vehicle now) {
+    if (old == now) return;
+    for (VehicleIndex index : current.all()) {
+      if (old != null) index.remove(old);
+      if (now != null) index.add(now);
+    }
+  }
+
+  /**
+   * Rebuilds the indexes from scratch, e.g. after the collection was replaced. The caller must keep
+   * every id from being changed by anyone else until this returns.
+   *
+   * @param snapshot the new contents
+   */
+  public void rebuild(StorageSnapshot snapshot) {
+    Generation fresh = new Generation();
+    for (VehicleIndex index : fresh.all()) for (Vehicle vehicle : snapshot) index.add(vehicle);
+    current = fresh;
+  }
+}
@@ -0,0 +1,51 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable version of a storage's collection. Taking a snapshot costs nothing: storages publish a
+ * new one on every write, sharing all unchanged structure with the previous version. Everything
+ * read from one snapshot is mutually consistent.
+ */
+public interface StorageSnapshot extends Iterable<Vehicle> {
+  /**
+   * Gets the number of this version.
+   *
+   * @return a number increasing with every published change
+   */
+  long version();
+
+  /**
+   * Gets a vehicle by its ID.
+   *
+   * @param id the vehicle id
+   * @return the vehicle, or null if this version has none with that id
+   */
+  Vehicle get(int id);
+
+  int size();
+
+  /**
+   * Gets the vehicles of this version.
+   *
+   * @return a read-only view
+   */
+  Collection<Vehicle> values();
+
+  /**
+   * Gets the ids of this version.
+   *
+   * @return a read-only view
+   */
+  Set<Integer> keys();
+
+  /**
+   * Gets this version as a map of vehicles by id.
+   *
+   * @return a read-only view
+   */
+  Map<Integer, Vehicle> asMap();
+}
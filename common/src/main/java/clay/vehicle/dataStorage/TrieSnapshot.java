@@ -0,0 +1,67 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot holding the vehicles themselves in an {@link IntTrieMap}. Storages publish a new one on
+ * every write, sharing all unchanged structure with the previous version.
+ *
+ * @param version number of the version, increasing with every published change
+ * @param vehicles the vehicles of this version by id
+ */
+public record TrieSnapshot(long version, IntTrieMap<Vehicle> vehicles) implements StorageSnapshot {
+  private static final TrieSnapshot EMPTY = new TrieSnapshot(0, IntTrieMap.empty());
+
+  /**
+   * Gets the initial empty snapshot.
+   *
+   * @return a snapshot of version 0 without vehicles
+   */
+  public static TrieSnapshot empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Derives the next version.
+   *
+   * @param vehicles the vehicles of the next version
+   * @return the next snapshot, or this one if the vehicles didn't change
+   */
+  public TrieSnapshot next(IntTrieMap<Vehicle> vehicles) {
+    return vehicles == this.vehicles ? this : new TrieSnapshot(version + 1, vehicles);
+  }
+
+  @Override
+  public Vehicle get(int id) {
+    return vehicles.get(id);
+  }
+
+  @Override
+  public int size() {
+    return vehicles.size();
+  }
+
+  @Override
+  public Collection<Vehicle> values() {
+    return vehicles.values();
+  }
+
+  @Override
+  public Set<Integer> keys() {
+    return vehicles.keySet();
+  }
+
+  @Override
+  public Map<Integer, Vehicle> asMap() {
+    return vehicles.asMap();
+  }
+
+  @Override
+  public Iterator<Vehicle> iterator() {
+    return vehicles.values().iterator();
+  }
+}
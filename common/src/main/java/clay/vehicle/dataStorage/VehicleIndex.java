@@ -0,0 +1,16 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+
+/**
+ * Secondary index over the vehicles of a storage. Storages keep their indexes in sync through
+ * {@link StorageIndexes}; implementations must be safe to update from several threads, but never
+ * see two concurrent updates of the same vehicle id.
+ */
+public interface VehicleIndex {
+  void add(Vehicle vehicle);
+
+  void remove(Vehicle vehicle);
+
+  void clear();
+}
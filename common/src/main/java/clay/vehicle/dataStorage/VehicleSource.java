@@ -0,0 +1,20 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Vehicles produced one at a time, e.g. rows streamed from the database, so that a storage can
+ * build its new contents without the whole collection being held in a list first.
+ */
+@FunctionalInterface
+public interface VehicleSource {
+  /**
+   * Passes every vehicle to the sink, on the calling thread. Can be called once only.
+   *
+   * @param sink receiver of the vehicles
+   * @throws SQLException if the vehicles can't be read
+   */
+  void forEach(Consumer<Vehicle> sink) throws SQLException;
+}
@@ -0,0 +1,227 @@
+package clay.vehicle.networking;
+
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary form of {@link NetworkMessage}, an alternative to the JSON form of {@link
+ * NetworkMessageSerializer} that reads and writes buffers directly, without building a tree or an
+ * intermediate string.
+ *
+ * <p>A message is the {@link #VERSION} byte, the type as ordinal + 1 (0 for none), a varint of
+ * flags telling which fields are present, then the present fields in order: message, command, args,
+ * login, password, token, cursor, correlation id, batch. Strings are UTF-8 prefixed with their byte
+ * length as a varint, args are prefixed with their count, the correlation id is a zigzag varint and
+ * a batch is its count followed by its messages in this same form; batches don't nest. The address
+ * isn't sent, it's taken from the datagram.
+ *
+ * <p>The version byte can't start a JSON text, so a receiver tells the two forms apart by the first
+ * byte with {@link #isBinary} and answers in the form it was asked in.
+ */
+public class BinaryMessageCodec {
+  /** First byte of every binary message, also the version of the format */
+  public static final byte VERSION = (byte) 0xB1;
+
+  private static final MessageType[] TYPES = MessageType.values();
+
+  private static final int HAS_MESSAGE = 1;
+  private static final int HAS_COMMAND = 1 << 1;
+  private static final int HAS_ARGS = 1 << 2;
+  private static final int HAS_LOGIN = 1 << 3;
+  private static final int HAS_PASSWORD = 1 << 4;
+  private static final int HAS_TOKEN = 1 << 5;
+  private static final int HAS_CURSOR = 1 << 6;
+  private static final int HAS_CORRELATION_ID = 1 << 7;
+  private static final int HAS_BATCH = 1 << 8;
+
+  /**
+   * Checks whether a received datagram holds a binary message.
+   *
+   * @param buffer the datagram, from its position to its limit
+   * @return true if it starts with the binary version byte
+   */
+  public static boolean isBinary(ByteBuffer buffer) {
+    return buffer.hasRemaining() && buffer.get(buffer.position()) == VERSION;
+  }
+
+  /**
+   * Writes a message at the position of a buffer.
+   *
+   * @param message the message
+   * @param out the buffer
+   * @throws java.nio.BufferOverflowException if the message doesn't fit
+   */
+  public static void encode(NetworkMessage message, ByteBuffer out) {
+    out.put(VERSION);
+    out.put((byte) (message.getType() == null ? 0 : message.getType().ordinal() + 1));
+    int flags = 0;
+    if (message.hasMessage()) flags |= HAS_MESSAGE;
+    if (message.hasCommand()) flags |= HAS_COMMAND;
+    if (message.hasArgs()) flags |= HAS_ARGS;
+    if (message.hasLogin()) flags |= HAS_LOGIN;
+    if (message.hasPassword()) flags |= HAS_PASSWORD;
+    if (message.hasToken()) flags |= HAS_TOKEN;
+    if (message.hasCursor()) flags |= HAS_CURSOR;
+    if (message.hasCorrelationId()) flags |= HAS_CORRELATION_ID;
+    if (message.hasBatch()) flags |= HAS_BATCH;
+    // a single byte while there were only seven flags, so older messages read the same
+    putVarint(out, flags);
+
+    if (message.hasMessage()) putString(out, message.getMessage());
+    if (message.hasCommand()) putString(out, message.getCommand());
+    if (message.hasArgs()) {
+      putVarint(out, message.getArgs().length);
+      for (String arg : message.getArgs()) putString(out, arg == null ? "" : arg);
+    }
+    if (message.hasLogin()) putString(out, message.getLogin());
+    if (message.hasPassword()) putString(out, message.getPassword());
+    if (message.hasToken()) putString(out, message.getToken());
+    if (message.hasCursor()) putString(out, message.getCursor());
+    if (message.hasCorrelationId()) {
+      int id = message.getCorrelationId();
+      putVarint(out, (id << 1) ^ (id >> 31));
+    }
+    if (message.hasBatch()) {
+      putVarint(out, message.getBatch().length);
+      for (NetworkMessage item : message.getBatch()) encode(item, out);
+    }
+  }
+
+  /**
+   * Reads a message from the position of a buffer.
+   *
+   * @param in the buffer
+   * @param address the address the message came from, or null
+   * @return the message
+   * @throws IllegalArgumentException if the buffer doesn't hold a valid binary message
+   */
+  public static NetworkMessage decode(ByteBuffer in, SocketAddress address) {
+    return decode(in, address, true);
+  }
+
+  private static NetworkMessage decode(ByteBuffer in, SocketAddress address, boolean batchAllowed) {
+    try {
+      byte version = in.get();
+      if (version != VERSION)
+        throw new IllegalArgumentException("Unsupported binary message version " + version);
+      int type = in.get();
+      if (type < 0 || type > TYPES.length)
+        throw new IllegalArgumentException("Unknown message type " + type);
+      int flags = getVarint(in);
+
+      NetworkMessage.Builder builder = NetworkMessage.newBuilder();
+      if (type > 0) builder.setType(TYPES[type - 1]);
+      if (address != null) builder.setAdress(address);
+      if ((flags & HAS_MESSAGE) != 0) builder.setMessage(getString(in));
+      if ((flags & HAS_COMMAND) != 0) builder.setCommand(getString(in));
+      if ((flags & HAS_ARGS) != 0) {
+        int count = getVarint(in);
+        // every arg takes at least its length byte
+        if (count > in.remaining()) throw new BufferUnderflowException();
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) args[i] = getString(in);
+        builder.setArgs(args);
+      }
+      if ((flags & HAS_LOGIN) != 0) builder.setLogin(getString(in));
+      if ((flags & HAS_PASSWORD) != 0) builder.setPassword(getString(in));
+      if ((flags & HAS_TOKEN) != 0) builder.setToken(getString(in));
+      if ((flags & HAS_CURSOR) != 0) builder.setCursor(getString(in));
+      if ((flags & HAS_CORRELATION_ID) != 0) {
+        int zigzag = getUnsignedVarint(in);
+        builder.setCorrelationId((zigzag >>> 1) ^ -(zigzag & 1));
+      }
+      if ((flags & HAS_BATCH) != 0) {
+        if (!batchAllowed) throw new IllegalArgumentException("Nested batch");
+        int count = getVarint(in);
+        // every message takes at least its version, type and flags bytes
+        if (count > in.remaining() / 3) throw new BufferUnderflowException();
+        NetworkMessage[] batch = new NetworkMessage[count];
+        for (int i = 0; i < count; i++) batch[i] = decode(in, address, false);
+        builder.setBatch(batch);
+      }
+      return builder.build();
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated binary message", e);
+    }
+  }
+
+  private static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) (value & 0x7F | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  private static int getVarint(ByteBuffer in) {
+    int value = getUnsignedVarint(in);
+    if (value < 0) throw new IllegalArgumentException("Negative length");
+    return value;
+  }
+
+  private static int getUnsignedVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /** Counts the UTF-8 bytes of a string, with unpaired surrogates replaced by '?'. */
+  private static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) length++;
+      else if (c < 0x800) length += 2;
+      else if (Character.isHighSurrogate(c)
+          && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) length++;
+      else length += 3;
+    }
+    return length;
+  }
+
+  private static void putString(ByteBuffer out, String s) {
+    putVarint(out, utf8Length(s));
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) out.put((byte) c);
+      else if (c < 0x800) {
+        out.put((byte) (0xC0 | c >> 6));
+        out.put((byte) (0x80 | c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        out.put((byte) (0xF0 | cp >> 18));
+        out.put((byte) (0x80 | cp >> 12 & 0x3F));
+        out.put((byte) (0x80 | cp >> 6 & 0x3F));
+        out.put((byte) (0x80 | cp & 0x3F));
+      } else if (Character.isSurrogate(c)) out.put((byte) '?');
+      else {
+        out.put((byte) (0xE0 | c >> 12));
+        out.put((byte) (0x80 | c >> 6 & 0x3F));
+        out.put((byte) (0x80 | c & 0x3F));
+      }
+    }
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = getVarint(in);
+    if (length > in.remaining()) throw new BufferUnderflowException();
+    String s;
+    if (in.hasArray())
+      s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+    else s = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+    in.position(in.position() + length);
+    return s;
+  }
+}
@@ -0,0 +1,126 @@
+package clay.vehicle.networking;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Transfer of messages larger than one datagram. The encoded message is split into numbered
+ * fragments sharing a message id; the receiver reassembles them and asks for missing ones with a
+ * NACK listing their numbers, which the sender answers by sending just those again.
+ *
+ * <p>A fragment is the {@link #FRAGMENT} byte, the message id, the fragment number and the number
+ * of fragments as ints, then its part of the message. A NACK is the {@link #NACK} byte, the message
+ * id and the count of missing fragment numbers, then the numbers. Neither first byte can start a
+ * JSON or binary message, so all of them share the port.
+ */
+public final class Fragments {
+  public static final byte FRAGMENT = (byte) 0xF1;
+  public static final byte NACK = (byte) 0xF2;
+
+  /** Largest payload of a UDP datagram */
+  public static final int MAX_DATAGRAM = 65507;
+
+  public static final int HEADER_SIZE = 1 + 3 * Integer.BYTES;
+
+  /** Largest fragment, small enough to cross an Ethernet link without IP fragmentation */
+  public static final int MAX_FRAGMENT = 1400;
+
+  /**
+   * Bytes of the message carried by each fragment but the last. Fragments larger than the path MTU
+   * are split by IP, and losing any of those pieces loses the whole fragment.
+   */
+  public static final int FRAGMENT_PAYLOAD = MAX_FRAGMENT - HEADER_SIZE;
+
+  /** Most fragment numbers one NACK can carry */
+  public static final int MAX_NACKED = (MAX_DATAGRAM - 1 - 2 * Integer.BYTES) / Integer.BYTES;
+
+  private Fragments() {}
+
+  public static boolean isFragment(ByteBuffer buffer) {
+    return buffer.remaining() >= HEADER_SIZE && buffer.get(buffer.position()) == FRAGMENT;
+  }
+
+  public static boolean isNack(ByteBuffer buffer) {
+    return buffer.remaining() >= 1 + 2 * Integer.BYTES && buffer.get(buffer.position()) == NACK;
+  }
+
+  /**
+   * Splits an encoded message into fragments.
+   *
+   * @param id the message id
+   * @param message the encoded message, from its position to its limit
+   * @return the fragments, each ready to be sent
+   */
+  public static List<ByteBuffer> split(int id, ByteBuffer message) {
+    int count = (message.remaining() + FRAGMENT_PAYLOAD - 1) / FRAGMENT_PAYLOAD;
+    List<ByteBuffer> fragments = new ArrayList<>(count);
+    for (int index = 0; index < count; index++) {
+      int length = Math.min(FRAGMENT_PAYLOAD, message.remaining());
+      ByteBuffer fragment = ByteBuffer.allocate(HEADER_SIZE + length);
+      fragment.put(FRAGMENT).putInt(id).putInt(index).putInt(count);
+      fragment.put(fragment.position(), message, message.position(), length);
+      message.position(message.position() + length);
+      fragments.add(fragment.clear());
+    }
+    return fragments;
+  }
+
+  public static int messageId(ByteBuffer packet) {
+    return packet.getInt(packet.position() + 1);
+  }
+
+  public static int index(ByteBuffer fragment) {
+    return fragment.getInt(fragment.position() + 1 + Integer.BYTES);
+  }
+
+  public static int count(ByteBuffer fragment) {
+    return fragment.getInt(fragment.position() + 1 + 2 * Integer.BYTES);
+  }
+
+  /**
+   * Gets the part of the message a fragment carries.
+   *
+   * @param fragment the fragment
+   * @return a buffer over its payload
+   */
+  public static ByteBuffer payload(ByteBuffer fragment) {
+    return fragment.slice(fragment.position() + HEADER_SIZE, fragment.remaining() - HEADER_SIZE);
+  }
+
+  /**
+   * Builds a NACK asking for missing fragments again.
+   *
+   * @param id the message id
+   * @param missing numbers of the missing fragments; only the first {@link #MAX_NACKED} are asked
+   *     for
+   * @return the NACK, ready to be sent
+   */
+  public static ByteBuffer nack(int id, Collection<Integer> missing) {
+    int count = Math.min(missing.size(), MAX_NACKED);
+    ByteBuffer nack = ByteBuffer.allocate(1 + 2 * Integer.BYTES + count * Integer.BYTES);
+    nack.put(NACK).putInt(id).putInt(count);
+    for (int index : missing) {
+      if (!nack.hasRemaining()) break;
+      nack.putInt(index);
+    }
+    return nack.flip();
+  }
+
+  /**
+   * Reads the fragment numbers a NACK asks for.
+   *
+   * @param nack the NACK
+   * @return the fragment numbers, each once, in the order they were asked for
+   */
+  public static List<Integer> nackedIndexes(ByteBuffer nack) {
+    int at = nack.position() + 1 + Integer.BYTES;
+    int count = Math.min(nack.getInt(at), (nack.limit() - at - Integer.BYTES) / Integer.BYTES);
+    Set<Integer> indexes = new LinkedHashSet<>();
+    for (int i = 0; i < count; i++) indexes.add(nack.getInt(at + Integer.BYTES * (i + 1)));
+    return new ArrayList<>(indexes);
+  }
+}
@@ -4,4 +4,6 @@ public enum MessageType {
   COMMAND,
   RESPONSE,
   ERROR,
+  /** Several commands or responses in one message, matched by their correlation ids */
+  BATCH,
 }
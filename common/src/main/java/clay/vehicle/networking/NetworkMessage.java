@@ -13,6 +13,10 @@ public class NetworkMessage {
   private String message;
   private String login;
   private String password;
+  private String token;
+  private String cursor;
+  private Integer correlationId;
+  private NetworkMessage[] batch;
 
   public boolean hasMessage() {
     return message != null;
@@ -38,6 +42,30 @@ public class NetworkMessage {
     return password != null;
   }
 
+  public boolean hasToken() {
+    return token != null;
+  }
+
+  public boolean hasCursor() {
+    return cursor != null;
+  }
+
+  public boolean hasCorrelationId() {
+    return correlationId != null;
+  }
+
+  public boolean hasBatch() {
+    return batch != null;
+  }
+
+  public void setCorrelationId(Integer correlationId) {
+    this.correlationId = correlationId;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
   public void setAuth(String login, String password) {
     this.login = login;
     this.password = password;
@@ -87,6 +115,26 @@ public class NetworkMessage {
       return this;
     }
 
+    public Builder setToken(String token) {
+      NetworkMessage.this.token = token;
+      return this;
+    }
+
+    public Builder setCursor(String cursor) {
+      NetworkMessage.this.cursor = cursor;
+      return this;
+    }
+
+    public Builder setCorrelationId(Integer correlationId) {
+      NetworkMessage.this.correlationId = correlationId;
+      return this;
+    }
+
+    public Builder setBatch(NetworkMessage[] batch) {
+      NetworkMessage.this.batch = batch;
+      return this;
+    }
+
     public NetworkMessage build() {
       return NetworkMessage.this;
     }
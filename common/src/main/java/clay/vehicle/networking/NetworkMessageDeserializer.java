@@ -1,93 +1,145 @@
 package clay.vehicle.networking;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 public class NetworkMessageDeserializer {
-  private static final ObjectMapper objectMapper = new ObjectMapper();
+  /** Longest string field accepted, enough for a listing of the whole collection */
+  private static final int MAX_STRING_LENGTH = 64 << 20;
 
-  public static NetworkMessage deserialize(String json) {
-    try {
-      JsonNode node = objectMapper.readTree(json);
-      NetworkMessage.Builder builder = NetworkMessage.newBuilder();
+  private static final JsonFactory jsonFactory =
+      JsonFactory.builder()
+          .streamReadConstraints(
+              StreamReadConstraints.builder().maxStringLength(MAX_STRING_LENGTH).build())
+          .build();
 
-      if (node.hasNonNull("type")) {
-        builder.setType(MessageType.valueOf(node.get("type").asText()));
-      }
-      if (node.hasNonNull("message")) {
-        builder.setMessage(node.get("message").asText());
-      }
-      if (node.hasNonNull("command")) {
-        builder.setCommand(node.get("command").asText());
-      }
-      if (node.hasNonNull("address")) {
-        String addrStr = node.get("address").asText();
-        String[] parts = addrStr.split(":");
-        if (parts.length == 2) {
-          String host = parts[0];
-          int port = Integer.parseInt(parts[1]);
-          SocketAddress address = new InetSocketAddress(host, port);
-          builder.setAdress(address);
-        }
-      }
-      if (node.hasNonNull("args") && node.get("args").isArray()) {
-        JsonNode argsNode = node.get("args");
-        String[] args = new String[argsNode.size()];
-        for (int i = 0; i < argsNode.size(); i++) {
-          args[i] = argsNode.get(i).asText();
-        }
-        builder.setArgs(args);
-      } else {
-        builder.setArgs(null);
-      }
-      if (node.hasNonNull("login")) {
-        builder.setLogin(node.get("login").asText());
-      }
-      if (node.hasNonNull("password")) {
-        builder.setPassword(node.get("password").asText());
-      }
-      return builder.build();
+  public static NetworkMessage deserialize(String json) {
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      return read(parser, null, true);
     } catch (Exception e) {
       throw new RuntimeException("Failed to deserialize NetworkMessage", e);
     }
   }
 
   public static NetworkMessage deserialize(String json, SocketAddress address) {
-    try {
-      JsonNode node = objectMapper.readTree(json);
-      NetworkMessage.Builder builder = NetworkMessage.newBuilder();
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      return read(parser, address, false);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to deserialize NetworkMessage", e);
+    }
+  }
 
-      if (node.hasNonNull("type")) {
-        builder.setType(MessageType.valueOf(node.get("type").asText()));
-      }
-      if (node.hasNonNull("message")) {
-        builder.setMessage(node.get("message").asText());
-      }
-      if (node.hasNonNull("command")) {
-        builder.setCommand(node.get("command").asText());
-      }
-      if (address != null) {
-        builder.setAdress(address);
-      }
-      if (node.hasNonNull("args") && node.get("args").isArray()) {
-        JsonNode argsNode = node.get("args");
-        String[] args = new String[argsNode.size()];
-        for (int i = 0; i < argsNode.size(); i++) {
-          args[i] = argsNode.get(i).asText();
-        }
-        builder.setArgs(args);
-      } else builder.setArgs(null);
-      if (node.hasNonNull("login")) {
-        builder.setLogin(node.get("login").asText());
-      }
-      if (node.hasNonNull("password")) {
-        builder.setPassword(node.get("password").asText());
-      }
-      return builder.build();
+  /**
+   * Parses a message straight from received UTF-8 bytes.
+   *
+   * @param data the received bytes
+   * @param offset where the message starts
+   * @param length the length of the message
+   * @param address the address the message came from, or null; an address in the message is ignored
+   * @return the message
+   */
+  public static NetworkMessage deserialize(
+      byte[] data, int offset, int length, SocketAddress address) {
+    try (JsonParser parser = jsonFactory.createParser(data, offset, length)) {
+      return read(parser, address, false);
     } catch (Exception e) {
       throw new RuntimeException("Failed to deserialize NetworkMessage", e);
     }
   }
+
+  /**
+   * Reads a message with a streaming parser.
+   *
+   * @param parser the parser, before the start of the object
+   * @param address the address to set, or null
+   * @param readAddress whether to take the address from the message instead
+   * @return the message
+   */
+  private static NetworkMessage read(JsonParser parser, SocketAddress address, boolean readAddress)
+      throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT)
+      throw new IOException("Expected a JSON object");
+    return readObject(parser, address, readAddress);
+  }
+
+  /**
+   * Reads the fields of a message object with a streaming parser.
+   *
+   * @param parser the parser, at the start of the object
+   * @param address the address to set, or null
+   * @param readAddress whether to take the address from the message instead
+   * @return the message
+   */
+  private static NetworkMessage readObject(
+      JsonParser parser, SocketAddress address, boolean readAddress) throws IOException {
+    NetworkMessage.Builder builder = NetworkMessage.newBuilder();
+    builder.setArgs(null);
+    if (address != null) {
+      builder.setAdress(address);
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if (value == JsonToken.VALUE_NULL) continue;
+      switch (field) {
+        case "type" -> builder.setType(MessageType.valueOf(text(parser)));
+        case "message" -> builder.setMessage(text(parser));
+        case "command" -> builder.setCommand(text(parser));
+        case "address" -> {
+          String addrStr = text(parser);
+          if (readAddress) {
+            String[] parts = addrStr.split(":");
+            if (parts.length == 2) {
+              String host = parts[0];
+              int port = Integer.parseInt(parts[1]);
+              builder.setAdress(new InetSocketAddress(host, port));
+            }
+          }
+        }
+        case "args" -> {
+          if (value == JsonToken.START_ARRAY) {
+            List<String> args = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) args.add(text(parser));
+            builder.setArgs(args.toArray(new String[0]));
+          } else {
+            text(parser);
+            builder.setArgs(null);
+          }
+        }
+        case "login" -> builder.setLogin(text(parser));
+        case "password" -> builder.setPassword(text(parser));
+        case "token" -> builder.setToken(text(parser));
+        case "cursor" -> builder.setCursor(text(parser));
+        case "correlationId" -> builder.setCorrelationId(parser.getValueAsInt());
+        case "batch" -> {
+          if (value != JsonToken.START_ARRAY) throw new IOException("Expected a batch array");
+          List<NetworkMessage> batch = new ArrayList<>();
+          while (parser.nextToken() == JsonToken.START_OBJECT)
+            batch.add(readObject(parser, address, readAddress));
+          if (parser.currentToken() != JsonToken.END_ARRAY)
+            throw new IOException("Expected a JSON object in the batch");
+          builder.setBatch(batch.toArray(new NetworkMessage[0]));
+        }
+        default -> parser.skipChildren();
+      }
+    }
+    return builder.build();
+  }
+
+  /** Gets the current value as text, the way the tree model's asText did. */
+  private static String text(JsonParser parser) throws IOException {
+    if (parser.currentToken().isStructStart()) {
+      parser.skipChildren();
+      return "";
+    }
+    return parser.getText();
+  }
 }
@@ -1,46 +1,116 @@
 package clay.vehicle.networking;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 public class NetworkMessageSerializer {
-  private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final JsonFactory jsonFactory = new JsonFactory();
 
-  @SuppressWarnings("PatternVariableCanBeUsed")
   public static String serialize(NetworkMessage message) {
     try {
-      ObjectNode node = objectMapper.createObjectNode();
-      if (message.getType() != null) {
-        node.put("type", message.getType().name());
+      StringWriter writer = new StringWriter();
+      try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+        write(generator, message, true);
       }
-      if (message.getMessage() != null) {
-        node.put("message", message.getMessage());
-      }
-      if (message.getCommand() != null) {
-        node.put("command", message.getCommand());
-      }
-      if (message.getAddress() != null && message.getAddress() instanceof InetSocketAddress) {
-        InetSocketAddress addr = (InetSocketAddress) message.getAddress();
-        node.put("address", addr.getHostString() + ":" + addr.getPort());
-      }
-      if (message.getArgs() != null) {
-        ArrayNode arrayNode = objectMapper.createArrayNode();
-        for (String arg : message.getArgs()) {
-          arrayNode.add(arg);
-        }
-        node.set("args", arrayNode);
-      }
-      if (message.getLogin() != null) {
-        node.put("login", message.getLogin());
-      }
-      if (message.getPassword() != null) {
-        node.put("password", message.getPassword());
-      }
-      return objectMapper.writeValueAsString(node);
+      return writer.toString();
     } catch (Exception e) {
       throw new RuntimeException("Failed to serialize NetworkMessage", e);
     }
   }
+
+  /**
+   * Writes a message as UTF-8 JSON at the position of a buffer, without building a tree or a string
+   * first.
+   *
+   * @param message the message
+   * @param out the buffer
+   * @throws java.nio.BufferOverflowException if the message doesn't fit
+   */
+  public static void serialize(NetworkMessage message, ByteBuffer out) {
+    try (JsonGenerator generator =
+        jsonFactory.createGenerator(new ByteBufferOutputStream(out), JsonEncoding.UTF8)) {
+      write(generator, message, true);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to serialize NetworkMessage", e);
+    }
+  }
+
+  /**
+   * Writes the fields of a message object.
+   *
+   * @param generator the generator
+   * @param message the message
+   * @param withAddress whether to write the address; messages of a batch share the batch's
+   */
+  private static void write(JsonGenerator generator, NetworkMessage message, boolean withAddress)
+      throws IOException {
+    generator.writeStartObject();
+    if (message.getType() != null) {
+      generator.writeStringField("type", message.getType().name());
+    }
+    if (message.getMessage() != null) {
+      generator.writeStringField("message", message.getMessage());
+    }
+    if (message.getCommand() != null) {
+      generator.writeStringField("command", message.getCommand());
+    }
+    if (withAddress && message.getAddress() instanceof InetSocketAddress addr) {
+      generator.writeStringField("address", addr.getHostString() + ":" + addr.getPort());
+    }
+    if (message.getArgs() != null) {
+      generator.writeArrayFieldStart("args");
+      for (String arg : message.getArgs()) {
+        generator.writeString(arg);
+      }
+      generator.writeEndArray();
+    }
+    if (message.getLogin() != null) {
+      generator.writeStringField("login", message.getLogin());
+    }
+    if (message.getPassword() != null) {
+      generator.writeStringField("password", message.getPassword());
+    }
+    if (message.getToken() != null) {
+      generator.writeStringField("token", message.getToken());
+    }
+    if (message.getCursor() != null) {
+      generator.writeStringField("cursor", message.getCursor());
+    }
+    if (message.getCorrelationId() != null) {
+      generator.writeNumberField("correlationId", message.getCorrelationId());
+    }
+    if (message.getBatch() != null) {
+      generator.writeArrayFieldStart("batch");
+      for (NetworkMessage item : message.getBatch()) {
+        write(generator, item, false);
+      }
+      generator.writeEndArray();
+    }
+    generator.writeEndObject();
+  }
+
+  /** Adapts a buffer to the stream the generator writes to. */
+  private static final class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.put(b, off, len);
+    }
+  }
 }
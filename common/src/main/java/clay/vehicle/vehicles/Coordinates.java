@@ -3,7 +3,6 @@ package clay.vehicle.vehicles;
 import jakarta.validation.constraints.DecimalMax;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
-import java.util.Objects;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
@@ -53,6 +52,7 @@ public class Coordinates {
 
   @Override
   public int hashCode() {
-    return Objects.hash(getX(), getY());
+    // Objects.hash would box both doubles into a varargs array on every call
+    return 31 * Double.hashCode(x) + Double.hashCode(y);
   }
 }
@@ -21,4 +21,68 @@ CREATE SEQUENCE veh_id
     START 1
     INCREMENT 1;
 
-ALTER SEQUENCE users_id_seq RESTART WITH 1;
\ No newline at end of file
+ALTER SEQUENCE users_id_seq RESTART WITH 1;
+
+-- Change log read by delta resync. Every row change of vehicles is recorded with the id of the
+-- writing transaction; a truncate is recorded as a single 'T' row without a vehicle id.
+-- Old rows are only deleted through prune_vehicle_changes, which records how far the log was
+-- pruned. A sync from a version below that point, e.g. a mapped storage restarting from an old
+-- checkpoint, can't tell what it missed and reloads everything, as after a truncate.
+CREATE TABLE vehicle_changes (
+    tx xid8 not null default pg_current_xact_id(),
+    vehicle_id integer,
+    op char(1) not null
+);
+
+CREATE INDEX vehicle_changes_tx ON vehicle_changes (tx);
+
+-- The oldest transaction whose changes are still in vehicle_changes, a single row.
+CREATE TABLE vehicle_changes_horizon (
+    tx xid8 not null
+);
+
+INSERT INTO vehicle_changes_horizon VALUES ('0');
+
+-- The oldest change version every server node running delta sync still needs, refreshed by the
+-- node on every prune. A node not seen for the retention period stops holding the log back.
+CREATE TABLE vehicle_sync_nodes (
+    node_id text primary key,
+    version xid8 not null,
+    seen timestamp with time zone not null default now()
+);
+
+CREATE FUNCTION prune_vehicle_changes(upto xid8) RETURNS bigint AS $$
+DECLARE
+    pruned bigint;
+BEGIN
+    -- raised first, so that concurrent prunes queue on the row lock
+    UPDATE vehicle_changes_horizon SET tx = upto WHERE tx < upto;
+    DELETE FROM vehicle_changes WHERE tx < upto;
+    GET DIAGNOSTICS pruned = ROW_COUNT;
+    RETURN pruned;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION log_vehicle_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        INSERT INTO vehicle_changes (vehicle_id, op) VALUES (NULL, 'T');
+        RETURN NULL;
+    END IF;
+    -- ids are never updated, so an update is logged once, under the new row
+    IF TG_OP = 'DELETE' THEN
+        INSERT INTO vehicle_changes (vehicle_id, op) VALUES (OLD.id, 'D');
+    ELSE
+        INSERT INTO vehicle_changes (vehicle_id, op) VALUES (NEW.id, 'U');
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER vehicles_change_log
+    AFTER INSERT OR UPDATE OR DELETE ON vehicles
+    FOR EACH ROW EXECUTE FUNCTION log_vehicle_change();
+
+CREATE TRIGGER vehicles_truncate_log
+    AFTER TRUNCATE ON vehicles
+    FOR EACH STATEMENT EXECUTE FUNCTION log_vehicle_change();
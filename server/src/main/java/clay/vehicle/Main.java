@@ -4,6 +4,7 @@ import clay.vehicle.commands.*;
 import clay.vehicle.dataStorage.*;
 import clay.vehicle.networking.OnReadExecutionCallback;
 import clay.vehicle.networking.ServerNetworkingManager;
+import clay.vehicle.networking.SessionManager;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -38,7 +39,7 @@ public class Main {
    */
   public static void main(String[] args) {
     logger.info("Starting...");
-    VehicleStorage newStorage = null;
+    ServerStorage newStorage = null;
     Path outputPath = null;
 
     if (args.length == 0) {
@@ -73,40 +74,163 @@ public class Main {
     DbStoreManager db = new PgStoreManager();
     try {
       db.connect(jdbcUrl, info);
-      newStorage = new VehicleStorage(db);
+      String storageType = info.getProperty("storageType", "locking");
+      newStorage =
+          switch (storageType) {
+            case "locking" -> new VehicleStorage(db);
+            case "concurrent" -> new ConcurrentVehicleStorage(db);
+            case "columnar" -> new ColumnarVehicleStorage(db);
+            case "mapped" ->
+                new MappedVehicleStorage(
+                    db, Path.of(info.getProperty("mappedStorageDir", "vehicle-store")));
+            default -> throw new SQLException("Unknown storage type: " + storageType);
+          };
     } catch (SQLException e) {
       logger.error("Could not connect to database: " + e.getMessage() + ". Exiting...");
       System.exit(-5);
+    } catch (IOException e) {
+      logger.error("Could not open mapped storage: " + e.getMessage() + ". Exiting...");
+      System.exit(-12);
     }
+    long changeVersion = 0;
     try {
-      db.syncFromDB(newStorage);
+      if (newStorage instanceof MappedVehicleStorage mapped && mapped.getCheckpointVersion() >= 0) {
+        // restored from disk, only changes since the checkpoint have to be read
+        changeVersion = db.syncDelta(newStorage, mapped.getCheckpointVersion());
+      } else {
+        // taken before the full load so that delta sync can't miss anything committed meanwhile
+        changeVersion = db.currentChangeVersion();
+        db.syncFromDB(newStorage);
+      }
     } catch (SQLException e) {
       logger.error("Failed to sync from db: " + e.getMessage());
       System.exit(-69);
     }
 
-    logger.info(
-        "Successfully loaded " + newStorage.getStorage().size() + " vehicles after validation");
+    logger.info("Successfully loaded " + newStorage.getLen() + " vehicles after validation");
+
+    if (Boolean.parseBoolean(info.getProperty("writeBehind", "false"))) {
+      try {
+        WriteBehindFlusher flusher =
+            new WriteBehindFlusher(
+                db,
+                new WriteBehindJournal(
+                    Path.of(info.getProperty("writeBehindJournal", "write-behind.journal"))),
+                Long.parseLong(info.getProperty("writeBehindFlushIntervalMs", "200")),
+                Integer.parseInt(info.getProperty("writeBehindBatchSize", "500")),
+                Integer.parseInt(info.getProperty("writeBehindMaxPending", "100000")),
+                Long.parseLong(info.getProperty("writeBehindTimeoutMs", "5000")),
+                Integer.parseInt(info.getProperty("writeBehindIdBlockSize", "1000")));
+        newStorage.enableWriteBehind(flusher);
+        logger.info("Write-behind mode enabled");
+      } catch (IOException | NumberFormatException e) {
+        logger.error("Could not enable write-behind mode: " + e.getMessage() + ". Exiting...");
+        System.exit(-9);
+      }
+    }
+    final ServerStorage storage = newStorage;
+
+    DeltaSyncer deltaSyncer = null;
+    try {
+      long deltaSyncIntervalMs = Long.parseLong(info.getProperty("deltaSyncIntervalMs", "0"));
+      if (deltaSyncIntervalMs > 0) {
+        deltaSyncer =
+            new DeltaSyncer(
+                db,
+                newStorage,
+                changeVersion,
+                deltaSyncIntervalMs,
+                Long.parseLong(info.getProperty("changeLogPruneIntervalMs", "600000")));
+        logger.info("Delta sync enabled every " + deltaSyncIntervalMs + " ms");
+      }
+    } catch (NumberFormatException e) {
+      logger.error("Invalid delta sync interval: " + e.getMessage() + ". Exiting...");
+      System.exit(-10);
+    }
+    final DeltaSyncer syncer = deltaSyncer;
+
+    if (Boolean.parseBoolean(info.getProperty("changeNotifications", "false"))) {
+      try {
+        db.listenForChanges(newStorage);
+      } catch (SQLException e) {
+        logger.error("Could not listen for changes: " + e.getMessage() + ". Exiting...");
+        System.exit(-11);
+      }
+    }
+
+    if (newStorage instanceof MappedVehicleStorage mapped) {
+      final long loadedVersion = changeVersion;
+      // without delta sync, changes of other nodes after the load may be missing, so the load
+      // version is the latest one the collection is known to be up to date with
+      MappedVehicleStorage.VersionSource source =
+          syncer != null ? syncer::getVersion : () -> loadedVersion;
+      // a restart resumes from the last checkpoint, whose changes must outlive pruning
+      if (syncer != null) syncer.keepChangesSince(mapped::getLatestCheckpointVersion);
+      try {
+        mapped.checkpoint(source);
+        mapped.startCheckpoints(
+            source, Long.parseLong(info.getProperty("mappedCheckpointIntervalMs", "60000")));
+      } catch (SQLException | IOException | NumberFormatException e) {
+        logger.error("Could not checkpoint mapped storage: " + e.getMessage() + ". Exiting...");
+        System.exit(-12);
+      }
+    }
 
     MiscUtils.attachDB(db);
-    OnReadExecutionCallback executor = new OnReadExecutionCallback();
+
+    SessionManager sessions = null;
+    try {
+      sessions =
+          new SessionManager(
+              Long.parseLong(info.getProperty("sessionTtlSeconds", "1800")) * 1000,
+              Integer.parseInt(info.getProperty("maxSessions", "10000")));
+    } catch (NumberFormatException e) {
+      logger.error("Invalid session config: " + e.getMessage() + ". Exiting...");
+      System.exit(-8);
+    }
+    OnReadExecutionCallback executor = new OnReadExecutionCallback(sessions);
+
+    CursorRegistry cursorRegistry = null;
+    try {
+      cursorRegistry =
+          new CursorRegistry(
+              Long.parseLong(info.getProperty("cursorTtlSeconds", "300")) * 1000,
+              Integer.parseInt(info.getProperty("maxCursors", "10000")),
+              Integer.parseInt(info.getProperty("maxCursorsPerUser", "16")));
+    } catch (NumberFormatException e) {
+      logger.error("Invalid cursor config: " + e.getMessage() + ". Exiting...");
+      System.exit(-13);
+    }
+    final CursorRegistry cursors = cursorRegistry;
 
     executor.attachCommand(new Info(newStorage), "info", true);
-    executor.attachCommand(new Show(newStorage), "show", true);
+    executor.attachCommand(
+        new Stats(newStorage, db instanceof PgStoreManager pg ? pg.getCredentialCache() : null),
+        "stats",
+        true);
+    executor.attachCommand(new Show(newStorage, cursors), "show", true);
+    executor.attachCommand(new ShowMine(newStorage), "show_mine", true);
     executor.attachCommand(new Help(), "help", true);
-    executor.attachCommand(new RemoveKey(newStorage), "remove_key", true);
-    executor.attachCommand(new Insert(newStorage), "insert", true);
-    executor.attachCommand(new Update(newStorage), "update", true);
-    executor.attachCommand(new Clear(newStorage, db), "clear", true);
-    executor.attachCommand(new RemoveLower(newStorage), "remove_lower", true);
-    executor.attachCommand(new ReplaceIfHigher(newStorage), "replace_if_greater", true);
-    executor.attachCommand(new RemoveLowerKey(newStorage), "remove_lower_key", true);
+    executor.attachCommand(new RemoveKey(newStorage), "remove_key", true, true);
+    executor.attachCommand(new Insert(newStorage), "insert", true, true);
+    executor.attachCommand(new Update(newStorage), "update", true, true);
+    executor.attachCommand(new Clear(newStorage, db, sessions), "clear", true, true);
+    executor.attachCommand(new RemoveLower(newStorage), "remove_lower", true, true);
+    executor.attachCommand(new ReplaceIfHigher(newStorage), "replace_if_greater", true, true);
+    executor.attachCommand(new RemoveLowerKey(newStorage), "remove_lower_key", true, true);
     executor.attachCommand(
-        new RemoveAnyByEnginePower(newStorage), "remove_any_by_engine_power", true);
-    executor.attachCommand(new PrintAscending(newStorage), "print_ascending", true);
+        new RemoveAnyByEnginePower(newStorage), "remove_any_by_engine_power", true, true);
+    executor.attachCommand(new PrintAscending(newStorage, cursors), "print_ascending", true);
+    executor.attachCommand(new NextPage(cursors), "next_page", true, true);
+    executor.attachCommand(new Query(newStorage, cursors), "query", true);
+    executor.attachCommand(new TopK(newStorage, true), "top_k", true);
+    executor.attachCommand(new TopK(newStorage, false), "bottom_k", true);
+    executor.attachCommand(new Range(newStorage), "range", true);
     executor.attachCommand(
         new GroupCountungByCoordinates(newStorage), "group_counting_by_coordinates", true);
-    executor.attachCommand(new Register(db), "register", false);
+    executor.attachCommand(new CountInBox(newStorage), "count_in_box", true);
+    executor.attachCommand(new Nearest(newStorage), "nearest", true);
+    executor.attachCommand(new Register(db), "register", false, true);
 
     final ServerNetworkingManager networkingManager;
 
@@ -122,6 +246,11 @@ public class Main {
             logger.info("Ctrl+C detected.");
             logger.info("Stopping server...");
             networkingManager.stop();
+            executor.getSessions().stop();
+            cursors.stop();
+            if (syncer != null) syncer.close();
+            if (storage.getWriteBehind() != null) storage.getWriteBehind().close();
+            if (storage instanceof MappedVehicleStorage mapped) mapped.close();
 
             try {
               db.disconnect();
@@ -2,6 +2,7 @@ package clay.vehicle.commands;
 
 import clay.vehicle.dataStorage.DbStoreManager;
 import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.networking.SessionManager;
 import java.sql.SQLException;
 
 /**
@@ -15,14 +16,20 @@ public class Clear implements Executable {
 
   DbStoreManager manager;
 
+  /** Sessions to close when user accounts are reset */
+  SessionManager sessions;
+
   /**
    * Constructs a new Clear command with the specified storage.
    *
    * @param storage the storage to be cleared
+   * @param manager the database manager used to reset user accounts
+   * @param sessions the session table to drop when user accounts are reset
    */
-  public Clear(Storage storage, DbStoreManager manager) {
+  public Clear(Storage storage, DbStoreManager manager, SessionManager sessions) {
     this.storage = storage;
     this.manager = manager;
+    this.sessions = sessions;
   }
 
   /**
@@ -40,6 +47,7 @@ public class Clear implements Executable {
     if (args[0].equals("users")) {
       try {
         manager.resetUsers();
+        sessions.invalidateAll();
         return "Reset user accounts. Now create admin account using register.";
       } catch (SQLException e) {
         return "! Database error: " + e.getMessage();
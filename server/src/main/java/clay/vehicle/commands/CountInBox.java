@@ -0,0 +1,52 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+
+/**
+ * Command implementation for counting vehicles inside a rectangle of coordinates. The count is
+ * served by the spatial index, only grid cells crossing the border of the box are inspected.
+ */
+public class CountInBox implements Executable {
+  /** The storage instance where vehicles are stored */
+  Storage storage;
+
+  /**
+   * Constructs a new CountInBox command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to count
+   */
+  public CountInBox(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Executes the count_in_box command. Counts the vehicles whose coordinates lie inside the box,
+   * borders included.
+   *
+   * @param args command arguments, where args[0..3] are x1, y1, x2 and y2 of two opposite corners
+   * @return a message with the number of vehicles in the box
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 5) return "! Not enough arguments";
+
+    double x1, y1, x2, y2;
+    try {
+      x1 = Double.parseDouble(args[0]);
+      y1 = Double.parseDouble(args[1]);
+      x2 = Double.parseDouble(args[2]);
+      y2 = Double.parseDouble(args[3]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+    if (Double.isNaN(x1) || Double.isNaN(y1) || Double.isNaN(x2) || Double.isNaN(y2))
+      return "! Invalid argument";
+
+    int count =
+        storage
+            .getIndexes()
+            .getCoordinates()
+            .countInBox(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    return "Found " + count + " items";
+  }
+}
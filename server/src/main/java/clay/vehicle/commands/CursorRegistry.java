@@ -0,0 +1,237 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Open cursors of paged listings. A cursor holds an iterator over a storage snapshot, so the pages
+ * of one listing all come from the same version of the collection however long the client takes,
+ * and the server never holds more than a page of text per request. Cursors are owned by the user
+ * who opened them and expire after a period of inactivity; expired ones are evicted by a background
+ * task. A user opening more cursors than their share closes their own least recently used one.
+ *
+ * <p>The id of the cursor to continue with never appears in the text of a page, where rows could
+ * forge it: a page that has more after it leaves the id for the request handler to collect with
+ * {@link #takeContinuation()} and put in the cursor field of the response.
+ */
+public class CursorRegistry {
+  /** Id of the cursor the last page made on this thread continues with */
+  private static final ThreadLocal<String> continuation = new ThreadLocal<>();
+
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  private static final int CURSOR_BYTES = 16;
+
+  private final SecureRandom random = new SecureRandom();
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+  private final long ttlMs;
+  private final int maxCursors;
+  private final int maxCursorsPerUser;
+  private final Map<Integer, AtomicInteger> openByUser = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+
+  private static final class Cursor {
+    final int uid;
+    final Iterator<Vehicle> rows;
+    final Function<Vehicle, String> format;
+    final int pageSize;
+    int total;
+    volatile long expiresAt;
+
+    Cursor(
+        int uid,
+        Iterator<Vehicle> rows,
+        Function<Vehicle, String> format,
+        int pageSize,
+        long expiresAt) {
+      this.uid = uid;
+      this.rows = rows;
+      this.format = format;
+      this.pageSize = pageSize;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Constructs a new CursorRegistry and starts its eviction task.
+   *
+   * @param ttlMs how long a cursor stays open after its last page
+   * @param maxCursors upper bound on simultaneously open cursors
+   * @param maxCursorsPerUser upper bound on simultaneously open cursors of one user
+   */
+  public CursorRegistry(long ttlMs, int maxCursors, int maxCursorsPerUser) {
+    this.ttlMs = ttlMs;
+    this.maxCursors = maxCursors;
+    this.maxCursorsPerUser = maxCursorsPerUser;
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "cursor-evictor");
+              t.setDaemon(true);
+              return t;
+            });
+    long period = Math.max(1000, ttlMs / 4);
+    evictor.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Parses a requested page size.
+   *
+   * @param arg the argument
+   * @return the page size, or -1 if it isn't a number between 1 and {@link #MAX_PAGE_SIZE}
+   */
+  public static int parsePageSize(String arg) {
+    try {
+      int pageSize = Integer.parseInt(arg);
+      return pageSize < 1 || pageSize > MAX_PAGE_SIZE ? -1 : pageSize;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Formats a vehicle the way listings show it.
+   *
+   * @param vehicle the vehicle
+   * @return its id and its string form
+   */
+  public static String row(Vehicle vehicle) {
+    return vehicle.getId() + " | " + vehicle;
+  }
+
+  /**
+   * Starts a paged listing of vehicles in their usual form and gets its first page.
+   *
+   * @param uid the user listing
+   * @param rows the vehicles to list, in order
+   * @param pageSize vehicles per page
+   * @return the first page
+   */
+  public String open(int uid, Iterator<Vehicle> rows, int pageSize) {
+    return open(uid, rows, CursorRegistry::row, pageSize);
+  }
+
+  /**
+   * Starts a paged listing and gets its first page.
+   *
+   * @param uid the user listing
+   * @param rows the vehicles to list, in order
+   * @param format turns a vehicle into its line of the listing
+   * @param pageSize vehicles per page
+   * @return the first page
+   */
+  public String open(
+      int uid, Iterator<Vehicle> rows, Function<Vehicle, String> format, int pageSize) {
+    long now = System.currentTimeMillis();
+    AtomicInteger open = openByUser.computeIfAbsent(uid, k -> new AtomicInteger());
+    if (open.get() >= maxCursorsPerUser) evictOldest(uid);
+    if (cursors.size() >= maxCursors) {
+      evictExpired();
+      if (cursors.size() >= maxCursors) evictOldest(null);
+    }
+
+    byte[] bytes = new byte[CURSOR_BYTES];
+    random.nextBytes(bytes);
+    String id = encoder.encodeToString(bytes);
+    Cursor cursor = new Cursor(uid, rows, format, pageSize, now + ttlMs);
+    // counted before it can be found, so that closing it never goes below zero
+    openByUser.computeIfAbsent(uid, k -> new AtomicInteger()).incrementAndGet();
+    cursors.put(id, cursor);
+    return page(id, cursor);
+  }
+
+  /**
+   * Gets the next page of a listing.
+   *
+   * @param uid the user listing
+   * @param id the cursor id from the previous page
+   * @return the next page
+   */
+  public String next(int uid, String id) {
+    Cursor cursor = cursors.get(id);
+    if (cursor == null || cursor.uid != uid || cursor.expiresAt < System.currentTimeMillis()) {
+      if (cursor != null && cursor.uid == uid) remove(id, cursor);
+      return "! Unknown or expired cursor";
+    }
+    return page(id, cursor);
+  }
+
+  private String page(String id, Cursor cursor) {
+    StringBuilder builder = new StringBuilder();
+    synchronized (cursor) {
+      for (int i = 0; i < cursor.pageSize && cursor.rows.hasNext(); i++) {
+        builder.append(cursor.format.apply(cursor.rows.next())).append('\n');
+        cursor.total++;
+      }
+      if (cursor.rows.hasNext()) {
+        cursor.expiresAt = System.currentTimeMillis() + ttlMs;
+        // drop the newline of the last row, the client prints the page with its own
+        if (!builder.isEmpty()) builder.setLength(builder.length() - 1);
+        continuation.set(id);
+        return builder.toString();
+      }
+    }
+    remove(id, cursor);
+    builder.append("\n");
+    builder.append("Total ").append(cursor.total).append(" elements");
+    return builder.toString();
+  }
+
+  /**
+   * Gets and forgets the id of the cursor the last page made on this thread continues with.
+   *
+   * @return the cursor id, or null if no page with more after it was made since the last call
+   */
+  public static String takeContinuation() {
+    String id = continuation.get();
+    continuation.remove();
+    return id;
+  }
+
+  /**
+   * Closes a cursor unless it was closed already.
+   *
+   * @param id the cursor id
+   * @param cursor the cursor
+   */
+  private void remove(String id, Cursor cursor) {
+    if (!cursors.remove(id, cursor)) return;
+    openByUser.computeIfPresent(
+        cursor.uid, (uid, open) -> open.decrementAndGet() <= 0 ? null : open);
+  }
+
+  private void evictExpired() {
+    long now = System.currentTimeMillis();
+    cursors.forEach(
+        (id, cursor) -> {
+          if (cursor.expiresAt < now) remove(id, cursor);
+        });
+  }
+
+  /**
+   * Closes the cursor that would expire first.
+   *
+   * @param uid the user whose cursor to close, or null for any user's
+   */
+  private void evictOldest(Integer uid) {
+    cursors.entrySet().stream()
+        .filter(e -> uid == null || e.getValue().uid == uid)
+        .min((a, b) -> Long.compare(a.getValue().expiresAt, b.getValue().expiresAt))
+        .ifPresent(oldest -> remove(oldest.getKey(), oldest.getValue()));
+  }
+
+  /** Stops the eviction task. */
+  public void stop() {
+    evictor.shutdownNow();
+  }
+}
@@ -1,8 +1,7 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
 import clay.vehicle.vehicles.Coordinates;
-import clay.vehicle.vehicles.Vehicle;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -13,29 +12,27 @@ import java.util.stream.Collectors;
  */
 public class GroupCountungByCoordinates implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new GroupCountungByCoordinates command with the specified storage.
    *
    * @param storage the storage containing the vehicles to be grouped
    */
-  public GroupCountungByCoordinates(VehicleStorage storage) {
+  public GroupCountungByCoordinates(Storage storage) {
     this.storage = storage;
   }
 
   /**
-   * Executes the group_counting_by_coordinates command. Groups all vehicles by their coordinates
-   * and counts how many vehicles share each unique coordinate value.
+   * Executes the group_counting_by_coordinates command. The counts of vehicles sharing each unique
+   * coordinate value are kept by the spatial index, so this only lists them.
    *
    * @param args command arguments (not used)
    * @return a string containing coordinate values and their corresponding vehicle counts
    */
   @Override
   public String execute(String[] args) {
-    Map<Coordinates, Long> groups =
-        storage.getValues().stream()
-            .collect(Collectors.groupingBy(Vehicle::getCoordinates, Collectors.counting()));
+    Map<Coordinates, Integer> groups = storage.getIndexes().getCoordinates().countsByCoordinates();
 
     return groups.entrySet().stream()
         .map(entry -> entry.getKey() + ": " + entry.getValue())
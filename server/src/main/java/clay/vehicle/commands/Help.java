@@ -18,7 +18,9 @@ public class Help implements Executable {
     return """
                 help: вывести справку по доступным командам
                 info: вывести в стандартный поток вывода информацию о коллекции (тип, дата инициализации, количество элементов и т.д.)
-                show: вывести в стандартный поток вывода все элементы коллекции в строковом представлении
+                stats: вывести статистику коллекции (количество по типам топлива и транспорта, минимум, максимум, сумма и среднее enginePower и distanceTravelled)
+                show: вывести в стандартный поток вывода все элементы коллекции в строковом представлении (клиент получает их постранично)
+                show_mine: вывести элементы коллекции, принадлежащие текущему пользователю
                 insert {element}: добавить новый элемент с заданным ключом
                 update id {element}: обновить значение элемента коллекции, id которого равен заданному
                 remove_key id: удалить элемент из коллекции по его ключу
@@ -30,8 +32,17 @@ public class Help implements Executable {
                 remove_lower_key id: удалить из коллекции все элементы, ключ которых меньше, чем заданный
                 remove_any_by_engine_power enginePower: удалить из коллекции один элемент, значение поля enginePower которого эквивалентно заданному
                 group_counting_by_coordinates: сгруппировать элементы коллекции по значению поля coordinates, вывести количество элементов в каждой группе
-                print_ascending: вывести элементы коллекции в порядке возрастания
+                print_ascending: вывести элементы коллекции в порядке возрастания (клиент получает их постранично)
+                next_page cursor: получить следующую страницу вывода show или print_ascending
+                count_in_box x1 y1 x2 y2: вывести количество элементов, координаты которых лежат в прямоугольнике с заданными углами
+                nearest x y k: вывести k элементов, ближайших к заданной точке
+                top_k field k: вывести k элементов с наибольшим значением поля enginePower или distanceTravelled
+                bottom_k field k: вывести k элементов с наименьшим значением поля enginePower или distanceTravelled
+                range field from count: вывести count элементов, начиная с позиции from, в порядке возрастания поля enginePower или distanceTravelled
+                query key=value ...: вывести элементы, подходящие под условия: name=префикс, fuel=тип топлива, type=тип (none - без типа), power=min..max, distance=min..max, box=x1,y1,x2,y2, owner=uid|me; fields=поле,... - выводимые поля, limit=n - не больше n элементов, page=n - элементов на странице
                 register login password: зарегистрироваться в системе
+                login: войти в систему, сервер выдаёт токен сессии
+                logout: завершить текущую сессию
 
                 Скрипты:
                 строки, начинающиеся на ";" рассматриваются как комментарии, игнорируются при исполнении
@@ -1,6 +1,7 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
 
 /**
  * Command implementation for displaying information about the vehicle storage. This command shows
@@ -8,14 +9,14 @@ import clay.vehicle.dataStorage.VehicleStorage;
  */
 public class Info implements Executable {
   /** The storage instance to get information about */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new Info command with the specified storage.
    *
    * @param storage the storage to get information about
    */
-  public Info(VehicleStorage storage) {
+  public Info(Storage storage) {
     this.storage = storage;
   }
 
@@ -27,11 +28,13 @@ public class Info implements Executable {
    */
   @Override
   public String execute(String[] args) {
+    StorageSnapshot snapshot = storage.snapshot();
     return String.format(
         """
                         Init: %s
                         Type: %s
-                        Len: %d""",
-        storage.getInitDate(), storage.getType(), storage.getLen());
+                        Len: %d
+                        Version: %d""",
+        storage.getInitDate(), storage.getType(), snapshot.size(), snapshot.version());
   }
 }
@@ -1,6 +1,6 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
 import clay.vehicle.vehicles.Vehicle;
 import jakarta.validation.ValidationException;
 import java.sql.SQLException;
@@ -11,14 +11,14 @@ import java.sql.SQLException;
  */
 public class Insert implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new Insert command with the specified storage.
    *
    * @param storage the storage where vehicles will be inserted
    */
-  public Insert(VehicleStorage storage) {
+  public Insert(Storage storage) {
     this.storage = storage;
   }
 
@@ -0,0 +1,64 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
+import clay.vehicle.vehicles.Vehicle;
+
+/**
+ * Command implementation for finding the vehicles closest to a point. The candidates come from the
+ * spatial index, which searches outwards from the point instead of measuring every vehicle.
+ */
+public class Nearest implements Executable {
+  /** Upper bound of k, so one request can't make the server list the whole collection */
+  private static final int MAX_K = 1000;
+
+  /** The storage instance where vehicles are stored */
+  Storage storage;
+
+  /**
+   * Constructs a new Nearest command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to search
+   */
+  public Nearest(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Executes the nearest command. Lists the k vehicles closest to the point, nearest first.
+   *
+   * @param args command arguments, where args[0] and args[1] are x and y and args[2] is k
+   * @return a string containing the found vehicles with their distances
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 4) return "! Not enough arguments";
+
+    double x, y;
+    int k;
+    try {
+      x = Double.parseDouble(args[0]);
+      y = Double.parseDouble(args[1]);
+      k = Integer.parseInt(args[2]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+    if (!Double.isFinite(x) || !Double.isFinite(y)) return "! Invalid argument";
+    if (k <= 0 || k > MAX_K) return "! k must be between 1 and " + MAX_K;
+
+    StorageSnapshot snapshot = storage.snapshot();
+    StringBuilder builder = new StringBuilder();
+    int total = 0;
+    for (int id : storage.getIndexes().getCoordinates().nearest(x, y, k)) {
+      Vehicle vehicle = snapshot.get(id);
+      if (vehicle == null) continue;
+      double distance =
+          Math.hypot(vehicle.getCoordinates().getX() - x, vehicle.getCoordinates().getY() - y);
+      builder.append(String.format("%d | %.3f | %s", vehicle.getId(), distance, vehicle) + "\n");
+      total++;
+    }
+    builder.append("\n");
+    builder.append("Total " + total + " elements");
+    return builder.toString();
+  }
+}
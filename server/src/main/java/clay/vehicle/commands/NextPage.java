@@ -0,0 +1,31 @@
+package clay.vehicle.commands;
+
+/**
+ * Command implementation for continuing a paged listing. Gets the next page of a listing started by
+ * show or print_ascending with a page size.
+ */
+public class NextPage implements Executable {
+  /** Open cursors of paged listings */
+  CursorRegistry cursors;
+
+  /**
+   * Constructs a new NextPage command with the specified cursor registry.
+   *
+   * @param cursors the registry the listings were opened in
+   */
+  public NextPage(CursorRegistry cursors) {
+    this.cursors = cursors;
+  }
+
+  /**
+   * Executes the next_page command.
+   *
+   * @param args command arguments, where args[0] is the cursor and the last one is the caller's uid
+   * @return the next page
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 2) return "! Not enough arguments";
+    return cursors.next(Integer.parseInt(args[args.length - 1]), args[0]);
+  }
+}
@@ -1,41 +1,71 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
 import clay.vehicle.vehicles.Vehicle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Command implementation for displaying vehicles in ascending order. This command shows all
- * vehicles in the storage sorted by their natural ordering.
+ * vehicles in the storage sorted by their natural ordering, either at once or page by page.
  */
 public class PrintAscending implements Executable {
+  /** The order of the engine power index */
+  private static final Comparator<Vehicle> ORDER =
+      Comparator.comparing(Vehicle::getEnginePower).thenComparingInt(Vehicle::getId);
+
   /** The storage instance containing the vehicles to display */
-  VehicleStorage storage;
+  Storage storage;
+
+  /** Open cursors of paged listings */
+  CursorRegistry cursors;
 
   /**
    * Constructs a new PrintAscending command with the specified storage.
    *
    * @param storage the storage containing the vehicles to display
+   * @param cursors the registry paged listings are opened in
    */
-  public PrintAscending(VehicleStorage storage) {
+  public PrintAscending(Storage storage, CursorRegistry cursors) {
     this.storage = storage;
+    this.cursors = cursors;
   }
 
   /**
    * Executes the print_ascending command with arguments. Returns a formatted string containing all
-   * vehicles in ascending order.
+   * vehicles in ascending order, or the first page of them if a page size is given.
    *
-   * @param args command arguments (not used)
-   * @return a string containing all vehicles in ascending order
+   * @param args command arguments, where args[0] is the optional page size and the last one is the
+   *     caller's uid
+   * @return a string containing the vehicles in ascending order
    */
   @Override
   public String execute(String[] args) {
-    StringBuilder builder = new StringBuilder();
-    for (Vehicle v : storage.getValues().stream().sorted().toList()) {
+    StorageSnapshot snapshot = storage.snapshot();
+    Iterator<Vehicle> rows = storage.getIndexes().getEnginePower().ascending(snapshot);
+    if (args.length > 1) {
+      int pageSize = CursorRegistry.parsePageSize(args[0]);
+      if (pageSize < 0) return "! Page size must be between 1 and " + CursorRegistry.MAX_PAGE_SIZE;
+      int uid = Integer.parseInt(args[args.length - 1]);
+      // the walk checks every key against the snapshot, so later pages list no updates either
+      return cursors.open(uid, rows, pageSize);
+    }
 
-      builder.append(String.format("%d | %s", v.getId(), v + "\n"));
+    List<Vehicle> listed = new ArrayList<>(snapshot.size());
+    rows.forEachRemaining(listed::add);
+    if (listed.size() != snapshot.size()) {
+      // a vehicle changed during the walk left the index before it was reached, sort instead
+      listed = new ArrayList<>(snapshot.values());
+      listed.sort(ORDER);
     }
+
+    StringBuilder builder = new StringBuilder();
+    for (Vehicle v : listed) builder.append(CursorRegistry.row(v)).append('\n');
     builder.append("\n");
-    builder.append("Total ").append(storage.getLen()).append(" elements");
+    builder.append("Total ").append(listed.size()).append(" elements");
     return builder.toString();
   }
 }
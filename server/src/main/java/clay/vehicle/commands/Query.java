@@ -0,0 +1,47 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import java.util.Arrays;
+
+/**
+ * Command implementation for finding vehicles by their fields. The query is compiled by {@link
+ * VehicleQuery} and its result is listed page by page through a cursor, so only matching vehicles
+ * are formatted and sent.
+ */
+public class Query implements Executable {
+  /** The storage instance containing the vehicles to search */
+  Storage storage;
+
+  /** Open cursors of paged listings */
+  CursorRegistry cursors;
+
+  /**
+   * Constructs a new Query command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to search
+   * @param cursors the registry the result listings are opened in
+   */
+  public Query(Storage storage, CursorRegistry cursors) {
+    this.storage = storage;
+    this.cursors = cursors;
+  }
+
+  /**
+   * Executes the query command.
+   *
+   * @param args command arguments, where all but the last one are the terms of the query and the
+   *     last one is the caller's uid
+   * @return the first page of matching vehicles
+   */
+  @Override
+  public String execute(String[] args) {
+    int uid = Integer.parseInt(args[args.length - 1]);
+    VehicleQuery query;
+    try {
+      query = VehicleQuery.compile(Arrays.asList(args).subList(0, args.length - 1), uid);
+    } catch (IllegalArgumentException e) {
+      return "! " + e.getMessage();
+    }
+    return cursors.open(uid, query.run(storage), query.format(), query.pageSize());
+  }
+}
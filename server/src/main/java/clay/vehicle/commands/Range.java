@@ -0,0 +1,55 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.vehicles.Vehicle;
+import java.util.List;
+
+/**
+ * Command implementation for listing a window of the vehicles ordered by a field. Only the window
+ * is found and sent, by {@link VehicleOrder}, without sorting the collection.
+ */
+public class Range implements Executable {
+  /** The storage instance where vehicles are stored */
+  Storage storage;
+
+  /**
+   * Constructs a new Range command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to list
+   */
+  public Range(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Executes the range command. Lists count vehicles starting at a position of the ascending order
+   * by the field.
+   *
+   * @param args command arguments, where args[0] is enginePower or distanceTravelled, args[1] is
+   *     the position to start at, counting from 0, and args[2] is the count
+   * @return a string containing the vehicles of the window
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 4) return "! Not enough arguments";
+
+    int offset, count;
+    try {
+      offset = Integer.parseInt(args[1]);
+      count = Integer.parseInt(args[2]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+    if (offset < 0) return "! Position can't be negative";
+    if (count <= 0 || count > VehicleOrder.MAX_COUNT)
+      return "! Count must be between 1 and " + VehicleOrder.MAX_COUNT;
+
+    List<Vehicle> vehicles;
+    try {
+      vehicles = VehicleOrder.window(storage, args[0], false, offset, count);
+    } catch (IllegalArgumentException e) {
+      return "! " + e.getMessage();
+    }
+    return VehicleOrder.list(vehicles);
+  }
+}
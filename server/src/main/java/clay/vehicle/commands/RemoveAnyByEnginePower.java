@@ -1,6 +1,7 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
 import clay.vehicle.vehicles.Vehicle;
 import java.sql.SQLException;
 import java.util.Optional;
@@ -12,14 +13,14 @@ import java.util.Optional;
  */
 public class RemoveAnyByEnginePower implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new RemoveAnyByEnginePower command with the specified storage.
    *
    * @param storage the storage from which vehicles will be removed
    */
-  public RemoveAnyByEnginePower(VehicleStorage storage) {
+  public RemoveAnyByEnginePower(Storage storage) {
     this.storage = storage;
   }
 
@@ -41,17 +42,24 @@ public class RemoveAnyByEnginePower implements Executable {
       return "! Invalid argument";
     }
 
+    int uid = Integer.parseInt(args[args.length - 1]);
+
+    StorageSnapshot snapshot = storage.snapshot();
     Optional<Integer> lowerIds =
-        this.storage.getCollection().values().stream()
-            .filter(vehicle -> vehicle.getEnginePower().equals(enginePower))
-            .filter(vehicle -> vehicle.getUserId() == Integer.parseInt(args[args.length - 1]))
-            .map(Vehicle::getId)
+        storage.getIndexes().getEnginePower().idsEqual(enginePower).stream()
+            .filter(
+                id -> {
+                  Vehicle vehicle = snapshot.get(id);
+                  return vehicle != null
+                      && vehicle.getEnginePower().equals(enginePower)
+                      && vehicle.getUserId() == uid;
+                })
             .findAny();
 
     if (lowerIds.isEmpty()) return "Removed 0 items";
     else {
       try {
-        storage.removeKey(Integer.parseInt(String.valueOf(lowerIds)));
+        storage.removeKey(lowerIds.get());
         return "Removed 1 item";
       } catch (SQLException e) {
         return "! Database error: " + e.getMessage();
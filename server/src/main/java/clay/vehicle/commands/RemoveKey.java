@@ -1,6 +1,6 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
 import clay.vehicle.vehicles.Vehicle;
 import java.sql.SQLException;
 
@@ -10,14 +10,14 @@ import java.sql.SQLException;
  */
 public class RemoveKey implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new RemoveKey command with the specified storage.
    *
    * @param storage the storage from which vehicles will be removed
    */
-  public RemoveKey(VehicleStorage storage) {
+  public RemoveKey(Storage storage) {
     this.storage = storage;
   }
 
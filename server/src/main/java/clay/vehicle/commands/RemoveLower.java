@@ -1,11 +1,12 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
 import clay.vehicle.vehicles.Vehicle;
 import jakarta.validation.ValidationException;
 import java.sql.SQLException;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Command implementation for removing vehicles that are less than a given example. This command
@@ -14,14 +15,14 @@ import java.util.stream.Collectors;
  */
 public class RemoveLower implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new RemoveLower command with the specified storage.
    *
    * @param storage the storage from which vehicles will be removed
    */
-  public RemoveLower(VehicleStorage storage) {
+  public RemoveLower(Storage storage) {
     this.storage = storage;
   }
 
@@ -40,24 +41,21 @@ public class RemoveLower implements Executable {
     } catch (ValidationException e) {
       return "! Format error: " + e.getMessage();
     }
-    int counter = 0;
+    int uid = Integer.parseInt(args[args.length - 1]);
 
-    Set<Integer> lowerIds =
-        this.storage.getCollection().values().stream()
-            .filter(vehicle -> vehicle.getUserId() == Integer.parseInt(args[args.length - 1]))
-            .filter(vehicle -> vehicle.compareTo(example) < 0)
-            .map(Vehicle::getId)
-            .collect(Collectors.toSet());
+    // only the caller's vehicles can be removed, so visit those; compareTo still decides as before
+    StorageSnapshot snapshot = storage.snapshot();
+    Set<Integer> lowerIds = new HashSet<>();
+    for (int id : storage.getIndexes().getOwners().idsOf(uid)) {
+      Vehicle vehicle = snapshot.get(id);
+      if (vehicle != null && vehicle.getUserId() == uid && vehicle.compareTo(example) < 0)
+        lowerIds.add(id);
+    }
 
     try {
-      for (Integer i : lowerIds) {
-        storage.removeKey(i);
-        counter++;
-      }
+      return "Removed " + storage.removeKeys(lowerIds) + " items";
     } catch (SQLException e) {
       return "! Database error: " + e.getMessage();
     }
-
-    return "Removed " + counter + " items";
   }
 }
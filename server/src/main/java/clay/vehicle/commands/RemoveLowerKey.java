@@ -1,10 +1,11 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
 import clay.vehicle.vehicles.Vehicle;
 import java.sql.SQLException;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Command implementation for removing vehicles with IDs less than a specified value. This command
@@ -12,14 +13,14 @@ import java.util.stream.Collectors;
  */
 public class RemoveLowerKey implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new RemoveLowerKey command with the specified storage.
    *
    * @param storage the storage from which vehicles will be removed
    */
-  public RemoveLowerKey(VehicleStorage storage) {
+  public RemoveLowerKey(Storage storage) {
     this.storage = storage;
   }
 
@@ -41,24 +42,19 @@ public class RemoveLowerKey implements Executable {
       return "! Not enough arguments";
     }
 
-    int counter = 0;
+    int uid = Integer.parseInt(args[args.length - 1]);
 
-    Set<Integer> lowerIds =
-        this.storage.getCollection().values().stream()
-            .filter(vehicle -> vehicle.getUserId() == Integer.parseInt(args[args.length - 1]))
-            .map(Vehicle::getId)
-            .filter(vehicleId -> vehicleId < id)
-            .collect(Collectors.toSet());
+    StorageSnapshot snapshot = storage.snapshot();
+    Set<Integer> lowerIds = new HashSet<>();
+    for (int vehicleId : storage.getIndexes().getOwners().idsOf(uid)) {
+      Vehicle vehicle = snapshot.get(vehicleId);
+      if (vehicleId < id && vehicle != null && vehicle.getUserId() == uid) lowerIds.add(vehicleId);
+    }
 
     try {
-      for (Integer i : lowerIds) {
-        storage.removeKey(i);
-        counter++;
-      }
+      return "Removed " + storage.removeKeys(lowerIds) + " items";
     } catch (SQLException e) {
       return "! Database error: " + e.getMessage();
     }
-
-    return "Removed " + counter + " items";
   }
 }
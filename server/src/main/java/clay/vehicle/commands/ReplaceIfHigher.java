@@ -1,6 +1,6 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
 import clay.vehicle.vehicles.Vehicle;
 import jakarta.validation.ValidationException;
 import java.sql.SQLException;
@@ -12,14 +12,14 @@ import java.util.Arrays;
  */
 public class ReplaceIfHigher implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new ReplaceIfHigher command with the specified storage.
    *
    * @param storage the storage where vehicles will be replaced
    */
-  public ReplaceIfHigher(VehicleStorage storage) {
+  public ReplaceIfHigher(Storage storage) {
     this.storage = storage;
   }
 
@@ -48,6 +48,7 @@ public class ReplaceIfHigher implements Executable {
       return "! Format error: " + e.getMessage();
     }
     Vehicle old = storage.getElement(id);
+    if (old == null) return "! No vehicle with id " + id;
 
     if (old.getUserId() != Integer.parseInt(args[args.length - 1])) {
       return "! Permission error";
@@ -55,6 +56,8 @@ public class ReplaceIfHigher implements Executable {
 
     try {
       if (old.compareTo(replace) < 0) {
+        // the parsed vehicle was given a fresh id, but it takes the place of the old one
+        replace.setId(old.getId());
         storage.updateElement(old.getId(), replace);
         return "Replaced 1 item";
       } else {
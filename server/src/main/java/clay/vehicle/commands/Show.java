@@ -1,39 +1,55 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
+import clay.vehicle.vehicles.Vehicle;
 
 /**
  * Command implementation for displaying all vehicles in the storage. This command shows all
- * vehicles in the storage with their IDs and details.
+ * vehicles in the storage with their IDs and details, either at once or page by page.
  */
 public class Show implements Executable {
   /** The storage instance containing the vehicles to display */
-  VehicleStorage storage;
+  Storage storage;
+
+  /** Open cursors of paged listings */
+  CursorRegistry cursors;
 
   /**
    * Constructs a new Show command with the specified storage.
    *
    * @param storage the storage containing the vehicles to display
+   * @param cursors the registry paged listings are opened in
    */
-  public Show(VehicleStorage storage) {
+  public Show(Storage storage, CursorRegistry cursors) {
     this.storage = storage;
+    this.cursors = cursors;
   }
 
   /**
    * Executes the show command with arguments. Returns a formatted string containing all vehicles in
-   * the storage.
+   * the storage, or the first page of them if a page size is given.
    *
-   * @param args command arguments (not used)
-   * @return a string containing all vehicles in the storage
+   * @param args command arguments, where args[0] is the optional page size and the last one is the
+   *     caller's uid
+   * @return a string containing the vehicles
    */
   @Override
   public String execute(String[] args) {
+    StorageSnapshot snapshot = storage.snapshot();
+    if (args.length > 1) {
+      int pageSize = CursorRegistry.parsePageSize(args[0]);
+      if (pageSize < 0) return "! Page size must be between 1 and " + CursorRegistry.MAX_PAGE_SIZE;
+      int uid = Integer.parseInt(args[args.length - 1]);
+      return cursors.open(uid, snapshot.iterator(), pageSize);
+    }
+
     StringBuilder builder = new StringBuilder();
-    for (Integer id : storage.getKeys()) {
-      builder.append(String.format("%d | %s", id, storage.getElement(id).toString()) + "\n");
+    for (Vehicle vehicle : snapshot) {
+      builder.append(CursorRegistry.row(vehicle)).append('\n');
     }
     builder.append("\n");
-    builder.append("Total " + storage.getLen() + " elements");
+    builder.append("Total " + snapshot.size() + " elements");
     return builder.toString();
   }
 }
@@ -0,0 +1,53 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
+import clay.vehicle.vehicles.Vehicle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command implementation for displaying the vehicles of the calling user. Only that user's vehicles
+ * are visited, found through the owner index of the storage.
+ */
+public class ShowMine implements Executable {
+  /** The storage instance containing the vehicles to display */
+  Storage storage;
+
+  /**
+   * Constructs a new ShowMine command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to display
+   */
+  public ShowMine(Storage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Executes the show_mine command. Returns a formatted string containing the caller's vehicles
+   * ordered by id.
+   *
+   * @param args command arguments, where the last one is the caller's uid
+   * @return a string containing the caller's vehicles
+   */
+  @Override
+  public String execute(String[] args) {
+    int uid = Integer.parseInt(args[args.length - 1]);
+
+    StorageSnapshot snapshot = storage.snapshot();
+    List<Integer> ids = new ArrayList<>(storage.getIndexes().getOwners().idsOf(uid));
+    ids.sort(null);
+
+    StringBuilder builder = new StringBuilder();
+    int total = 0;
+    for (int id : ids) {
+      Vehicle vehicle = snapshot.get(id);
+      if (vehicle == null || vehicle.getUserId() != uid) continue;
+      builder.append(CursorRegistry.row(vehicle)).append('\n');
+      total++;
+    }
+    builder.append("\n");
+    builder.append("Total ").append(total).append(" elements");
+    return builder.toString();
+  }
+}
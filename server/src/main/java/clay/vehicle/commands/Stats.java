@@ -0,0 +1,74 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.AggregateIndex;
+import clay.vehicle.dataStorage.CredentialCache;
+import clay.vehicle.dataStorage.Storage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Command implementation for displaying aggregate statistics of the collection. Every figure is
+ * maintained by the aggregate index on each change, so answering doesn't depend on the collection
+ * size. The counters of the login cache follow, to show whether it saves database round trips.
+ */
+public class Stats implements Executable {
+  /** The storage instance where vehicles are stored */
+  Storage storage;
+
+  /** The cache of verified logins, or null if there is none */
+  CredentialCache credentials;
+
+  /**
+   * Constructs a new Stats command with the specified storage.
+   *
+   * @param storage the storage to describe
+   * @param credentials the cache of verified logins, or null if there is none
+   */
+  public Stats(Storage storage, CredentialCache credentials) {
+    this.storage = storage;
+    this.credentials = credentials;
+  }
+
+  /**
+   * Executes the stats command. Returns counts per fuel and vehicle type and the summaries of
+   * engine power and distance travelled, and the login cache counters.
+   *
+   * @param args command arguments (not used)
+   * @return a string containing the statistics
+   */
+  @Override
+  public String execute(String[] args) {
+    AggregateIndex aggregates = storage.getIndexes().getAggregates();
+    StringBuilder builder = new StringBuilder();
+    builder.append("Fuel types:\n");
+    aggregates
+        .fuelTypeCounts()
+        .forEach((type, count) -> builder.append("  " + type + ": " + count + "\n"));
+    builder.append("Vehicle types:\n");
+    aggregates
+        .vehicleTypeCounts()
+        .forEach((type, count) -> builder.append("  " + type + ": " + count + "\n"));
+    builder.append("  none: " + aggregates.untypedCount() + "\n");
+    builder.append("Engine power: " + format(aggregates.enginePower()) + "\n");
+    builder.append("Distance travelled: " + format(aggregates.distanceTravelled()));
+    if (credentials != null) {
+      builder.append("\nLogin cache: " + credentials.getSize() + " entries");
+      builder.append(", " + credentials.getHits() + " hits");
+      builder.append(", " + credentials.getNegativeHits() + " rejected from cache");
+      builder.append(", " + credentials.getMisses() + " misses");
+    }
+    return builder.toString();
+  }
+
+  private static String format(AggregateIndex.Summary summary) {
+    if (summary.count() == 0) return "no values";
+    BigDecimal average =
+        summary.sum().divide(BigDecimal.valueOf(summary.count()), MathContext.DECIMAL64);
+    return String.format(
+        "min %s, max %s, sum %s, avg %s",
+        summary.min(),
+        summary.max(),
+        summary.sum().round(MathContext.DECIMAL64).toPlainString(),
+        average.toPlainString());
+  }
+}
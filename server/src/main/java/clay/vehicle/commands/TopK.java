@@ -0,0 +1,58 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.vehicles.Vehicle;
+import java.util.List;
+
+/**
+ * Command implementation for listing the vehicles with the highest or lowest value of a field. The
+ * vehicles are found by {@link VehicleOrder} without sorting the collection.
+ */
+public class TopK implements Executable {
+  /** The storage instance where vehicles are stored */
+  Storage storage;
+
+  /** Whether the highest values are listed rather than the lowest */
+  boolean highest;
+
+  /**
+   * Constructs a new TopK command with the specified storage.
+   *
+   * @param storage the storage containing the vehicles to search
+   * @param highest true for top_k, false for bottom_k
+   */
+  public TopK(Storage storage, boolean highest) {
+    this.storage = storage;
+    this.highest = highest;
+  }
+
+  /**
+   * Executes the top_k or bottom_k command. Lists the k vehicles with the highest or lowest value
+   * of the field, the most extreme first.
+   *
+   * @param args command arguments, where args[0] is enginePower or distanceTravelled and args[1] is
+   *     k
+   * @return a string containing the found vehicles
+   */
+  @Override
+  public String execute(String[] args) {
+    if (args.length < 3) return "! Not enough arguments";
+
+    int k;
+    try {
+      k = Integer.parseInt(args[1]);
+    } catch (NumberFormatException e) {
+      return "! Invalid argument";
+    }
+    if (k <= 0 || k > VehicleOrder.MAX_COUNT)
+      return "! k must be between 1 and " + VehicleOrder.MAX_COUNT;
+
+    List<Vehicle> vehicles;
+    try {
+      vehicles = VehicleOrder.window(storage, args[0], highest, 0, k);
+    } catch (IllegalArgumentException e) {
+      return "! " + e.getMessage();
+    }
+    return VehicleOrder.list(vehicles);
+  }
+}
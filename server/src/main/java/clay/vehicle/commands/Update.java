@@ -1,6 +1,6 @@
 package clay.vehicle.commands;
 
-import clay.vehicle.dataStorage.VehicleStorage;
+import clay.vehicle.dataStorage.Storage;
 import clay.vehicle.vehicles.Vehicle;
 import jakarta.validation.ValidationException;
 import java.sql.SQLException;
@@ -13,14 +13,14 @@ import java.util.Arrays;
  */
 public class Update implements Executable {
   /** The storage instance where vehicles are stored */
-  VehicleStorage storage;
+  Storage storage;
 
   /**
    * Constructs a new Update command with the specified storage.
    *
    * @param storage the storage where vehicles will be updated
    */
-  public Update(VehicleStorage storage) {
+  public Update(Storage storage) {
     this.storage = storage;
   }
 
@@ -0,0 +1,98 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageSnapshot;
+import clay.vehicle.vehicles.Vehicle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Windows of the collection ordered by a numeric field, found without sorting it. Engine power has
+ * an ordered index, so its windows are read off the index in O(offset + count). Distance travelled
+ * has none, so one pass over the snapshot keeps the best offset + count vehicles in a bounded heap,
+ * in O(n log(offset + count)).
+ */
+public final class VehicleOrder {
+  /** Upper bound of a window, so one request can't make the server list the whole collection */
+  public static final int MAX_COUNT = 1000;
+
+  private VehicleOrder() {}
+
+  /**
+   * Gets the order of a field by its name.
+   *
+   * @param field enginePower or distanceTravelled
+   * @return ascending order by the field, ties ordered by id
+   * @throws IllegalArgumentException if the field can't be ordered by
+   */
+  private static Comparator<Vehicle> order(String field) {
+    Comparator<Vehicle> order =
+        switch (field) {
+          case "enginePower" -> Comparator.comparing(Vehicle::getEnginePower);
+          case "distanceTravelled" -> Comparator.comparing(Vehicle::getDistanceTravelled);
+          default ->
+              throw new IllegalArgumentException(
+                  "Unknown field " + field + ", expected enginePower or distanceTravelled");
+        };
+    return order.thenComparingInt(Vehicle::getId);
+  }
+
+  /**
+   * Gets a window of the collection ordered by a field.
+   *
+   * @param storage the storage
+   * @param field enginePower or distanceTravelled
+   * @param descending whether to order from the highest value
+   * @param offset how many vehicles to skip from the start of the order
+   * @param count how many vehicles to get
+   * @return up to count vehicles, in order
+   * @throws IllegalArgumentException if the field can't be ordered by
+   */
+  public static List<Vehicle> window(
+      Storage storage, String field, boolean descending, int offset, int count) {
+    Comparator<Vehicle> order = order(field);
+    if (descending) order = order.reversed();
+
+    StorageSnapshot snapshot = storage.snapshot();
+    List<Vehicle> window = new ArrayList<>();
+    if (field.equals("enginePower")) {
+      var index = storage.getIndexes().getEnginePower();
+      // only keys matching the snapshot are walked, so the window is in order and has no duplicates
+      Iterator<Vehicle> rows = descending ? index.descending(snapshot) : index.ascending(snapshot);
+      for (int skipped = 0; skipped < offset && rows.hasNext(); skipped++) rows.next();
+      while (window.size() < count && rows.hasNext()) window.add(rows.next());
+      return window;
+    }
+
+    // the heap keeps the last vehicle of the window on top, to be dropped by a better one
+    int keep = (int) Math.min((long) offset + count, Integer.MAX_VALUE);
+    PriorityQueue<Vehicle> best = new PriorityQueue<>(order.reversed());
+    for (Vehicle vehicle : snapshot) {
+      if (best.size() < keep) best.add(vehicle);
+      else if (order.compare(vehicle, best.peek()) < 0) {
+        best.poll();
+        best.add(vehicle);
+      }
+    }
+    window.addAll(best);
+    window.sort(order);
+    return new ArrayList<>(window.subList(Math.min(offset, window.size()), window.size()));
+  }
+
+  /**
+   * Formats a window the way listings show it.
+   *
+   * @param window the vehicles
+   * @return a line per vehicle and their number
+   */
+  static String list(List<Vehicle> window) {
+    StringBuilder builder = new StringBuilder();
+    for (Vehicle vehicle : window) builder.append(CursorRegistry.row(vehicle)).append('\n');
+    builder.append("\n");
+    builder.append("Total ").append(window.size()).append(" elements");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,278 @@
+package clay.vehicle.commands;
+
+import clay.vehicle.dataStorage.Storage;
+import clay.vehicle.dataStorage.StorageIndexes;
+import clay.vehicle.dataStorage.StorageSnapshot;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A query over vehicles, compiled once from its terms into a predicate, a row format and a way to
+ * find candidates. Terms are {@code key=value} pairs:
+ *
+ * <ul>
+ *   <li>{@code name=prefix} - name starts with the prefix
+ *   <li>{@code fuel=NUCLEAR} - fuel type
+ *   <li>{@code type=CAR} - vehicle type, {@code none} for vehicles without one
+ *   <li>{@code power=min..max}, {@code distance=min..max} - engine power and distance travelled,
+ *       bounds included, either one can be left out
+ *   <li>{@code box=x1,y1,x2,y2} - coordinates inside a box given by two opposite corners
+ *   <li>{@code owner=uid} - owner, {@code me} for the caller
+ *   <li>{@code fields=id,name,...} - fields to show instead of the whole vehicle
+ *   <li>{@code limit=n} - most vehicles to list
+ *   <li>{@code page=n} - vehicles per page
+ * </ul>
+ *
+ * <p>Candidates come from the owner index, the spatial index or the engine power index, the first
+ * of them the query filters by, otherwise from the whole snapshot. Every candidate is checked
+ * against all filters on the snapshot, so an index only narrows the search.
+ */
+public final class VehicleQuery {
+  /** Fields that can be listed, by name */
+  private static final Map<String, Function<Vehicle, Object>> FIELDS = new LinkedHashMap<>();
+
+  static {
+    FIELDS.put("id", Vehicle::getId);
+    FIELDS.put("name", Vehicle::getName);
+    FIELDS.put("x", v -> v.getCoordinates().getX());
+    FIELDS.put("y", v -> v.getCoordinates().getY());
+    FIELDS.put("creationDate", Vehicle::getCreationDate);
+    FIELDS.put("enginePower", Vehicle::getEnginePower);
+    FIELDS.put("distanceTravelled", Vehicle::getDistanceTravelled);
+    FIELDS.put("type", Vehicle::getType);
+    FIELDS.put("fuelType", Vehicle::getFuelType);
+    FIELDS.put("userId", Vehicle::getUserId);
+  }
+
+  private String namePrefix;
+  private FuelType fuelType;
+  private VehicleType type;
+  private boolean typeless;
+  private float minPower = Float.NEGATIVE_INFINITY, maxPower = Float.POSITIVE_INFINITY;
+  private float minDistance = Float.NEGATIVE_INFINITY, maxDistance = Float.POSITIVE_INFINITY;
+  private double[] box;
+  private Integer owner;
+  private final List<String> fields = new ArrayList<>();
+  private int limit = Integer.MAX_VALUE;
+  private int pageSize = CursorRegistry.MAX_PAGE_SIZE;
+
+  private Predicate<Vehicle> filter = v -> true;
+  private Function<Vehicle, String> format = CursorRegistry::row;
+
+  private VehicleQuery() {}
+
+  /**
+   * Compiles a query.
+   *
+   * @param terms the terms of the query
+   * @param uid the caller's uid, for {@code owner=me}
+   * @return the compiled query
+   * @throws IllegalArgumentException if a term is malformed, with a message for the user
+   */
+  public static VehicleQuery compile(List<String> terms, int uid) {
+    VehicleQuery query = new VehicleQuery();
+    for (String term : terms) query.parse(term, uid);
+    query.compileFilter();
+    query.compileFormat();
+    return query;
+  }
+
+  private void parse(String term, int uid) {
+    int eq = term.indexOf('=');
+    if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got " + term);
+    String key = term.substring(0, eq), value = term.substring(eq + 1);
+    try {
+      switch (key) {
+        case "name" -> namePrefix = value;
+        case "fuel" -> fuelType = FuelType.valueOf(value.toUpperCase());
+        case "type" -> {
+          typeless = value.equalsIgnoreCase("none");
+          if (!typeless) type = VehicleType.valueOf(value.toUpperCase());
+        }
+        case "power" -> {
+          float[] range = range(value);
+          minPower = range[0];
+          maxPower = range[1];
+        }
+        case "distance" -> {
+          float[] range = range(value);
+          minDistance = range[0];
+          maxDistance = range[1];
+        }
+        case "box" -> {
+          String[] corners = value.split(",");
+          if (corners.length != 4) throw new IllegalArgumentException("box needs x1,y1,x2,y2");
+          double[] c = new double[4];
+          for (int i = 0; i < 4; i++) {
+            c[i] = Double.parseDouble(corners[i]);
+            if (Double.isNaN(c[i])) throw new NumberFormatException();
+          }
+          box =
+              new double[] {
+                Math.min(c[0], c[2]),
+                Math.min(c[1], c[3]),
+                Math.max(c[0], c[2]),
+                Math.max(c[1], c[3])
+              };
+        }
+        case "owner" -> owner = value.equalsIgnoreCase("me") ? uid : Integer.parseInt(value);
+        case "fields" -> {
+          fields.clear();
+          for (String field : value.split(",")) {
+            if (!FIELDS.containsKey(field))
+              throw new IllegalArgumentException(
+                  "Unknown field " + field + ", expected one of " + FIELDS.keySet());
+            fields.add(field);
+          }
+        }
+        case "limit" -> {
+          limit = Integer.parseInt(value);
+          if (limit < 1) throw new IllegalArgumentException("limit must be positive");
+        }
+        case "page" -> {
+          pageSize = CursorRegistry.parsePageSize(value);
+          if (pageSize < 0)
+            throw new IllegalArgumentException(
+                "Page size must be between 1 and " + CursorRegistry.MAX_PAGE_SIZE);
+        }
+        default -> throw new IllegalArgumentException("Unknown query key " + key);
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number in " + term);
+    } catch (IllegalArgumentException e) {
+      // enum lookups fail with a message naming the enum class, not what the user typed
+      if (key.equals("fuel") || key.equals("type"))
+        throw new IllegalArgumentException("Unknown " + key + " " + value);
+      throw e;
+    }
+  }
+
+  /** Parses {@code min..max}, with a missing bound standing for no bound. */
+  private static float[] range(String value) {
+    int dots = value.indexOf("..");
+    if (dots < 0) throw new IllegalArgumentException("Expected min..max, got " + value);
+    String min = value.substring(0, dots), max = value.substring(dots + 2);
+    float[] range = {
+      min.isEmpty() ? Float.NEGATIVE_INFINITY : Float.parseFloat(min),
+      max.isEmpty() ? Float.POSITIVE_INFINITY : Float.parseFloat(max)
+    };
+    if (Float.isNaN(range[0]) || Float.isNaN(range[1])) throw new NumberFormatException();
+    return range;
+  }
+
+  /** Chains the given filters, cheap comparisons first and the string match last. */
+  private void compileFilter() {
+    List<Predicate<Vehicle>> filters = new ArrayList<>();
+    if (owner != null) {
+      int uid = owner;
+      filters.add(v -> v.getUserId() == uid);
+    }
+    if (fuelType != null) filters.add(v -> v.getFuelType() == fuelType);
+    if (typeless) filters.add(v -> v.getType() == null);
+    else if (type != null) filters.add(v -> v.getType() == type);
+    if (minPower > Float.NEGATIVE_INFINITY || maxPower < Float.POSITIVE_INFINITY)
+      filters.add(v -> v.getEnginePower() >= minPower && v.getEnginePower() <= maxPower);
+    if (minDistance > Float.NEGATIVE_INFINITY || maxDistance < Float.POSITIVE_INFINITY)
+      filters.add(
+          v -> v.getDistanceTravelled() >= minDistance && v.getDistanceTravelled() <= maxDistance);
+    if (box != null) {
+      double minX = box[0], minY = box[1], maxX = box[2], maxY = box[3];
+      filters.add(
+          v -> {
+            double x = v.getCoordinates().getX(), y = v.getCoordinates().getY();
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+          });
+    }
+    if (namePrefix != null) filters.add(v -> v.getName().startsWith(namePrefix));
+
+    if (!filters.isEmpty()) {
+      filter = filters.get(0);
+      for (int i = 1; i < filters.size(); i++) filter = filter.and(filters.get(i));
+    }
+  }
+
+  private void compileFormat() {
+    if (fields.isEmpty()) return;
+    List<String> names = List.copyOf(fields);
+    List<Function<Vehicle, Object>> getters = names.stream().map(FIELDS::get).toList();
+    format =
+        v -> {
+          StringBuilder builder = new StringBuilder().append(v.getId()).append(" |");
+          for (int i = 0; i < names.size(); i++)
+            builder
+                .append(i == 0 ? " " : ", ")
+                .append(names.get(i))
+                .append('=')
+                .append(getters.get(i).apply(v));
+          return builder.toString();
+        };
+  }
+
+  /**
+   * Gets the row format of the listing.
+   *
+   * @return turns a vehicle into its line, with only the requested fields if there are any
+   */
+  public Function<Vehicle, String> format() {
+    return format;
+  }
+
+  public int pageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Finds the vehicles matching the query in a snapshot of a storage, lazily.
+   *
+   * @param storage the storage
+   * @return the matching vehicles, at most limit of them; ordered by id when an index was used,
+   *     otherwise in the order of the snapshot
+   */
+  public Iterator<Vehicle> run(Storage storage) {
+    StorageSnapshot snapshot = storage.snapshot();
+    Iterator<Vehicle> candidates = candidates(storage.getIndexes(), snapshot);
+    return new Iterator<>() {
+      private Vehicle next;
+      private int listed;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && listed < limit && candidates.hasNext()) {
+          Vehicle v = candidates.next();
+          if (v != null && filter.test(v)) next = v;
+        }
+        return next != null;
+      }
+
+      @Override
+      public Vehicle next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Vehicle v = next;
+        next = null;
+        listed++;
+        return v;
+      }
+    };
+  }
+
+  private Iterator<Vehicle> candidates(StorageIndexes indexes, StorageSnapshot snapshot) {
+    List<Integer> ids;
+    if (owner != null) ids = new ArrayList<>(indexes.getOwners().idsOf(owner));
+    else if (box != null) ids = indexes.getCoordinates().idsInBox(box[0], box[1], box[2], box[3]);
+    else if (minPower > Float.NEGATIVE_INFINITY || maxPower < Float.POSITIVE_INFINITY)
+      ids = new ArrayList<>(indexes.getEnginePower().idsBetween(minPower, maxPower));
+    else return snapshot.iterator();
+
+    ids.sort(null);
+    return ids.stream().map(snapshot::get).iterator();
+  }
+}
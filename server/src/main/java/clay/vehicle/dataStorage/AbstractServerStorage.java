@@ -0,0 +1,366 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import lombok.Getter;
+
+/**
+ * The part of a server storage that doesn't depend on how the collection is kept: sending writes to
+ * the database or to the write-behind flusher, skipping remote changes to vehicles with unflushed
+ * local ones, and reading through the current snapshot. Subclasses decide how writers are locked
+ * out of each other, how a change is published and how entirely new contents are built.
+ *
+ * <p>In write-behind mode a write is journaled under its locks, but the journal is forced only
+ * after they are released, so writers of other vehicles don't queue behind the disk. The write
+ * returns, and is acknowledged, only once the journal is on disk.
+ *
+ * @param <C> entirely new contents, built by {@link #load} before they are installed
+ */
+public abstract class AbstractServerStorage<C> implements ServerStorage {
+  protected final DbStoreManager db;
+
+  /** Background writer used in write-behind mode, null in synchronous mode */
+  @Getter private volatile WriteBehindFlusher writeBehind;
+
+  /** The initialization date of this storage */
+  @Getter private final ZonedDateTime initDate;
+
+  /** Secondary indexes, updated after every published change */
+  @Getter private final StorageIndexes indexes = new StorageIndexes();
+
+  /** Locks taken by a write, released by closing */
+  protected interface Held extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * Constructs a new storage with the current date and time as initialization date.
+   *
+   * @param db the database writes go to
+   */
+  protected AbstractServerStorage(DbStoreManager db) {
+    this.initDate = ZonedDateTime.now();
+    this.db = db;
+  }
+
+  /**
+   * Locks out other writers of some vehicles.
+   *
+   * @param ids the ids to be written
+   * @return the locks taken
+   */
+  protected abstract Held lock(Collection<Integer> ids);
+
+  /**
+   * Locks out every other writer.
+   *
+   * @return the locks taken
+   */
+  protected abstract Held lockEverything();
+
+  /**
+   * Publishes a change to the current version and updates the indexes. Must hold the locks of the
+   * changed ids.
+   *
+   * @param removals ids of vehicles to remove
+   * @param puts vehicles to put by id, applied after the removals
+   * @param changed ids whose vehicles the change affects
+   */
+  protected abstract void apply(
+      Collection<Integer> removals, Map<Integer, Vehicle> puts, Collection<Integer> changed);
+
+  /**
+   * Builds entirely new contents. Called without holding any lock.
+   *
+   * @param vehicles the vehicles of the new contents
+   * @return the contents, to be installed
+   * @throws SQLException if the source fails
+   */
+  protected abstract C load(VehicleSource vehicles) throws SQLException;
+
+  /**
+   * Gets empty contents.
+   *
+   * @return the contents, to be installed
+   */
+  protected abstract C empty();
+
+  /**
+   * Publishes contents built by {@link #load} or {@link #empty} and rebuilds the indexes. Must hold
+   * every lock.
+   *
+   * @param contents the new contents
+   * @throws SQLException if contents read lazily from their source fail
+   */
+  protected abstract void install(C contents) throws SQLException;
+
+  private void apply(Collection<Integer> removals, Map<Integer, Vehicle> puts) {
+    List<Integer> changed = new ArrayList<>(removals.size() + puts.size());
+    changed.addAll(removals);
+    changed.addAll(puts.keySet());
+    apply(removals, puts, changed);
+  }
+
+  @Override
+  public void enableWriteBehind(WriteBehindFlusher flusher) throws IOException {
+    try (Held held = lockEverything()) {
+      // only the last write of each id matters
+      Map<Integer, PendingWrite> recovered = new LinkedHashMap<>();
+      for (PendingWrite write : flusher.recover()) {
+        recovered.remove(write.id());
+        recovered.put(write.id(), write);
+      }
+      applyWrites(recovered.values());
+      this.writeBehind = flusher;
+    }
+  }
+
+  /** Applies pending writes, at most one per id, to the local collection. */
+  private void applyWrites(Collection<PendingWrite> writes) {
+    List<Integer> removals = new ArrayList<>();
+    Map<Integer, Vehicle> puts = new LinkedHashMap<>();
+    for (PendingWrite write : writes) {
+      if (write.isDelete()) removals.add(write.id());
+      else puts.put(write.id(), write.vehicle());
+    }
+    apply(removals, puts);
+  }
+
+  @Override
+  public void insert(Vehicle vehicle) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(1);
+    long journaled = 0;
+    try (Held held = lock(List.of(vehicle.getId()))) {
+      if (flusher != null) journaled = flusher.submit(List.of(PendingWrite.upsert(vehicle)));
+      else db.insert(vehicle);
+      apply(List.of(), Map.of(vehicle.getId(), vehicle));
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+  }
+
+  @Override
+  public Vehicle removeKey(int id) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(1);
+    long journaled = 0;
+    Vehicle removed;
+    try (Held held = lock(List.of(id))) {
+      // other writers of this id are locked out, so the value can't change before publishing
+      removed = snapshot().get(id);
+      if (flusher != null) {
+        if (removed == null) return null;
+        journaled = flusher.submit(List.of(PendingWrite.delete(id)));
+      } else db.removeKey(id);
+      apply(List.of(id), Map.of());
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+    return removed;
+  }
+
+  @Override
+  public void updateElement(int id, Vehicle vehicle) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(1);
+    long journaled = 0;
+    try (Held held = lock(List.of(id))) {
+      if (flusher != null) journaled = flusher.submit(List.of(new PendingWrite(id, vehicle)));
+      else db.update(id, vehicle);
+      apply(List.of(), Map.of(id, vehicle));
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+  }
+
+  /**
+   * Inserts several vehicles in one database transaction. The local collection is changed only
+   * after the transaction commits, all at once.
+   *
+   * @param vehicles the vehicles to insert
+   */
+  @Override
+  public void insertAll(Collection<Vehicle> vehicles) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(vehicles.size());
+    Map<Integer, Vehicle> puts = new LinkedHashMap<>();
+    for (Vehicle vehicle : vehicles) puts.put(vehicle.getId(), vehicle);
+    long journaled = 0;
+    try (Held held = lock(puts.keySet())) {
+      if (flusher != null)
+        journaled = flusher.submit(vehicles.stream().map(PendingWrite::upsert).toList());
+      else db.insertAll(vehicles);
+      apply(List.of(), puts);
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+  }
+
+  /**
+   * Updates several vehicles in one database transaction. The local collection is changed only
+   * after the transaction commits, all at once.
+   *
+   * @param vehicles the new vehicle data indexed by the IDs to update
+   */
+  @Override
+  public void updateAll(Map<Integer, Vehicle> vehicles) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(vehicles.size());
+    long journaled = 0;
+    try (Held held = lock(vehicles.keySet())) {
+      if (flusher != null)
+        journaled =
+            flusher.submit(
+                vehicles.entrySet().stream()
+                    .map(e -> new PendingWrite(e.getKey(), e.getValue()))
+                    .toList());
+      else db.updateAll(vehicles);
+      apply(List.of(), vehicles);
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+  }
+
+  /**
+   * Removes several vehicles in one database transaction. The local collection is changed only
+   * after the transaction commits, all at once.
+   *
+   * @param ids the IDs of the vehicles to remove
+   * @return the number of vehicles removed from the local collection
+   */
+  @Override
+  public int removeKeys(Collection<Integer> ids) throws SQLException {
+    WriteBehindFlusher flusher = writeBehind;
+    if (flusher != null) flusher.awaitCapacity(ids.size());
+    long journaled = 0;
+    List<Integer> present;
+    try (Held held = lock(ids)) {
+      StorageSnapshot before = snapshot();
+      present = ids.stream().filter(id -> before.get(id) != null).distinct().toList();
+      if (flusher != null)
+        journaled = flusher.submit(present.stream().map(PendingWrite::delete).toList());
+      else db.removeKeys(ids);
+      apply(present, Map.of());
+    }
+    if (flusher != null) flusher.awaitDurable(journaled);
+    return present.size();
+  }
+
+  @Override
+  public void clearCollection() throws SQLException {
+    try (Held held = lockEverything()) {
+      WriteBehindFlusher flusher = writeBehind;
+      if (flusher != null) flusher.discardAll();
+      db.truncateVehicles();
+      db.resetVehicleIDs();
+      if (flusher != null) flusher.discardReservedIds();
+      install(empty());
+    }
+  }
+
+  @Override
+  public void clearLocalCollection() {
+    try (Held held = lockEverything()) {
+      install(empty());
+    } catch (SQLException e) {
+      throw new AssertionError("Empty contents can't fail", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc} In write-behind mode, unflushed local changes are applied again on top, since the
+   * database the vehicles usually come from doesn't have them yet.
+   */
+  @Override
+  public void replaceLocalCollection(VehicleSource vehicles) throws SQLException {
+    C loaded = load(vehicles);
+    try (Held held = lockEverything()) {
+      install(loaded);
+      WriteBehindFlusher flusher = writeBehind;
+      if (flusher != null) applyWrites(flusher.getPendingWrites());
+    }
+  }
+
+  /**
+   * Applies changes read from the database by another node. In write-behind mode, vehicles with
+   * unflushed local changes are skipped, since the database doesn't have their latest state yet.
+   *
+   * @param upserts vehicles to put, replacing any with the same id
+   * @param deletes ids of vehicles to remove
+   */
+  @Override
+  public void applyRemoteChanges(Collection<Vehicle> upserts, Collection<Integer> deletes) {
+    List<Integer> ids = new ArrayList<>(upserts.size() + deletes.size());
+    for (Vehicle vehicle : upserts) ids.add(vehicle.getId());
+    ids.addAll(deletes);
+    try (Held held = lock(ids)) {
+      WriteBehindFlusher flusher = writeBehind;
+      List<Integer> removals = new ArrayList<>(deletes.size());
+      for (Integer id : deletes) if (flusher == null || !flusher.isPending(id)) removals.add(id);
+      Map<Integer, Vehicle> puts = new LinkedHashMap<>();
+      for (Vehicle vehicle : upserts)
+        if (flusher == null || !flusher.isPending(vehicle.getId()))
+          puts.put(vehicle.getId(), vehicle);
+      apply(removals, puts);
+    }
+  }
+
+  /**
+   * Gets the next available ID for a new vehicle from the database sequence, through the block of
+   * ids reserved ahead of time in write-behind mode.
+   *
+   * @return the next available ID
+   */
+  @Override
+  public int getNextId() throws SQLException {
+    // the id sequence is safe to use concurrently, holding a lock would only delay writers
+    WriteBehindFlusher flusher = writeBehind;
+    return flusher != null ? flusher.nextId() : db.nextVehicleId();
+  }
+
+  /**
+   * Gets all vehicles in the storage.
+   *
+   * @return a read-only view of the vehicles of the current version
+   */
+  @Override
+  public Collection<Vehicle> getValues() {
+    return snapshot().values();
+  }
+
+  @Override
+  public Vehicle getElement(int id) {
+    return snapshot().get(id);
+  }
+
+  /**
+   * Gets the type name of the storage implementation.
+   *
+   * @return the class name of the storage implementation
+   */
+  @Override
+  public String getType() {
+    return getClass().getName();
+  }
+
+  @Override
+  public Integer getLen() {
+    return snapshot().size();
+  }
+
+  @Override
+  public Set<Integer> getKeys() {
+    return snapshot().keys();
+  }
+
+  /**
+   * Gets a read-only view of the current version of the collection. Later writes are not visible
+   * through it.
+   *
+   * @return the collection as a map
+   */
+  @Override
+  public Map<Integer, Vehicle> getCollection() {
+    return snapshot().asMap();
+  }
+}
@@ -0,0 +1,165 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Listens for change notifications sent by other server nodes through Postgres LISTEN/NOTIFY and
+ * applies the changed vehicles to the local storage. Notifications carry only the vehicle id, the
+ * current row is always read back, so their order doesn't matter. The listener keeps its own
+ * connection outside of the pool and reconnects if it is lost; notifications sent while it was
+ * disconnected are lost, so delta sync should be enabled as well to catch up.
+ */
+public class ChangeListener implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(ChangeListener.class);
+
+  /** Notification channel, payloads are {@code node:C:id} for a change or {@code node:T:0} */
+  public static final String CHANNEL = "vehicle_changes";
+
+  private static final int POLL_TIMEOUT_MS = 500;
+  private static final long MAX_RECONNECT_DELAY_MS = 30000;
+  private static final String SELECT_CHANGED_SQL =
+      "SELECT " + StreamingVehicleLoader.COLUMNS + " FROM vehicles WHERE id = ANY(?)";
+
+  private final String jdbcUrl;
+  private final Properties properties;
+  private final String nodeId;
+  private final Storage storage;
+  private final StreamingVehicleLoader loader = new StreamingVehicleLoader(1);
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs a new listener and starts its thread.
+   *
+   * @param jdbcUrl the database URL
+   * @param properties connection properties passed to the driver
+   * @param nodeId id of this node, whose own notifications are ignored
+   * @param storage the storage to apply changes to
+   */
+  public ChangeListener(String jdbcUrl, Properties properties, String nodeId, Storage storage) {
+    this.jdbcUrl = jdbcUrl;
+    this.properties = properties;
+    this.nodeId = nodeId;
+    this.storage = storage;
+    this.thread = new Thread(this::run, "change-listener");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    long reconnectDelayMs = 1000;
+    boolean reconnecting = false;
+    while (running) {
+      try (Connection connection = DriverManager.getConnection(jdbcUrl, properties)) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + CHANNEL);
+        }
+        if (reconnecting)
+          logger.warn("Change listener reconnected, changes made meanwhile may have been missed");
+        else logger.info("Listening for changes from other nodes");
+        reconnectDelayMs = 1000;
+        listen(connection);
+      } catch (SQLException e) {
+        if (!running) break;
+        logger.warn(
+            "Change listener lost connection: "
+                + e.getMessage()
+                + ", retrying in "
+                + reconnectDelayMs
+                + " ms");
+        reconnecting = true;
+        try {
+          Thread.sleep(reconnectDelayMs);
+        } catch (InterruptedException ie) {
+          break;
+        }
+        reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+      } catch (RuntimeException e) {
+        logger.error("Unexpected error in change listener", e);
+      }
+    }
+  }
+
+  private void listen(Connection connection) throws SQLException {
+    PGConnection pg = connection.unwrap(PGConnection.class);
+    while (running) {
+      PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+      if (notifications == null || notifications.length == 0) continue;
+
+      Set<Integer> ids = new HashSet<>();
+      boolean truncated = false;
+      for (PGNotification notification : notifications) {
+        String[] parts = notification.getParameter().split(":", 3);
+        if (parts.length != 3 || parts[0].equals(nodeId)) continue;
+        if (parts[1].equals("T")) truncated = true;
+        else {
+          try {
+            ids.add(Integer.parseInt(parts[2]));
+          } catch (NumberFormatException e) {
+            logger.warn("Malformed change notification: " + notification.getParameter());
+          }
+        }
+      }
+      if (truncated) storage.applyRemoteChanges(List.of(), storage.getKeys());
+      if (!ids.isEmpty()) apply(connection, ids);
+    }
+  }
+
+  /** Reads the current rows of the changed ids and applies them, missing ones are deleted. */
+  private void apply(Connection connection, Set<Integer> ids) throws SQLException {
+    List<Vehicle> upserts = new ArrayList<>(ids.size());
+    Set<Integer> deletes = new HashSet<>(ids);
+    try (PreparedStatement ps = connection.prepareStatement(SELECT_CHANGED_SQL)) {
+      Array idArray = connection.createArrayOf("integer", ids.toArray());
+      try {
+        ps.setArray(1, idArray);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            Vehicle vehicle = loader.readVehicle(rs);
+            // an invalid row is dropped as in a full sync
+            if (vehicle != null) {
+              upserts.add(vehicle);
+              deletes.remove(vehicle.getId());
+            }
+          }
+        }
+      } finally {
+        idArray.free();
+      }
+    }
+    storage.applyRemoteChanges(upserts, deletes);
+    logger.debug(
+        "Applied "
+            + upserts.size()
+            + " updates and "
+            + deletes.size()
+            + " deletes from other nodes");
+  }
+
+  /** Stops the listener thread and closes its connection. */
+  @Override
+  public void close() {
+    running = false;
+    try {
+      thread.join(POLL_TIMEOUT_MS * 4L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Snapshot of a {@link ColumnarVehicleStorage}: a trie of {@link VehicleBlock}s by block number.
+ * Vehicle objects are materialized only when read, so two reads of the same id return equal but
+ * distinct objects.
+ *
+ * @param version number of the version, increasing with every published change
+ * @param blocks the blocks of this version by block number
+ * @param size the number of vehicles
+ */
+record ColumnarSnapshot(long version, IntTrieMap<VehicleBlock> blocks, int size)
+    implements StorageSnapshot {
+  private static final ColumnarSnapshot EMPTY = new ColumnarSnapshot(0, IntTrieMap.empty(), 0);
+
+  static ColumnarSnapshot empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Derives the next version.
+   *
+   * @param blocks the blocks of the next version
+   * @param size the number of vehicles in them
+   * @return the next snapshot, or this one if the blocks didn't change
+   */
+  ColumnarSnapshot next(IntTrieMap<VehicleBlock> blocks, int size) {
+    return blocks == this.blocks ? this : new ColumnarSnapshot(version + 1, blocks, size);
+  }
+
+  @Override
+  public Vehicle get(int id) {
+    if (id < 0) return null;
+    VehicleBlock block = blocks.get(VehicleBlock.blockOf(id));
+    return block == null ? null : block.vehicle(id);
+  }
+
+  boolean contains(int id) {
+    if (id < 0) return false;
+    VehicleBlock block = blocks.get(VehicleBlock.blockOf(id));
+    return block != null && block.contains(id);
+  }
+
+  @Override
+  public Iterator<Vehicle> iterator() {
+    Iterator<Integer> ids = idIterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return ids.hasNext();
+      }
+
+      @Override
+      public Vehicle next() {
+        return get(ids.next());
+      }
+    };
+  }
+
+  private Iterator<Integer> idIterator() {
+    Iterator<IntTrieMap.Entry<VehicleBlock>> entries = blocks.iterator();
+    return new Iterator<>() {
+      private int base;
+      private long remaining;
+
+      @Override
+      public boolean hasNext() {
+        while (remaining == 0 && entries.hasNext()) {
+          IntTrieMap.Entry<VehicleBlock> entry = entries.next();
+          base = entry.key() << VehicleBlock.SHIFT;
+          remaining = entry.value().present();
+        }
+        return remaining != 0;
+      }
+
+      @Override
+      public Integer next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int slot = Long.numberOfTrailingZeros(remaining);
+        remaining &= remaining - 1;
+        return base | slot;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Vehicle> values() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<Vehicle> iterator() {
+        return ColumnarSnapshot.this.iterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Set<Integer> keys() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Integer> iterator() {
+        return idIterator();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return o instanceof Integer id && ColumnarSnapshot.this.contains(id);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Map<Integer, Vehicle> asMap() {
+    return new AbstractMap<>() {
+      @Override
+      public Set<Map.Entry<Integer, Vehicle>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Map.Entry<Integer, Vehicle>> iterator() {
+            Iterator<Integer> ids = idIterator();
+            return new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return ids.hasNext();
+              }
+
+              @Override
+              public Map.Entry<Integer, Vehicle> next() {
+                int id = ids.next();
+                return Map.entry(id, get(id));
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return size;
+          }
+        };
+      }
+
+      @Override
+      public Vehicle get(Object key) {
+        return key instanceof Integer id ? ColumnarSnapshot.this.get(id) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return key instanceof Integer id && contains(id);
+      }
+
+      @Override
+      public Set<Integer> keySet() {
+        return keys();
+      }
+
+      @Override
+      public Collection<Vehicle> values() {
+        return ColumnarSnapshot.this.values();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
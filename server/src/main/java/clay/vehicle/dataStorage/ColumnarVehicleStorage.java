@@ -0,0 +1,142 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage of vehicles in columnar form. Vehicles are kept in {@link VehicleBlock}s of 64
+ * consecutive ids with one primitive array per field, instead of one object graph per vehicle,
+ * which takes several times less heap for a large collection. Vehicle objects are only created when
+ * read. Like {@link VehicleStorage}, writers publish immutable snapshots under a single write lock
+ * and readers never lock; a write copies only the blocks it touches.
+ */
+public class ColumnarVehicleStorage extends AbstractServerStorage<ColumnarVehicleStorage.Contents> {
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /** The current version of the collection, replaced by every write */
+  private volatile ColumnarSnapshot current = ColumnarSnapshot.empty();
+
+  /**
+   * Entirely new contents, built off the lock.
+   *
+   * @param blocks the blocks
+   * @param size the number of vehicles in them
+   */
+  record Contents(IntTrieMap<VehicleBlock> blocks, int size) {}
+
+  /**
+   * Constructs a new ColumnarVehicleStorage with the current date and time as initialization date.
+   *
+   * @param db the database writes go to
+   */
+  public ColumnarVehicleStorage(DbStoreManager db) {
+    super(db);
+  }
+
+  /**
+   * Changes to a snapshot being prepared. Every touched block is copied once, however many of its
+   * vehicles change.
+   */
+  private static final class Batch {
+    private final ColumnarSnapshot base;
+    private final Map<Integer, VehicleBlock> copies = new HashMap<>();
+    private int size;
+
+    Batch(ColumnarSnapshot base) {
+      this.base = base;
+      this.size = base.size();
+    }
+
+    private VehicleBlock copyOf(int block) {
+      return copies.computeIfAbsent(
+          block,
+          b -> {
+            VehicleBlock published = base.blocks().get(b);
+            return published == null ? new VehicleBlock() : published.copy();
+          });
+    }
+
+    void put(Vehicle vehicle) {
+      if (copyOf(VehicleBlock.blockOf(vehicle.getId())).set(vehicle)) size++;
+    }
+
+    void remove(int id) {
+      if (id < 0 || !base.contains(id) && !copies.containsKey(VehicleBlock.blockOf(id))) return;
+      if (copyOf(VehicleBlock.blockOf(id)).clear(id)) size--;
+    }
+
+    IntTrieMap<VehicleBlock> build() {
+      if (copies.isEmpty()) return base.blocks();
+      IntTrieMap.Builder<VehicleBlock> builder = base.blocks().toBuilder();
+      copies.forEach(
+          (block, copy) -> {
+            if (copy.isEmpty()) builder.remove(block);
+            else builder.put(block, copy);
+          });
+      return builder.build();
+    }
+  }
+
+  @Override
+  protected Held lock(Collection<Integer> ids) {
+    return lockEverything();
+  }
+
+  @Override
+  protected Held lockEverything() {
+    writeLock.lock();
+    return writeLock::unlock;
+  }
+
+  @Override
+  protected void apply(
+      Collection<Integer> removals, Map<Integer, Vehicle> puts, Collection<Integer> changed) {
+    Batch batch = new Batch(current);
+    for (Integer id : removals) batch.remove(id);
+    puts.values().forEach(batch::put);
+    ColumnarSnapshot before = current;
+    current = before.next(batch.build(), batch.size);
+    getIndexes().update(before, current, changed);
+  }
+
+  @Override
+  protected Contents load(VehicleSource vehicles) throws SQLException {
+    // the new blocks don't share anything with the published ones
+    Batch batch = new Batch(ColumnarSnapshot.empty());
+    vehicles.forEach(batch::put);
+    return new Contents(batch.build(), batch.size);
+  }
+
+  @Override
+  protected Contents empty() {
+    return new Contents(IntTrieMap.empty(), 0);
+  }
+
+  @Override
+  protected void install(Contents contents) {
+    current = current.next(contents.blocks(), contents.size());
+    getIndexes().rebuild(current);
+  }
+
+  /**
+   * Gets the current version of the collection. Costs nothing and never blocks.
+   *
+   * @return the current snapshot
+   */
+  @Override
+  public StorageSnapshot snapshot() {
+    return current;
+  }
+
+  /**
+   * Gets all vehicles in the storage.
+   *
+   * @return a read-only view of the current version, materializing vehicles as it is iterated
+   */
+  @Override
+  public Collection<Vehicle> getValues() {
+    return current.values();
+  }
+}
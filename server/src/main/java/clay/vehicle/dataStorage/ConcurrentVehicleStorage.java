@@ -0,0 +1,94 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage of vehicles with lock-free reads. The collection is an immutable {@link IntTrieMap}
+ * published through an atomic reference: readers take the current version without locking and
+ * iterate it consistently while writers publish new versions. Writes to the same id are serialized
+ * by a striped lock held around the database call, writes to different ids only contend on the
+ * final compare-and-set.
+ */
+public class ConcurrentVehicleStorage extends AbstractServerStorage<IntTrieMap<Vehicle>> {
+  private static final int WRITE_LOCK_STRIPES = 64;
+
+  private final StripedLocks writeLocks = new StripedLocks(WRITE_LOCK_STRIPES);
+  private final AtomicReference<TrieSnapshot> root = new AtomicReference<>(TrieSnapshot.empty());
+
+  /**
+   * Constructs a new ConcurrentVehicleStorage with the current date and time as initialization
+   * date.
+   *
+   * @param db the database writes go to
+   */
+  public ConcurrentVehicleStorage(DbStoreManager db) {
+    super(db);
+  }
+
+  @Override
+  protected Held lock(Collection<Integer> ids) {
+    List<ReentrantLock> locked = writeLocks.lockAll(ids);
+    return () -> StripedLocks.unlockAll(locked);
+  }
+
+  @Override
+  protected Held lockEverything() {
+    List<ReentrantLock> locked = writeLocks.lockEverything();
+    return () -> StripedLocks.unlockAll(locked);
+  }
+
+  /**
+   * Publishes a new version of the collection derived from the current one and updates the indexes.
+   * Writers of other ids may publish meanwhile, so the change is applied again to whatever version
+   * the compare-and-set fails against.
+   */
+  @Override
+  protected void apply(
+      Collection<Integer> removals, Map<Integer, Vehicle> puts, Collection<Integer> changed) {
+    while (true) {
+      TrieSnapshot current = root.get();
+      IntTrieMap.Builder<Vehicle> builder = current.vehicles().toBuilder();
+      for (Integer id : removals) builder.remove(id);
+      puts.forEach(builder::put);
+      TrieSnapshot next = current.next(builder.build());
+      if (next == current) return;
+      if (root.compareAndSet(current, next)) {
+        getIndexes().update(current, next, changed);
+        return;
+      }
+    }
+  }
+
+  @Override
+  protected IntTrieMap<Vehicle> load(VehicleSource vehicles) throws SQLException {
+    IntTrieMap.Builder<Vehicle> builder = IntTrieMap.<Vehicle>empty().toBuilder();
+    vehicles.forEach(vehicle -> builder.put(vehicle.getId(), vehicle));
+    return builder.build();
+  }
+
+  @Override
+  protected IntTrieMap<Vehicle> empty() {
+    return IntTrieMap.empty();
+  }
+
+  @Override
+  protected void install(IntTrieMap<Vehicle> vehicles) {
+    TrieSnapshot next = root.get().next(vehicles);
+    root.set(next);
+    getIndexes().rebuild(next);
+  }
+
+  /**
+   * Gets the current version of the collection. Costs nothing and never blocks.
+   *
+   * @return the current snapshot
+   */
+  @Override
+  public StorageSnapshot snapshot() {
+    return root.get();
+  }
+}
@@ -0,0 +1,197 @@
+package clay.vehicle.dataStorage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of login verification results. Entries are keyed by login and a salted digest
+ * of the password, so plain passwords are never kept in memory. Failed verifications are cached
+ * too, for a shorter time, so that repeated bad attempts don't reach the database.
+ *
+ * <p>A verification that was already running when its login was invalidated must not cache its
+ * stale result, e.g. a "no such user" read just before the user registered. Every login has a
+ * generation, bumped by {@link #invalidate}; callers read it before checking the database and
+ * {@link #put} drops the result if it changed meanwhile. Generations are kept per stripe of logins
+ * rather than per login, so they take fixed memory, and an invalidation only ever costs another
+ * login of the stripe a cache write.
+ */
+public class CredentialCache {
+  private static final int SALT_BYTES = 16;
+
+  /** Number of generation stripes, a power of two */
+  private static final int STRIPES = 1024;
+
+  private final byte[] salt = new byte[SALT_BYTES];
+  private final int capacity;
+  private final long ttlMs;
+  private final long negativeTtlMs;
+  private final Map<String, Entry> entries;
+
+  /** Generations of the logins by stripe, bumped under the entries lock */
+  private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Cached verification result.
+   *
+   * @param uid the verified user id, or null for a failed attempt
+   * @param expiresAt time in millis after which the entry is ignored
+   */
+  public record Entry(Integer uid, long expiresAt) {}
+
+  /**
+   * Constructs a new CredentialCache.
+   *
+   * @param capacity maximum number of cached entries
+   * @param ttlMs lifetime of a successful verification
+   * @param negativeTtlMs lifetime of a failed verification
+   */
+  public CredentialCache(int capacity, long ttlMs, long negativeTtlMs) {
+    this.capacity = capacity;
+    this.ttlMs = ttlMs;
+    this.negativeTtlMs = negativeTtlMs;
+    new SecureRandom().nextBytes(salt);
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CredentialCache.this.capacity;
+          }
+        };
+  }
+
+  /**
+   * Computes the cache key for a login and password pair.
+   *
+   * @param login the user login
+   * @param password the plain password
+   * @return the key to pass to {@link #lookup} and {@link #put}
+   */
+  public String key(String login, String password) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(salt);
+      md.update(password.getBytes(StandardCharsets.UTF_8));
+      return login + '\0' + HexFormat.of().formatHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Looks up a cached verification result and updates the hit/miss counters.
+   *
+   * @param key the key built by {@link #key}
+   * @return the cached entry, or null on a miss
+   */
+  public Entry lookup(String key) {
+    long now = System.currentTimeMillis();
+    Entry e;
+    synchronized (entries) {
+      e = entries.get(key);
+      if (e != null && e.expiresAt() < now) {
+        entries.remove(key);
+        e = null;
+      }
+    }
+    if (e == null) misses.increment();
+    else if (e.uid() == null) negativeHits.increment();
+    else hits.increment();
+    return e;
+  }
+
+  /**
+   * Gets the current generation of a login, to be read before verifying it against the database.
+   *
+   * @param login the user login
+   * @return the generation to pass to {@link #put}
+   */
+  public long generation(String login) {
+    return generations.get(stripe(login));
+  }
+
+  /**
+   * Caches a verification result, unless the login was invalidated since its generation was read.
+   *
+   * @param key the key built by {@link #key}
+   * @param uid the verified user id, or null if verification failed
+   * @param generation the generation of the login read before the verification started
+   */
+  public void put(String key, Integer uid, long generation) {
+    long expiresAt = System.currentTimeMillis() + (uid == null ? negativeTtlMs : ttlMs);
+    int stripe = stripe(key.substring(0, key.lastIndexOf('\0')));
+    synchronized (entries) {
+      if (generations.get(stripe) != generation) return;
+      entries.put(key, new Entry(uid, expiresAt));
+    }
+  }
+
+  /**
+   * Drops every entry of a single login, e.g. after it was (re)registered, and keeps verifications
+   * already running from caching their results.
+   *
+   * @param login the user login
+   */
+  public void invalidate(String login) {
+    String prefix = login + '\0';
+    synchronized (entries) {
+      generations.incrementAndGet(stripe(login));
+      entries.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+  }
+
+  /** Drops every entry. */
+  public void invalidateAll() {
+    synchronized (entries) {
+      for (int i = 0; i < STRIPES; i++) generations.incrementAndGet(i);
+      entries.clear();
+    }
+  }
+
+  private static int stripe(String login) {
+    int h = login.hashCode();
+    return (h ^ (h >>> 16)) & (STRIPES - 1);
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public int getSize() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CredentialCache{"
+        + "size="
+        + getSize()
+        + ", hits="
+        + getHits()
+        + ", negativeHits="
+        + getNegativeHits()
+        + ", misses="
+        + getMisses()
+        + '}';
+  }
+}
@@ -0,0 +1,112 @@
+package clay.vehicle.dataStorage;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Periodically pulls changes made by other server nodes sharing the database into the local storage
+ * with {@link DbStoreManager#syncDelta}. A failed run is logged and retried from the same version
+ * on the next one. Less often, the change log is pruned with {@link DbStoreManager#pruneChanges}
+ * below the oldest version this node still needs, so that it doesn't grow forever.
+ */
+public class DeltaSyncer implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(DeltaSyncer.class);
+
+  private final DbStoreManager db;
+  private final Storage storage;
+  private final ScheduledExecutorService scheduler;
+  private volatile long version;
+
+  /** Gives an older version than the synced one the node may resume from, null if there is none */
+  private volatile LongSupplier keptSince;
+
+  /**
+   * Constructs a new syncer and starts its scheduled tasks.
+   *
+   * @param db the database to read changes from
+   * @param storage the storage to apply changes to
+   * @param version the version the storage is up to date with
+   * @param intervalMs delay between syncs
+   * @param pruneIntervalMs delay between prunes of the change log, 0 not to prune it
+   */
+  public DeltaSyncer(
+      DbStoreManager db, Storage storage, long version, long intervalMs, long pruneIntervalMs) {
+    this.db = db;
+    this.storage = storage;
+    this.version = version;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "delta-sync");
+              t.setDaemon(true);
+              return t;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::syncQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    if (pruneIntervalMs > 0)
+      scheduler.scheduleWithFixedDelay(
+          this::pruneQuietly, pruneIntervalMs, pruneIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Keeps the changes since an older version than the synced one from being pruned, e.g. the
+   * version of the last checkpoint a restart would resume from.
+   *
+   * @param version gives the version, negative while there is none
+   */
+  public void keepChangesSince(LongSupplier version) {
+    this.keptSince = version;
+  }
+
+  private void syncQuietly() {
+    try {
+      version = db.syncDelta(storage, version);
+    } catch (SQLException e) {
+      logger.warn("Delta sync failed: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.error("Unexpected error in delta sync", e);
+    }
+  }
+
+  private void pruneQuietly() {
+    try {
+      long needed = version;
+      LongSupplier older = keptSince;
+      if (older != null) {
+        long kept = older.getAsLong();
+        if (kept >= 0) needed = Math.min(needed, kept);
+      }
+      long pruned = db.pruneChanges(needed);
+      if (pruned > 0) logger.info("Pruned " + pruned + " changes before version " + needed);
+    } catch (SQLException e) {
+      logger.warn("Change log pruning failed: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.error("Unexpected error in change log pruning", e);
+    }
+  }
+
+  /**
+   * Gets the version the storage was last synced to.
+   *
+   * @return the change version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Stops the scheduled tasks. */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package clay.vehicle.dataStorage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Helpers for the directories the storage files are kept in. */
+final class Directories {
+  private static final boolean WINDOWS =
+      System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+  private Directories() {}
+
+  /**
+   * Forces the entries of a directory to disk, so that files created or renamed in it survive a
+   * crash. Forcing a file only covers its contents, not its name. Does nothing on Windows, where a
+   * directory can't be opened as a file.
+   *
+   * @param dir the directory
+   * @throws IOException if forcing fails
+   */
+  static void force(Path dir) throws IOException {
+    if (WINDOWS) return;
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package clay.vehicle.dataStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only file of typed, checksummed entries, memory-mapped in fixed-size segments. Entries are
+ * addressed by their offset in the file and never straddle a segment, so every entry can be read
+ * from a single mapping. Appends are not thread-safe; reads of entries appended before are.
+ *
+ * <p>Each entry is a header of type, payload length and CRC32C of the payload, followed by the
+ * payload, padded to 8 bytes. A type of zero marks the end of the log, a {@link #TYPE_PAD} entry
+ * skips the rest of its segment.
+ */
+class MappedLog {
+  static final int SEGMENT_SIZE = 64 << 20;
+  static final int HEADER_SIZE = 12;
+
+  static final int TYPE_END = 0;
+  static final int TYPE_PAD = 1;
+
+  private final FileChannel channel;
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long end;
+
+  /**
+   * Maps an existing log file or creates an empty one.
+   *
+   * @param path location of the file
+   * @throws IOException if the file can't be opened
+   */
+  MappedLog(Path path) throws IOException {
+    this.channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = channel.size();
+    for (long mapped = 0; mapped < size; mapped += SEGMENT_SIZE) addSegment();
+  }
+
+  /**
+   * Gets the offset the next entry will be appended at.
+   *
+   * @return the end of the log
+   */
+  long end() {
+    return end;
+  }
+
+  private void addSegment() throws IOException {
+    MappedByteBuffer[] current = segments;
+    MappedByteBuffer segment =
+        channel.map(
+            FileChannel.MapMode.READ_WRITE, (long) current.length * SEGMENT_SIZE, SEGMENT_SIZE);
+    MappedByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+    grown[current.length] = segment;
+    segments = grown;
+  }
+
+  private static int paddedSize(int payloadLength) {
+    return (HEADER_SIZE + payloadLength + 7) & ~7;
+  }
+
+  private static int checksum(ByteBuffer payload) {
+    CRC32C crc = new CRC32C();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Appends an entry.
+   *
+   * @param type the entry type, greater than {@link #TYPE_PAD}
+   * @param payload the entry payload, read from its position to its limit
+   * @return the offset of the entry
+   * @throws IOException if the file can't be extended
+   */
+  long append(int type, ByteBuffer payload) throws IOException {
+    int length = payload.remaining();
+    int size = paddedSize(length);
+    if (size > SEGMENT_SIZE) throw new IOException("Entry of " + length + " bytes is too large");
+    int inSegment = (int) (end % SEGMENT_SIZE);
+    if (inSegment + size > SEGMENT_SIZE) {
+      if (SEGMENT_SIZE - inSegment >= HEADER_SIZE) {
+        ByteBuffer segment = segment(end);
+        segment.putInt(inSegment, TYPE_PAD);
+        segment.putInt(inSegment + 4, 0);
+        segment.putInt(inSegment + 8, 0);
+      }
+      end += SEGMENT_SIZE - inSegment;
+      inSegment = 0;
+    }
+    while (end / SEGMENT_SIZE >= segments.length) addSegment();
+
+    long offset = end;
+    ByteBuffer segment = segment(offset);
+    segment.putInt(inSegment + 4, length);
+    segment.putInt(inSegment + 8, checksum(payload.duplicate()));
+    segment.put(inSegment + HEADER_SIZE, payload, payload.position(), length);
+    // the type goes last, a torn entry then reads as the end of the log rather than as garbage
+    segment.putInt(inSegment, type);
+    end += size;
+    return offset;
+  }
+
+  private ByteBuffer segment(long offset) {
+    return segments[(int) (offset / SEGMENT_SIZE)];
+  }
+
+  /**
+   * Gets the payload of an entry.
+   *
+   * @param offset the offset of the entry
+   * @return a read-only buffer over the payload
+   */
+  ByteBuffer payload(long offset) {
+    ByteBuffer segment = segment(offset);
+    int inSegment = (int) (offset % SEGMENT_SIZE);
+    int length = segment.getInt(inSegment + 4);
+    return segment.slice(inSegment + HEADER_SIZE, length).asReadOnlyBuffer();
+  }
+
+  /** Visitor of the entries found by {@link #scan}. */
+  interface EntryVisitor {
+    void visit(long offset, int type, ByteBuffer payload) throws IOException;
+  }
+
+  /**
+   * Reads the entries from the start of the file up to the end of the log or the first damaged
+   * entry, and places the end of the log there.
+   *
+   * @param visitor receives every intact entry
+   * @return the offset the scan stopped at
+   * @throws IOException if the visitor fails
+   */
+  long scan(EntryVisitor visitor) throws IOException {
+    long offset = 0;
+    long limit = (long) segments.length * SEGMENT_SIZE;
+    while (offset < limit) {
+      ByteBuffer segment = segment(offset);
+      int inSegment = (int) (offset % SEGMENT_SIZE);
+      if (SEGMENT_SIZE - inSegment < HEADER_SIZE) {
+        offset += SEGMENT_SIZE - inSegment;
+        continue;
+      }
+      int type = segment.getInt(inSegment);
+      if (type == TYPE_END) break;
+      if (type == TYPE_PAD) {
+        offset += SEGMENT_SIZE - inSegment;
+        continue;
+      }
+      int length = segment.getInt(inSegment + 4);
+      if (length < 0 || inSegment + paddedSize(length) > SEGMENT_SIZE) break;
+      ByteBuffer payload = segment.slice(inSegment + HEADER_SIZE, length).asReadOnlyBuffer();
+      if (checksum(payload.duplicate()) != segment.getInt(inSegment + 8)) break;
+      visitor.visit(offset, type, payload);
+      offset += paddedSize(length);
+    }
+    end = offset;
+    return offset;
+  }
+
+  /**
+   * Forces all appended entries to disk.
+   *
+   * @throws IOException if forcing fails
+   */
+  void force() throws IOException {
+    for (MappedByteBuffer segment : segments) segment.force();
+    channel.force(true);
+  }
+
+  /**
+   * Closes the file. Mappings stay readable until they are garbage collected.
+   *
+   * @throws IOException if closing fails
+   */
+  void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,257 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of a {@link MappedVehicleStorage}: offsets of block entries in a {@link MappedLog} by
+ * block number. The vehicles themselves stay in the mapped file and are decoded when read.
+ *
+ * <p>A block entry holds 64 vehicles with consecutive ids: the block number, a bitmap of occupied
+ * slots and one fixed-width record per slot. Names and time zones are offsets of string entries.
+ *
+ * @param version number of the version, increasing with every published change
+ * @param log the file the offsets point into
+ * @param blocks offsets of the block entries by block number
+ * @param size the number of vehicles
+ */
+record MappedSnapshot(long version, MappedLog log, IntTrieMap<Long> blocks, int size)
+    implements StorageSnapshot {
+  static final int TYPE_STRING = 2;
+  static final int TYPE_BLOCK = 3;
+
+  static final int SHIFT = 6;
+  static final int SLOTS = 1 << SHIFT;
+  static final int RECORD_SIZE = 64;
+  static final int BLOCK_HEADER_SIZE = 16;
+  static final int BLOCK_SIZE = BLOCK_HEADER_SIZE + SLOTS * RECORD_SIZE;
+
+  static final int NUMBER = 0;
+  static final int PRESENT = 8;
+
+  static final int NAME = 0;
+  static final int ZONE = 8;
+  static final int X = 16;
+  static final int Y = 24;
+  static final int EPOCH_SECOND = 32;
+  static final int NANO = 40;
+  static final int ENGINE_POWER = 44;
+  static final int DISTANCE_TRAVELLED = 48;
+  static final int USER_ID = 52;
+  static final int TYPE = 56;
+  static final int FUEL_TYPE = 57;
+
+  private static final FuelType[] FUEL_TYPES = FuelType.values();
+  private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+  private static final Map<String, ZoneId> ZONES = new ConcurrentHashMap<>();
+
+  static int blockOf(int id) {
+    return id >>> SHIFT;
+  }
+
+  static int recordOffset(int id) {
+    return BLOCK_HEADER_SIZE + (id & (SLOTS - 1)) * RECORD_SIZE;
+  }
+
+  /**
+   * Reads a string entry.
+   *
+   * @param log the file
+   * @param offset the offset of the entry
+   * @return the string
+   */
+  static String string(MappedLog log, long offset) {
+    ByteBuffer payload = log.payload(offset);
+    byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decodes a vehicle from a block entry.
+   *
+   * @param log the file
+   * @param block the payload of the block entry
+   * @param id the vehicle id
+   * @return the vehicle, or null if its slot is empty
+   */
+  static Vehicle vehicle(MappedLog log, ByteBuffer block, int id) {
+    if ((block.getLong(PRESENT) & (1L << (id & (SLOTS - 1)))) == 0) return null;
+    int at = recordOffset(id);
+    byte type = block.get(at + TYPE);
+    return new Vehicle(
+        id,
+        string(log, block.getLong(at + NAME)),
+        new Coordinates(block.getDouble(at + X), block.getDouble(at + Y)),
+        Instant.ofEpochSecond(block.getLong(at + EPOCH_SECOND), block.getInt(at + NANO))
+            .atZone(ZONES.computeIfAbsent(string(log, block.getLong(at + ZONE)), ZoneId::of)),
+        block.getFloat(at + ENGINE_POWER),
+        block.getFloat(at + DISTANCE_TRAVELLED),
+        type < 0 ? null : VEHICLE_TYPES[type],
+        FUEL_TYPES[block.get(at + FUEL_TYPE)],
+        block.getInt(at + USER_ID));
+  }
+
+  @Override
+  public Vehicle get(int id) {
+    if (id < 0) return null;
+    Long offset = blocks.get(blockOf(id));
+    return offset == null ? null : vehicle(log, log.payload(offset), id);
+  }
+
+  boolean contains(int id) {
+    if (id < 0) return false;
+    Long offset = blocks.get(blockOf(id));
+    return offset != null
+        && (log.payload(offset).getLong(PRESENT) & (1L << (id & (SLOTS - 1)))) != 0;
+  }
+
+  @Override
+  public Iterator<Vehicle> iterator() {
+    Iterator<Integer> ids = idIterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return ids.hasNext();
+      }
+
+      @Override
+      public Vehicle next() {
+        return get(ids.next());
+      }
+    };
+  }
+
+  private Iterator<Integer> idIterator() {
+    Iterator<IntTrieMap.Entry<Long>> entries = blocks.iterator();
+    return new Iterator<>() {
+      private int base;
+      private long remaining;
+
+      @Override
+      public boolean hasNext() {
+        while (remaining == 0 && entries.hasNext()) {
+          IntTrieMap.Entry<Long> entry = entries.next();
+          base = entry.key() << SHIFT;
+          remaining = log.payload(entry.value()).getLong(PRESENT);
+        }
+        return remaining != 0;
+      }
+
+      @Override
+      public Integer next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int slot = Long.numberOfTrailingZeros(remaining);
+        remaining &= remaining - 1;
+        return base | slot;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Vehicle> values() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<Vehicle> iterator() {
+        return MappedSnapshot.this.iterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Set<Integer> keys() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Integer> iterator() {
+        return idIterator();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return o instanceof Integer id && MappedSnapshot.this.contains(id);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Map<Integer, Vehicle> asMap() {
+    return new AbstractMap<>() {
+      @Override
+      public Set<Map.Entry<Integer, Vehicle>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Map.Entry<Integer, Vehicle>> iterator() {
+            Iterator<Integer> ids = idIterator();
+            return new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return ids.hasNext();
+              }
+
+              @Override
+              public Map.Entry<Integer, Vehicle> next() {
+                int id = ids.next();
+                return Map.entry(id, get(id));
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return size;
+          }
+        };
+      }
+
+      @Override
+      public Vehicle get(Object key) {
+        return key instanceof Integer id ? MappedSnapshot.this.get(id) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return key instanceof Integer id && contains(id);
+      }
+
+      @Override
+      public Set<Integer> keySet() {
+        return keys();
+      }
+
+      @Override
+      public Collection<Vehicle> values() {
+        return MappedSnapshot.this.values();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -0,0 +1,610 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Storage of vehicles kept off-heap in a memory-mapped file, so a large collection adds almost
+ * nothing for the garbage collector to scan and survives a restart. Vehicles are stored as
+ * fixed-width records in blocks of 64 consecutive ids, see {@link MappedSnapshot}; a write appends
+ * new versions of the blocks it touches to a {@link MappedLog} and publishes a new snapshot under a
+ * single write lock, so readers never lock.
+ *
+ * <p>A checkpoint forces the file to disk and records the database change version the file is known
+ * to be up to date with. On the next start the file is mapped again and only changes since that
+ * version are read from the database, with {@link DbStoreManager#syncDelta}, or everything if the
+ * change log was pruned past that version in the meantime. Each checkpoint also rewrites the file
+ * into a new generation once superseded blocks take up most of it.
+ *
+ * <p>Loading the whole collection also writes a new generation, without holding the write lock:
+ * vehicles arrive ordered by id, so each block is appended as soon as the ids move past it and only
+ * the block being filled is kept on the heap. The lock is taken only to install the finished
+ * generation.
+ */
+public class MappedVehicleStorage extends AbstractServerStorage<MappedVehicleStorage.Generation>
+    implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(MappedVehicleStorage.class);
+
+  private static final String LOG_FILE = "vehicles.log";
+  private static final String CHECKPOINT_FILE = "checkpoint";
+  private static final long CHECKPOINT_MAGIC = 0x56454849434c4553L;
+  private static final int CHECKPOINT_FORMAT = 1;
+
+  private static final int TYPE_HEADER = 4;
+
+  /** Log size below which it is never compacted */
+  private static final long MIN_COMPACT_SIZE = 64L << 20;
+
+  /** Source of the change version a checkpoint records, called under the write lock */
+  @FunctionalInterface
+  public interface VersionSource {
+    long get() throws SQLException;
+  }
+
+  private final Path dir;
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /**
+   * The change version of the checkpoint the collection was restored from, or -1 if it started
+   * empty and has to be loaded from the database
+   */
+  @Getter private final long checkpointVersion;
+
+  /** The change version of the last checkpoint written, -1 until one is */
+  @Getter private volatile long latestCheckpointVersion;
+
+  /** The current version of the collection, replaced by every write */
+  private volatile MappedSnapshot current;
+
+  private MappedLog log;
+  private long generation;
+
+  /** The last generation number handed out, so that generations built concurrently never clash */
+  private final AtomicLong generations = new AtomicLong();
+
+  /** Offsets of the string entries of the current log, guarded by the write lock */
+  private Map<String, Long> strings = new HashMap<>();
+
+  private ScheduledExecutorService checkpoints;
+  private VersionSource versionSource;
+
+  /**
+   * Opens the storage. If the directory holds a file with a valid checkpoint, the collection is
+   * restored from it, otherwise the storage starts empty.
+   *
+   * @param db the database writes go to
+   * @param dir directory of the storage files, created if missing
+   * @throws IOException if the files can't be opened or written
+   */
+  public MappedVehicleStorage(DbStoreManager db, Path dir) throws IOException {
+    super(db);
+    this.dir = dir;
+    Files.createDirectories(dir);
+    deleteUnfinishedGenerations();
+
+    Checkpoint checkpoint = readCheckpoint();
+    MappedSnapshot restored = checkpoint == null ? null : restore(checkpoint);
+    if (restored != null) {
+      current = restored;
+      checkpointVersion = checkpoint.version();
+      latestCheckpointVersion = checkpointVersion;
+      getIndexes().rebuild(current);
+      // appending after a crash could leave stale entries behind the new end, start a clean file
+      compact();
+      logger.info("Restored " + current.size() + " vehicles from " + dir);
+    } else {
+      checkpointVersion = -1;
+      latestCheckpointVersion = -1;
+      long number = generations.incrementAndGet();
+      MappedLog fresh = newGeneration(number);
+      install(fresh, number, new HashMap<>());
+      current = new MappedSnapshot(0, fresh, IntTrieMap.empty(), 0);
+    }
+  }
+
+  /** Deletes the files of generations that were being written when the process stopped. */
+  private void deleteUnfinishedGenerations() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(LOG_FILE + ".") && name.endsWith(".tmp")) Files.delete(path);
+      }
+    }
+  }
+
+  private record Checkpoint(long generation, long version, long logEnd) {}
+
+  private Checkpoint readCheckpoint() throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(dir.resolve(CHECKPOINT_FILE));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (bytes.length != 40) return null;
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, 0, 36);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    long magic = in.readLong();
+    int format = in.readInt();
+    Checkpoint checkpoint = new Checkpoint(in.readLong(), in.readLong(), in.readLong());
+    if (magic != CHECKPOINT_MAGIC
+        || format != CHECKPOINT_FORMAT
+        || in.readInt() != (int) crc.getValue()) {
+      logger.warn("Ignoring damaged checkpoint in " + dir);
+      return null;
+    }
+    return checkpoint;
+  }
+
+  private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(CHECKPOINT_MAGIC);
+    out.writeInt(CHECKPOINT_FORMAT);
+    out.writeLong(checkpoint.generation());
+    out.writeLong(checkpoint.version());
+    out.writeLong(checkpoint.logEnd());
+    CRC32C crc = new CRC32C();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+
+    Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+      channel.force(true);
+    }
+    Files.move(
+        tmp,
+        dir.resolve(CHECKPOINT_FILE),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    Directories.force(dir);
+  }
+
+  /**
+   * Maps the log of a checkpoint and reads its latest blocks.
+   *
+   * @return the restored collection, or null if the log doesn't match the checkpoint
+   */
+  private MappedSnapshot restore(Checkpoint checkpoint) throws IOException {
+    Path path = dir.resolve(LOG_FILE);
+    if (!Files.exists(path)) return null;
+    MappedLog restored = new MappedLog(path);
+    long[] headerGeneration = {-1};
+    IntTrieMap.Builder<Long> blocks = IntTrieMap.<Long>empty().toBuilder();
+    Map<String, Long> restoredStrings = new HashMap<>();
+    long end =
+        restored.scan(
+            (offset, type, payload) -> {
+              if (offset == 0 && type == TYPE_HEADER) headerGeneration[0] = payload.getLong(0);
+              else if (type == MappedSnapshot.TYPE_STRING)
+                restoredStrings.put(MappedSnapshot.string(restored, offset), offset);
+              else if (type == MappedSnapshot.TYPE_BLOCK) {
+                // later versions of a block supersede earlier ones
+                int number = payload.getInt(MappedSnapshot.NUMBER);
+                if (payload.getLong(MappedSnapshot.PRESENT) == 0) blocks.remove(number);
+                else blocks.put(number, offset);
+              }
+            });
+    if (headerGeneration[0] != checkpoint.generation() || end < checkpoint.logEnd()) {
+      logger.warn("Storage file in " + dir + " doesn't match its checkpoint, starting empty");
+      restored.close();
+      return null;
+    }
+
+    IntTrieMap<Long> built = blocks.build();
+    int size = 0;
+    for (IntTrieMap.Entry<Long> entry : built)
+      size += Long.bitCount(restored.payload(entry.value()).getLong(MappedSnapshot.PRESENT));
+    log = restored;
+    generation = checkpoint.generation();
+    generations.set(generation);
+    strings = restoredStrings;
+    return new MappedSnapshot(0, restored, built, size);
+  }
+
+  /** Location of a new generation until it is installed. */
+  private Path unfinished(long generation) {
+    return dir.resolve(LOG_FILE + "." + generation + ".tmp");
+  }
+
+  /** Creates the file of a new generation next to the current one, starting with its header. */
+  private MappedLog newGeneration(long generation) throws IOException {
+    Path tmp = unfinished(generation);
+    Files.deleteIfExists(tmp);
+    MappedLog fresh = new MappedLog(tmp);
+    fresh.append(TYPE_HEADER, ByteBuffer.allocate(8).putLong(0, generation));
+    return fresh;
+  }
+
+  /** Makes a new generation the current file. Must hold the write lock or be in the constructor. */
+  private void install(MappedLog fresh, long generation, Map<String, Long> strings)
+      throws IOException {
+    fresh.force();
+    Files.move(
+        unfinished(generation),
+        dir.resolve(LOG_FILE),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    Directories.force(dir);
+    // snapshots of the old generation keep reading their mappings, which outlive the channel
+    if (log != null) log.close();
+    this.log = fresh;
+    this.generation = generation;
+    this.strings = strings;
+  }
+
+  private static long intern(MappedLog log, Map<String, Long> strings, String value)
+      throws IOException {
+    Long offset = strings.get(value);
+    if (offset == null) {
+      offset =
+          log.append(
+              MappedSnapshot.TYPE_STRING, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+      strings.put(value, offset);
+    }
+    return offset;
+  }
+
+  /**
+   * Changes to a snapshot being prepared. Every touched block is copied to the heap once, however
+   * many of its vehicles change, and appended to the log when the batch is built or spilled.
+   */
+  private final class Batch {
+    private final MappedSnapshot base;
+    private final Map<String, Long> strings;
+    private final IntTrieMap.Builder<Long> blocks;
+    private final Map<Integer, ByteBuffer> copies = new HashMap<>();
+    private boolean spilled;
+    private int size;
+
+    Batch(MappedSnapshot base) {
+      this(base, MappedVehicleStorage.this.strings);
+    }
+
+    /**
+     * Prepares changes to a snapshot of a file other than the current one, e.g. a new generation.
+     */
+    Batch(MappedSnapshot base, Map<String, Long> strings) {
+      this.base = base;
+      this.strings = strings;
+      this.blocks = base.blocks().toBuilder();
+      this.size = base.size();
+    }
+
+    private ByteBuffer copyOf(int number) {
+      return copies.computeIfAbsent(
+          number,
+          n -> {
+            ByteBuffer block = ByteBuffer.allocate(MappedSnapshot.BLOCK_SIZE);
+            Long offset = blocks.get(n);
+            if (offset != null)
+              block.put(0, base.log().payload(offset), 0, MappedSnapshot.BLOCK_SIZE);
+            else block.putInt(MappedSnapshot.NUMBER, n);
+            return block;
+          });
+    }
+
+    void put(Vehicle vehicle) {
+      int id = vehicle.getId();
+      ByteBuffer block = copyOf(MappedSnapshot.blockOf(id));
+      long bit = 1L << (id & (MappedSnapshot.SLOTS - 1));
+      long present = block.getLong(MappedSnapshot.PRESENT);
+      if ((present & bit) == 0) size++;
+      block.putLong(MappedSnapshot.PRESENT, present | bit);
+
+      int at = MappedSnapshot.recordOffset(id);
+      ZonedDateTime date = vehicle.getCreationDate();
+      try {
+        block.putLong(at + MappedSnapshot.NAME, intern(base.log(), strings, vehicle.getName()));
+        block.putLong(
+            at + MappedSnapshot.ZONE, intern(base.log(), strings, date.getZone().getId()));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      block.putDouble(at + MappedSnapshot.X, vehicle.getCoordinates().getX());
+      block.putDouble(at + MappedSnapshot.Y, vehicle.getCoordinates().getY());
+      block.putLong(at + MappedSnapshot.EPOCH_SECOND, date.toEpochSecond());
+      block.putInt(at + MappedSnapshot.NANO, date.getNano());
+      block.putFloat(at + MappedSnapshot.ENGINE_POWER, vehicle.getEnginePower());
+      block.putFloat(at + MappedSnapshot.DISTANCE_TRAVELLED, vehicle.getDistanceTravelled());
+      block.putInt(at + MappedSnapshot.USER_ID, vehicle.getUserId());
+      block.put(
+          at + MappedSnapshot.TYPE,
+          (byte) (vehicle.getType() == null ? -1 : vehicle.getType().ordinal()));
+      block.put(at + MappedSnapshot.FUEL_TYPE, (byte) vehicle.getFuelType().ordinal());
+    }
+
+    void remove(int id) {
+      int number = MappedSnapshot.blockOf(id);
+      long bit = 1L << (id & (MappedSnapshot.SLOTS - 1));
+      ByteBuffer block = copies.get(number);
+      if (block == null) {
+        Long offset = blocks.get(number);
+        if (offset == null
+            || (base.log().payload(offset).getLong(MappedSnapshot.PRESENT) & bit) == 0) return;
+        block = copyOf(number);
+      }
+      long present = block.getLong(MappedSnapshot.PRESENT);
+      if ((present & bit) == 0) return;
+      size--;
+      block.putLong(MappedSnapshot.PRESENT, present & ~bit);
+    }
+
+    /** Appends the copied blocks to the log, so that they no longer take up the heap. */
+    void spill() {
+      try {
+        for (Map.Entry<Integer, ByteBuffer> copy : copies.entrySet()) {
+          // empty blocks are appended too, so that a restart sees them superseded
+          long offset = base.log().append(MappedSnapshot.TYPE_BLOCK, copy.getValue());
+          if (copy.getValue().getLong(MappedSnapshot.PRESENT) == 0) blocks.remove(copy.getKey());
+          else blocks.put(copy.getKey(), offset);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      spilled |= !copies.isEmpty();
+      copies.clear();
+    }
+
+    MappedSnapshot build() {
+      spill();
+      if (!spilled) return base;
+      return new MappedSnapshot(base.version() + 1, base.log(), blocks.build(), size);
+    }
+  }
+
+  /**
+   * A new generation of the file holding entirely new contents, built by {@link #load} and not yet
+   * installed.
+   */
+  record Generation(
+      long number, MappedLog log, Map<String, Long> strings, IntTrieMap<Long> blocks, int size) {}
+
+  @Override
+  protected Held lock(Collection<Integer> ids) {
+    return lockEverything();
+  }
+
+  @Override
+  protected Held lockEverything() {
+    writeLock.lock();
+    return writeLock::unlock;
+  }
+
+  @Override
+  protected void apply(
+      Collection<Integer> removals, Map<Integer, Vehicle> puts, Collection<Integer> changed) {
+    Batch batch = new Batch(current);
+    for (Integer id : removals) batch.remove(id);
+    puts.values().forEach(batch::put);
+    MappedSnapshot before = current;
+    current = batch.build();
+    getIndexes().update(before, current, changed);
+  }
+
+  /**
+   * Writes the vehicles into a new generation of the file. Only the block being filled is kept on
+   * the heap, as long as the vehicles come ordered by id; out of order ones append further versions
+   * of their blocks, which supersede the earlier ones.
+   */
+  @Override
+  protected Generation load(VehicleSource vehicles) throws SQLException {
+    long number = generations.incrementAndGet();
+    MappedLog fresh = null;
+    try {
+      fresh = newGeneration(number);
+      Map<String, Long> freshStrings = new HashMap<>();
+      Batch batch = new Batch(new MappedSnapshot(0, fresh, IntTrieMap.empty(), 0), freshStrings);
+      int[] filling = {-1};
+      vehicles.forEach(
+          vehicle -> {
+            int block = MappedSnapshot.blockOf(vehicle.getId());
+            if (block != filling[0]) {
+              batch.spill();
+              filling[0] = block;
+            }
+            batch.put(vehicle);
+          });
+      MappedSnapshot built = batch.build();
+      Generation loaded = new Generation(number, fresh, freshStrings, built.blocks(), built.size());
+      fresh = null;
+      return loaded;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (fresh != null) discard(fresh, number);
+    }
+  }
+
+  @Override
+  protected Generation empty() {
+    try {
+      return load(sink -> {});
+    } catch (SQLException e) {
+      throw new AssertionError("Empty contents can't fail", e);
+    }
+  }
+
+  /** Installs a generation built by {@link #load}. Must hold the write lock. */
+  @Override
+  protected void install(Generation loaded) {
+    try {
+      install(loaded.log(), loaded.number(), loaded.strings());
+    } catch (IOException e) {
+      discard(loaded.log(), loaded.number());
+      throw new UncheckedIOException(e);
+    }
+    current =
+        new MappedSnapshot(current.version() + 1, loaded.log(), loaded.blocks(), loaded.size());
+    getIndexes().rebuild(current);
+  }
+
+  /** Closes and deletes a new generation that won't be installed. */
+  private void discard(MappedLog fresh, long number) {
+    try {
+      fresh.close();
+      Files.deleteIfExists(unfinished(number));
+    } catch (IOException e) {
+      logger.warn("Failed to delete an unused generation of the mapped storage: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Rewrites the live blocks and the strings they use into a new generation of the file. The
+   * contents don't change, so neither do the version or the indexes. Must hold the write lock.
+   */
+  private void compact() throws IOException {
+    MappedSnapshot old = current;
+    long number = generations.incrementAndGet();
+    MappedLog fresh = newGeneration(number);
+    try {
+      Map<String, Long> freshStrings = new HashMap<>();
+      IntTrieMap.Builder<Long> blocks = IntTrieMap.<Long>empty().toBuilder();
+      ByteBuffer block = ByteBuffer.allocate(MappedSnapshot.BLOCK_SIZE);
+      for (IntTrieMap.Entry<Long> entry : old.blocks()) {
+        block.clear();
+        block.put(0, old.log().payload(entry.value()), 0, MappedSnapshot.BLOCK_SIZE);
+        long present = block.getLong(MappedSnapshot.PRESENT);
+        for (long left = present; left != 0; left &= left - 1) {
+          int at = MappedSnapshot.recordOffset(Long.numberOfTrailingZeros(left));
+          for (int field : new int[] {MappedSnapshot.NAME, MappedSnapshot.ZONE}) {
+            String value = MappedSnapshot.string(old.log(), block.getLong(at + field));
+            block.putLong(at + field, intern(fresh, freshStrings, value));
+          }
+        }
+        blocks.put(entry.key(), fresh.append(MappedSnapshot.TYPE_BLOCK, block));
+      }
+      install(fresh, number, freshStrings);
+      current = new MappedSnapshot(old.version(), fresh, blocks.build(), old.size());
+    } catch (IOException | RuntimeException e) {
+      discard(fresh, number);
+      throw e;
+    }
+  }
+
+  /**
+   * Forces the file to disk and records the change version it is up to date with, compacting the
+   * file first if superseded blocks take up most of it.
+   *
+   * @param source gives the version, called while no writes can happen
+   * @throws SQLException if the version can't be read
+   * @throws IOException if the file can't be written
+   */
+  public void checkpoint(VersionSource source) throws SQLException, IOException {
+    writeLock.lock();
+    try {
+      long version = source.get();
+      long live = (long) current.blocks().size() * (MappedSnapshot.BLOCK_SIZE + 16);
+      if (log.end() > MIN_COMPACT_SIZE && log.end() > 2 * live) compact();
+      else log.force();
+      writeCheckpoint(new Checkpoint(generation, version, log.end()));
+      latestCheckpointVersion = version;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Starts taking checkpoints periodically. {@link #close} takes a last one.
+   *
+   * @param source gives the version of every checkpoint
+   * @param intervalMs delay between checkpoints
+   */
+  public void startCheckpoints(VersionSource source, long intervalMs) {
+    this.versionSource = source;
+    this.checkpoints =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "mapped-checkpoint");
+              t.setDaemon(true);
+              return t;
+            });
+    checkpoints.scheduleWithFixedDelay(
+        this::checkpointQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void checkpointQuietly() {
+    try {
+      checkpoint(versionSource);
+    } catch (SQLException | IOException e) {
+      logger.warn("Checkpoint failed: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.error("Unexpected error in checkpoint", e);
+    }
+  }
+
+  /** Stops periodic checkpoints, takes a last one and closes the file. */
+  @Override
+  public void close() {
+    if (checkpoints != null) {
+      checkpoints.shutdown();
+      try {
+        checkpoints.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      checkpointQuietly();
+    }
+    writeLock.lock();
+    try {
+      log.close();
+    } catch (IOException e) {
+      logger.warn("Could not close storage file: " + e.getMessage());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the current version of the collection. Costs nothing and never blocks.
+   *
+   * @return the current snapshot
+   */
+  @Override
+  public StorageSnapshot snapshot() {
+    return current;
+  }
+
+  /**
+   * Gets all vehicles in the storage.
+   *
+   * @return a read-only view of the current version, decoding vehicles as it is iterated
+   */
+  @Override
+  public Collection<Vehicle> getValues() {
+    return current.values();
+  }
+}
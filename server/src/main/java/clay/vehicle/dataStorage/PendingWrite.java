@@ -0,0 +1,23 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+
+/**
+ * A vehicle change that is applied locally but not yet written to the database.
+ *
+ * @param id the ID of the changed vehicle
+ * @param vehicle the new vehicle data, or null if the vehicle was removed
+ */
+public record PendingWrite(int id, Vehicle vehicle) {
+  public static PendingWrite upsert(Vehicle vehicle) {
+    return new PendingWrite(vehicle.getId(), vehicle);
+  }
+
+  public static PendingWrite delete(int id) {
+    return new PendingWrite(id, null);
+  }
+
+  public boolean isDelete() {
+    return vehicle == null;
+  }
+}
@@ -0,0 +1,151 @@
+package clay.vehicle.dataStorage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of JDBC connections. Connections are opened lazily up to the configured size and
+ * handed out as {@link PooledConnection} instances which return themselves to the pool on close.
+ */
+public class PgConnectionPool implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(PgConnectionPool.class);
+  private static final long WAIT_SLICE_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final String jdbcUrl;
+  private final Properties properties;
+  private final int size;
+  private final long acquireTimeoutMs;
+
+  private final BlockingQueue<PooledConnection> idle;
+  private final List<PooledConnection> all = new ArrayList<>();
+  private final AtomicInteger opened = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  /**
+   * Constructs a new pool. No connections are opened until first requested.
+   *
+   * @param jdbcUrl the database URL
+   * @param properties connection properties passed to the driver
+   * @param size maximum number of simultaneously open connections
+   * @param acquireTimeoutMs how long {@link #borrow()} waits for a free connection
+   */
+  public PgConnectionPool(String jdbcUrl, Properties properties, int size, long acquireTimeoutMs) {
+    if (size < 1) throw new IllegalArgumentException("Pool size should be positive: " + size);
+    this.jdbcUrl = jdbcUrl;
+    this.properties = properties;
+    this.size = size;
+    this.acquireTimeoutMs = acquireTimeoutMs;
+    this.idle = new ArrayBlockingQueue<>(size);
+  }
+
+  /**
+   * Takes a connection from the pool, opening a new one if the pool is not yet full.
+   *
+   * @return a connection that must be closed to be returned to the pool
+   * @throws SQLException if no connection became available in time or a new one can't be opened
+   */
+  public PooledConnection borrow() throws SQLException {
+    if (closed) throw new SQLException("Connection pool is closed");
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+    while (true) {
+      PooledConnection conn = idle.poll();
+      if (conn != null) return conn;
+
+      if (opened.incrementAndGet() <= size) {
+        try {
+          return open();
+        } catch (SQLException e) {
+          opened.decrementAndGet();
+          throw e;
+        }
+      }
+      opened.decrementAndGet();
+
+      // wait in short slices so a slot freed by a dropped connection is noticed
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0)
+        throw new SQLException(
+            "No database connection available after " + acquireTimeoutMs + " ms");
+      try {
+        conn = idle.poll(Math.min(remaining, WAIT_SLICE_NS), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a connection", e);
+      }
+      if (conn != null) return conn;
+    }
+  }
+
+  private PooledConnection open() throws SQLException {
+    Connection raw = DriverManager.getConnection(jdbcUrl, properties);
+    PooledConnection conn = new PooledConnection(raw, this);
+    synchronized (all) {
+      all.add(conn);
+    }
+    logger.info("Opened connection " + opened.get() + "/" + size + " to " + jdbcUrl);
+    return conn;
+  }
+
+  /**
+   * Returns a connection to the pool. Broken connections are closed and dropped so that a fresh one
+   * can be opened in their place.
+   *
+   * @param conn the connection to return
+   */
+  void release(PooledConnection conn) {
+    if (closed || conn.isBroken()) {
+      discard(conn);
+      return;
+    }
+    try {
+      conn.reset();
+    } catch (SQLException e) {
+      logger.warn("Could not reset pooled connection, dropping it: " + e.getMessage());
+      discard(conn);
+      return;
+    }
+    if (!idle.offer(conn)) discard(conn);
+  }
+
+  private void discard(PooledConnection conn) {
+    synchronized (all) {
+      if (!all.remove(conn)) return;
+    }
+    opened.decrementAndGet();
+    conn.closePhysically();
+  }
+
+  /**
+   * Gets the maximum number of connections in this pool.
+   *
+   * @return the pool size
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /** Closes every connection, idle or borrowed, and refuses further borrowing. */
+  @Override
+  public void close() {
+    closed = true;
+    List<PooledConnection> toClose;
+    synchronized (all) {
+      toClose = new ArrayList<>(all);
+      all.clear();
+    }
+    idle.clear();
+    for (PooledConnection conn : toClose) conn.closePhysically();
+    opened.set(0);
+  }
+}
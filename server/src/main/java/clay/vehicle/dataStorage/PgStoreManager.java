@@ -1,155 +1,615 @@
 package clay.vehicle.dataStorage;
 
-import clay.vehicle.vehicles.Coordinates;
-import clay.vehicle.vehicles.FuelType;
 import clay.vehicle.vehicles.Vehicle;
-import clay.vehicle.vehicles.VehicleType;
-import jakarta.validation.*;
 import java.sql.*;
-import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** Utility class for reading vehicle data from PostgreSQL. */
+/**
+ * Utility class for reading vehicle data from PostgreSQL. Queries are served by a bounded {@link
+ * PgConnectionPool}, sized by the {@code poolSize} connection property (8 by default), so that
+ * independent requests don't queue behind a single connection. Writes to the same vehicle id are
+ * serialized by a striped lock, writes to different ids run in parallel. Login checks go through a
+ * {@link CredentialCache} first. Delta syncs read the {@code vehicle_changes} log filled by
+ * triggers (see db-setup.sql).
+ */
 public class PgStoreManager implements DbStoreManager {
   private static final Logger logger = LogManager.getLogger(PgStoreManager.class);
 
-  private Connection connection;
+  private static final int DEFAULT_POOL_SIZE = 8;
+  private static final long DEFAULT_POOL_TIMEOUT_MS = 5000;
+  private static final int WRITE_LOCK_STRIPES = 64;
+  private static final int DEFAULT_SYNC_FETCH_SIZE = 10000;
+  private static final int DEFAULT_CHANGE_LOG_RETENTION_SECONDS = 24 * 60 * 60;
+
+  private static final String INSERT_SQL =
+      "insert into vehicles values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String UPDATE_SQL =
+      "UPDATE vehicles SET name = ?, x = ?, y = ?, creation_date = ?, engine_power = ?, distance_travelled = ?, type = ?, fuel_type = ?, user_id = ? WHERE id = ?";
+  private static final String UPSERT_SQL =
+      INSERT_SQL
+          + " ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, x = EXCLUDED.x, y = EXCLUDED.y, creation_date = EXCLUDED.creation_date, engine_power = EXCLUDED.engine_power, distance_travelled = EXCLUDED.distance_travelled, type = EXCLUDED.type, fuel_type = EXCLUDED.fuel_type, user_id = EXCLUDED.user_id";
+  private static final String DELETE_SQL = "DELETE FROM vehicles WHERE id = ?";
+  private static final String DELETE_MANY_SQL = "DELETE FROM vehicles WHERE id = ANY(?)";
+  private static final String NEXT_ID_SQL = "SELECT nextval('veh_id')";
+  private static final String NEXT_IDS_SQL = "SELECT nextval('veh_id') FROM generate_series(1, ?)";
+  private static final String CREATE_USER_SQL =
+      "INSERT INTO users (login, pass_hash) VALUES (?, ?)";
+  private static final String VERIFY_LOGIN_SQL = "SELECT id, pass_hash FROM users WHERE login = ?";
+  private static final String SELECT_VEHICLES_SQL =
+      "SELECT " + StreamingVehicleLoader.COLUMNS + " FROM vehicles ORDER BY id";
+  private static final String CHANGE_VERSION_SQL =
+      "SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint";
+  private static final String TRUNCATED_SINCE_SQL =
+      "SELECT EXISTS (SELECT 1 FROM vehicle_changes WHERE op = 'T' AND tx >= ?::text::xid8)";
+  private static final String PRUNED_SINCE_SQL =
+      "SELECT EXISTS (SELECT 1 FROM vehicle_changes_horizon WHERE tx > ?::text::xid8)";
+  private static final String RECORD_NEEDED_VERSION_SQL =
+      "INSERT INTO vehicle_sync_nodes (node_id, version) VALUES (?, ?::text::xid8)"
+          + " ON CONFLICT (node_id) DO UPDATE SET version = EXCLUDED.version, seen = now()";
+  private static final String FORGET_NODES_SQL =
+      "DELETE FROM vehicle_sync_nodes WHERE seen < now() - ? * interval '1 second'";
+  private static final String PRUNE_CHANGES_SQL =
+      "SELECT prune_vehicle_changes(min(version)) FROM vehicle_sync_nodes";
+  private static final String CHANGED_VEHICLES_SQL =
+      "SELECT v.id, v.name, v.x, v.y, v.creation_date, v.engine_power, v.distance_travelled,"
+          + " v.type, v.fuel_type, v.user_id, c.vehicle_id FROM (SELECT DISTINCT vehicle_id FROM vehicle_changes"
+          + " WHERE tx >= ?::text::xid8 AND vehicle_id IS NOT NULL) c"
+          + " LEFT JOIN vehicles v ON v.id = c.vehicle_id";
+
+  private static final String NOTIFY_SQL =
+      "SELECT pg_notify('" + ChangeListener.CHANNEL + "', p) FROM unnest(?::text[]) p";
+
+  private PgConnectionPool pool;
+  private String jdbcUrl;
+  private Properties properties;
+  private boolean notifyChanges = false;
+  private ChangeListener changeListener;
+
+  /** Identifies this node in change notifications, so it can ignore its own */
+  private final String nodeId = UUID.randomUUID().toString();
+
+  private int syncFetchSize = DEFAULT_SYNC_FETCH_SIZE;
+  private int changeLogRetentionSeconds = DEFAULT_CHANGE_LOG_RETENTION_SECONDS;
+  private int syncParallelism = 1;
+  @Getter private CredentialCache credentialCache;
+  private final StripedLocks writeLocks = new StripedLocks(WRITE_LOCK_STRIPES);
 
   @Override
-  public synchronized void connect(String jdbcUrl, Properties properties) throws SQLException {
-    connection = DriverManager.getConnection(jdbcUrl, properties);
-    logger.info("Connected to " + jdbcUrl);
+  public void connect(String jdbcUrl, Properties properties) throws SQLException {
+    int poolSize = intProperty(properties, "poolSize", DEFAULT_POOL_SIZE);
+    long timeoutMs = intProperty(properties, "poolTimeoutMs", (int) DEFAULT_POOL_TIMEOUT_MS);
+
+    credentialCache =
+        new CredentialCache(
+            intProperty(properties, "credentialCacheSize", 10000),
+            intProperty(properties, "credentialCacheTtlSeconds", 300) * 1000L,
+            intProperty(properties, "credentialCacheNegativeTtlSeconds", 5) * 1000L);
+
+    syncFetchSize = intProperty(properties, "syncFetchSize", DEFAULT_SYNC_FETCH_SIZE);
+    syncParallelism = intProperty(properties, "syncParallelism", 1);
+    changeLogRetentionSeconds =
+        intProperty(properties, "changeLogRetentionSeconds", DEFAULT_CHANGE_LOG_RETENTION_SECONDS);
+
+    notifyChanges = Boolean.parseBoolean(properties.getProperty("changeNotifications", "false"));
+    this.jdbcUrl = jdbcUrl;
+    this.properties = properties;
+
+    pool = new PgConnectionPool(jdbcUrl, properties, poolSize, timeoutMs);
+    // open the first connection eagerly so a bad config fails on startup
+    try (PooledConnection ignored = pool.borrow()) {
+      logger.info("Connected to " + jdbcUrl + " with pool size " + poolSize);
+    }
+  }
+
+  private static int intProperty(Properties properties, String name, int def) throws SQLException {
+    String value = properties.getProperty(name);
+    if (value == null) return def;
+    try {
+      int parsed = Integer.parseInt(value.strip());
+      if (parsed < 1) throw new SQLException(name + " should be positive: " + value);
+      return parsed;
+    } catch (NumberFormatException e) {
+      throw new SQLException("Invalid " + name + ": " + value, e);
+    }
   }
 
   @Override
-  public synchronized void disconnect() throws SQLException {
-    connection.close();
-    logger.info("Disconnected from db");
+  public void disconnect() throws SQLException {
+    if (changeListener != null) changeListener.close();
+    pool.close();
+    logger.info("Disconnected from db, " + credentialCache);
   }
 
   @Override
-  public synchronized void syncFromDB(Storage storage) throws SQLException {
-    ResultSet dbVehicles;
+  public void listenForChanges(Storage storage) {
+    if (changeListener == null)
+      changeListener = new ChangeListener(jdbcUrl, properties, nodeId, storage);
+  }
+
+  /**
+   * Tells other nodes that vehicles were changed. Inside a transaction the notifications are
+   * delivered on commit only.
+   *
+   * @param conn the connection the change was made on
+   * @param ids the changed vehicle ids
+   * @throws SQLException if the notifications can't be sent
+   */
+  private void notifyChanged(PooledConnection conn, Collection<Integer> ids) throws SQLException {
+    if (!notifyChanges || ids.isEmpty()) return;
+    List<String> payloads = new ArrayList<>(ids.size());
+    for (int id : ids) payloads.add(nodeId + ":C:" + id);
+    sendNotifications(conn, payloads);
+  }
+
+  private void sendNotifications(PooledConnection conn, List<String> payloads) throws SQLException {
+    PreparedStatement ps = conn.prepare(NOTIFY_SQL);
+    Array payloadArray = conn.getConnection().createArrayOf("text", payloads.toArray());
+    try {
+      ps.setArray(1, payloadArray);
+      ps.execute();
+    } finally {
+      payloadArray.free();
+    }
+  }
 
-    try (Statement statement = connection.createStatement()) {
-      dbVehicles = statement.executeQuery("select * from vehicles");
+  @Override
+  public void syncFromDB(Storage storage) throws SQLException {
+    try (PooledConnection conn = pool.borrow()) {
+      Connection connection = conn.getConnection();
+      // the driver only streams with a fetch size inside a transaction
+      connection.setAutoCommit(false);
+      try (Statement statement =
+          connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        statement.setFetchSize(syncFetchSize);
+        try (ResultSet dbVehicles = statement.executeQuery(SELECT_VEHICLES_SQL)) {
+          // rows go straight into the storage's new contents, never all in a list at once
+          StreamingVehicleLoader.Result[] loaded = new StreamingVehicleLoader.Result[1];
+          storage.replaceLocalCollection(
+              sink ->
+                  loaded[0] = new StreamingVehicleLoader(syncParallelism).load(dbVehicles, sink));
+          StreamingVehicleLoader.Result result = loaded[0];
+          logger.info(
+              "Downloaded "
+                  + result.loaded()
+                  + " vehicles from db with "
+                  + result.rejected()
+                  + " elements failing validation in "
+                  + result.elapsedMs()
+                  + " ms ("
+                  + result.rowsPerSecond()
+                  + " rows/s)");
+        }
+        connection.commit();
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
+    }
+  }
 
-      int violationCounter = 0;
+  @Override
+  public long currentChangeVersion() throws SQLException {
+    try (PooledConnection conn = pool.borrow()) {
+      try (ResultSet rs = conn.prepare(CHANGE_VERSION_SQL).executeQuery()) {
+        rs.next();
+        return rs.getLong(1);
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
+    }
+  }
 
-      storage.clearLocalCollection();
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Versions are transaction ids from the {@code vehicle_changes} log. The returned version is
+   * the oldest transaction still running when the changes were read, so changes committed later by
+   * a transaction that started earlier are still picked up next time. Changes of that window are
+   * applied twice, which is harmless since the current row is read rather than the change itself. A
+   * truncate since the last sync makes this a full reload of the table, streamed into the storage
+   * with {@link Storage#replaceLocalCollection}, and so does a version older than the horizon of
+   * the log, since the changes made before it were pruned.
+   */
+  @Override
+  public long syncDelta(Storage storage, long sinceVersion) throws SQLException {
+    List<Vehicle> upserts = new ArrayList<>();
+    List<Integer> deletes = new ArrayList<>();
+    long version;
+    int rejected = 0;
+    StreamingVehicleLoader.Result reloaded = null;
 
-      Map<Integer, Vehicle> storageMap = storage.getCollection();
+    try (PooledConnection conn = pool.borrow()) {
+      Connection connection = conn.getConnection();
+      connection.setAutoCommit(false);
+      try {
+        // one snapshot for the version and the rows, so nothing falls between them
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+        }
+        try (ResultSet rs = conn.prepare(CHANGE_VERSION_SQL).executeQuery()) {
+          rs.next();
+          version = rs.getLong(1);
+        }
 
-      while (dbVehicles.next()) {
-        VehicleType vt;
-        try {
-          vt = VehicleType.valueOf(dbVehicles.getString("type"));
-        } catch (NullPointerException e) {
-          vt = null;
+        PreparedStatement truncated = conn.prepare(TRUNCATED_SINCE_SQL);
+        truncated.setString(1, Long.toString(sinceVersion));
+        boolean wasTruncated;
+        try (ResultSet rs = truncated.executeQuery()) {
+          rs.next();
+          wasTruncated = rs.getBoolean(1);
+        }
+        PreparedStatement pruned = conn.prepare(PRUNED_SINCE_SQL);
+        pruned.setString(1, Long.toString(sinceVersion));
+        boolean wasPruned;
+        try (ResultSet rs = pruned.executeQuery()) {
+          rs.next();
+          wasPruned = rs.getBoolean(1);
         }
+        if (wasPruned)
+          logger.warn(
+              "Changes since version " + sinceVersion + " were pruned, reloading every vehicle");
 
-        Vehicle vehicle =
-            new Vehicle(
-                dbVehicles.getInt("id"),
-                dbVehicles.getString("name"),
-                new Coordinates(dbVehicles.getDouble("x"), dbVehicles.getDouble("y")),
-                dbVehicles.getTimestamp("creation_date").toInstant().atZone(ZoneId.systemDefault()),
-                dbVehicles.getFloat("engine_power"),
-                dbVehicles.getFloat("distance_travelled"),
-                vt,
-                FuelType.valueOf(dbVehicles.getString("fuel_type")),
-                dbVehicles.getInt("user_id"));
-        try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
-          Validator validator = factory.getValidator();
-          Set<ConstraintViolation<Vehicle>> violations = validator.validate(vehicle);
-          if (!violations.isEmpty()) {
-            violationCounter += 1;
-            continue;
+        StreamingVehicleLoader loader = new StreamingVehicleLoader(1);
+        if (wasTruncated || wasPruned) {
+          try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(syncFetchSize);
+            try (ResultSet rs = statement.executeQuery(SELECT_VEHICLES_SQL)) {
+              // rows go straight into the storage's new contents, read in this same snapshot
+              StreamingVehicleLoader.Result[] loaded = new StreamingVehicleLoader.Result[1];
+              storage.replaceLocalCollection(sink -> loaded[0] = loader.load(rs, sink));
+              reloaded = loaded[0];
+            }
+          }
+        } else {
+          PreparedStatement changed = conn.prepare(CHANGED_VEHICLES_SQL);
+          changed.setString(1, Long.toString(sinceVersion));
+          changed.setFetchSize(syncFetchSize);
+          try (ResultSet rs = changed.executeQuery()) {
+            while (rs.next()) {
+              int id = rs.getInt(11);
+              boolean exists = rs.getObject(1) != null;
+              // a missing row was deleted, an invalid one is dropped as in a full sync
+              Vehicle vehicle = exists ? loader.readVehicle(rs) : null;
+              if (vehicle != null) upserts.add(vehicle);
+              else {
+                if (exists) rejected++;
+                deletes.add(id);
+              }
+            }
           }
         }
-        storageMap.put(vehicle.getId(), vehicle);
+        connection.commit();
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
       }
+    }
+
+    if (reloaded != null) {
       logger.info(
-          "Downloaded "
-              + storage.getLen()
-              + " vehicles from db with "
-              + violationCounter
-              + " elements failing validation");
+          "Delta sync reloaded "
+              + reloaded.loaded()
+              + " vehicles"
+              + (reloaded.rejected() > 0
+                  ? ", " + reloaded.rejected() + " elements failing validation"
+                  : ""));
+      return version;
+    }
+    storage.applyRemoteChanges(upserts, deletes);
+    if (!upserts.isEmpty() || !deletes.isEmpty())
+      logger.info(
+          "Delta sync applied "
+              + upserts.size()
+              + " updates and "
+              + deletes.size()
+              + " deletes"
+              + (rejected > 0 ? ", " + rejected + " elements failing validation" : ""));
+    return version;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every node running delta sync has a row in {@code vehicle_sync_nodes}; the log is pruned up
+   * to the oldest version among them, and rows of nodes not seen for {@code
+   * changeLogRetentionSeconds} are dropped first. Pruning raises the horizon of the log, so a node
+   * that was dropped does a full comparison on its next sync.
+   */
+  @Override
+  public long pruneChanges(long neededVersion) throws SQLException {
+    try (PooledConnection conn = pool.borrow()) {
+      Connection connection = conn.getConnection();
+      connection.setAutoCommit(false);
+      try {
+        PreparedStatement record = conn.prepare(RECORD_NEEDED_VERSION_SQL);
+        record.setString(1, nodeId);
+        record.setString(2, Long.toString(neededVersion));
+        record.executeUpdate();
+
+        PreparedStatement forget = conn.prepare(FORGET_NODES_SQL);
+        forget.setInt(1, changeLogRetentionSeconds);
+        forget.executeUpdate();
+
+        long pruned;
+        try (ResultSet rs = conn.prepare(PRUNE_CHANGES_SQL).executeQuery()) {
+          rs.next();
+          pruned = rs.getLong(1);
+        }
+        connection.commit();
+        return pruned;
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
     }
   }
 
   @Override
-  public synchronized void insert(Vehicle vehicle) throws SQLException {
-    try (PreparedStatement ps =
-        connection.prepareStatement("insert into vehicles values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
-      String vt;
-      if (vehicle.getType() == null) vt = null;
-      else vt = vehicle.getType().toString();
+  public void insert(Vehicle vehicle) throws SQLException {
+    ReentrantLock lock = writeLocks.lockFor(vehicle.getId());
+    lock.lock();
+    try (PooledConnection conn = pool.borrow()) {
+      try {
+        PreparedStatement ps = conn.prepare(INSERT_SQL);
+        bindInsert(ps, vehicle);
+        ps.executeUpdate();
+        notifyChanged(conn, List.of(vehicle.getId()));
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
 
-      ps.setInt(1, vehicle.getId());
-      ps.setString(2, vehicle.getName());
-      ps.setDouble(3, vehicle.getCoordinates().getX());
-      ps.setDouble(4, vehicle.getCoordinates().getY());
-      ps.setTimestamp(5, Timestamp.from(vehicle.getCreationDate().toInstant()));
-      ps.setFloat(6, vehicle.getEnginePower());
-      ps.setFloat(7, vehicle.getDistanceTravelled());
-      ps.setString(8, vt);
-      ps.setString(9, vehicle.getFuelType().toString());
-      ps.setInt(10, vehicle.getUserId());
-      ps.executeUpdate();
+  private static void bindInsert(PreparedStatement ps, Vehicle vehicle) throws SQLException {
+    ps.setInt(1, vehicle.getId());
+    ps.setString(2, vehicle.getName());
+    ps.setDouble(3, vehicle.getCoordinates().getX());
+    ps.setDouble(4, vehicle.getCoordinates().getY());
+    ps.setTimestamp(5, Timestamp.from(vehicle.getCreationDate().toInstant()));
+    ps.setFloat(6, vehicle.getEnginePower());
+    ps.setFloat(7, vehicle.getDistanceTravelled());
+    ps.setString(8, vehicle.getType() == null ? null : vehicle.getType().toString());
+    ps.setString(9, vehicle.getFuelType().toString());
+    ps.setInt(10, vehicle.getUserId());
+  }
+
+  private static void bindUpdate(PreparedStatement ps, int id, Vehicle vehicle)
+      throws SQLException {
+    ps.setString(1, vehicle.getName());
+    ps.setDouble(2, vehicle.getCoordinates().getX());
+    ps.setDouble(3, vehicle.getCoordinates().getY());
+    ps.setTimestamp(4, Timestamp.from(vehicle.getCreationDate().toInstant()));
+    ps.setFloat(5, vehicle.getEnginePower());
+    ps.setFloat(6, vehicle.getDistanceTravelled());
+    ps.setString(7, vehicle.getType() == null ? null : vehicle.getType().toString());
+    ps.setString(8, vehicle.getFuelType().toString());
+    ps.setInt(9, vehicle.getUserId());
+    ps.setInt(10, id);
+  }
+
+  @Override
+  public int nextVehicleId() throws SQLException {
+    try (PooledConnection conn = pool.borrow()) {
+      try (ResultSet rs = conn.prepare(NEXT_ID_SQL).executeQuery()) {
+        if (rs.next()) {
+          return rs.getInt(1);
+        } else {
+          throw new SQLException("Failed to retrieve next vehicle id from sequence.");
+        }
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
     }
   }
 
   @Override
-  public synchronized int nextVehicleId() throws SQLException {
-    String sql = "SELECT nextval('veh_id')";
-    try (Statement stmt = connection.createStatement();
-        ResultSet rs = stmt.executeQuery(sql)) {
-      if (rs.next()) {
-        return rs.getInt(1);
-      } else {
-        throw new SQLException("Failed to retrieve next vehicle id from sequence.");
+  public int[] reserveVehicleIds(int count) throws SQLException {
+    try (PooledConnection conn = pool.borrow()) {
+      PreparedStatement ps = conn.prepare(NEXT_IDS_SQL);
+      ps.setInt(1, count);
+      try (ResultSet rs = ps.executeQuery()) {
+        int[] ids = new int[count];
+        int taken = 0;
+        while (rs.next()) ids[taken++] = rs.getInt(1);
+        if (taken != count)
+          throw new SQLException("Got " + taken + " of " + count + " vehicle ids from sequence.");
+        return ids;
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
       }
     }
   }
 
   @Override
-  public synchronized void removeKey(int id) throws SQLException {
-    try (PreparedStatement ps = connection.prepareStatement("DELETE FROM vehicles WHERE id = ?")) {
-      ps.setInt(1, id);
-      ps.executeUpdate();
+  public void removeKey(int id) throws SQLException {
+    ReentrantLock lock = writeLocks.lockFor(id);
+    lock.lock();
+    try (PooledConnection conn = pool.borrow()) {
+      try {
+        PreparedStatement ps = conn.prepare(DELETE_SQL);
+        ps.setInt(1, id);
+        ps.executeUpdate();
+        notifyChanged(conn, List.of(id));
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
     } catch (SQLException e) {
       throw new SQLException("Failed to delete vehicle with id: " + id, e);
+    } finally {
+      lock.unlock();
     }
   }
 
   @Override
-  public synchronized void update(int id, Vehicle vehicle) throws SQLException {
-    try (PreparedStatement ps =
-        connection.prepareStatement(
-            "UPDATE vehicles SET name = ?, x = ?, y = ?, creation_date = ?, engine_power = ?, distance_travelled = ?, type = ?, fuel_type = ?, user_id = ? WHERE id = ?")) {
-      ps.setString(1, vehicle.getName());
-      ps.setDouble(2, vehicle.getCoordinates().getX());
-      ps.setDouble(3, vehicle.getCoordinates().getY());
-      ps.setTimestamp(4, Timestamp.from(vehicle.getCreationDate().toInstant()));
-      ps.setFloat(5, vehicle.getEnginePower());
-      ps.setFloat(6, vehicle.getDistanceTravelled());
-      ps.setString(7, vehicle.getType().toString());
-      ps.setString(8, vehicle.getFuelType().toString());
-      ps.setInt(9, vehicle.getUserId());
-      ps.setInt(10, id);
-      ps.executeUpdate();
+  public void update(int id, Vehicle vehicle) throws SQLException {
+    ReentrantLock lock = writeLocks.lockFor(id);
+    lock.lock();
+    try (PooledConnection conn = pool.borrow()) {
+      try {
+        PreparedStatement ps = conn.prepare(UPDATE_SQL);
+        bindUpdate(ps, id, vehicle);
+        ps.executeUpdate();
+        notifyChanged(conn, List.of(id));
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
     } catch (SQLException e) {
       throw new SQLException("Failed to update vehicle with id: " + id, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs a batch of statements in a single transaction on one connection. The pool restores auto
+   * commit when the connection is returned.
+   *
+   * @param ids vehicle ids written by the batch
+   * @param work the statements to run
+   * @throws SQLException if any statement fails; the whole batch is rolled back
+   */
+  private void inTransaction(Collection<Integer> ids, SqlWork work) throws SQLException {
+    List<ReentrantLock> locked = writeLocks.lockAll(ids);
+    try (PooledConnection conn = pool.borrow()) {
+      Connection c = conn.getConnection();
+      c.setAutoCommit(false);
+      try {
+        work.run(conn);
+        notifyChanged(conn, ids);
+        c.commit();
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        try {
+          c.rollback();
+        } catch (SQLException rollbackError) {
+          e.addSuppressed(rollbackError);
+        }
+        throw e;
+      }
+    } finally {
+      StripedLocks.unlockAll(locked);
+    }
+  }
+
+  @FunctionalInterface
+  private interface SqlWork {
+    void run(PooledConnection conn) throws SQLException;
+  }
+
+  @Override
+  public void insertAll(Collection<Vehicle> vehicles) throws SQLException {
+    if (vehicles.isEmpty()) return;
+    List<Integer> ids = vehicles.stream().map(Vehicle::getId).toList();
+    try {
+      inTransaction(
+          ids,
+          conn -> {
+            PreparedStatement ps = conn.prepare(INSERT_SQL);
+            for (Vehicle vehicle : vehicles) {
+              bindInsert(ps, vehicle);
+              ps.addBatch();
+            }
+            ps.executeBatch();
+          });
+    } catch (SQLException e) {
+      throw new SQLException("Failed to insert " + vehicles.size() + " vehicles", e);
     }
   }
 
   @Override
-  public synchronized void truncateVehicles() throws SQLException {
-    try (Statement stmt = connection.createStatement()) {
+  public void updateAll(Map<Integer, Vehicle> vehicles) throws SQLException {
+    if (vehicles.isEmpty()) return;
+    try {
+      inTransaction(
+          vehicles.keySet(),
+          conn -> {
+            PreparedStatement ps = conn.prepare(UPDATE_SQL);
+            for (Map.Entry<Integer, Vehicle> entry : vehicles.entrySet()) {
+              bindUpdate(ps, entry.getKey(), entry.getValue());
+              ps.addBatch();
+            }
+            ps.executeBatch();
+          });
+    } catch (SQLException e) {
+      throw new SQLException("Failed to update " + vehicles.size() + " vehicles", e);
+    }
+  }
+
+  @Override
+  public void removeKeys(Collection<Integer> ids) throws SQLException {
+    if (ids.isEmpty()) return;
+    try {
+      inTransaction(
+          ids,
+          conn -> {
+            PreparedStatement ps = conn.prepare(DELETE_MANY_SQL);
+            Array idArray = conn.getConnection().createArrayOf("integer", ids.toArray());
+            try {
+              ps.setArray(1, idArray);
+              ps.executeUpdate();
+            } finally {
+              idArray.free();
+            }
+          });
+    } catch (SQLException e) {
+      throw new SQLException("Failed to delete " + ids.size() + " vehicles", e);
+    }
+  }
+
+  @Override
+  public void applyChanges(Collection<Vehicle> upserts, Collection<Integer> deletes)
+      throws SQLException {
+    if (upserts.isEmpty() && deletes.isEmpty()) return;
+    List<Integer> ids = new ArrayList<>(upserts.size() + deletes.size());
+    for (Vehicle vehicle : upserts) ids.add(vehicle.getId());
+    ids.addAll(deletes);
+    try {
+      inTransaction(
+          ids,
+          conn -> {
+            if (!upserts.isEmpty()) {
+              PreparedStatement ps = conn.prepare(UPSERT_SQL);
+              for (Vehicle vehicle : upserts) {
+                bindInsert(ps, vehicle);
+                ps.addBatch();
+              }
+              ps.executeBatch();
+            }
+            if (!deletes.isEmpty()) {
+              PreparedStatement ps = conn.prepare(DELETE_MANY_SQL);
+              Array idArray = conn.getConnection().createArrayOf("integer", deletes.toArray());
+              try {
+                ps.setArray(1, idArray);
+                ps.executeUpdate();
+              } finally {
+                idArray.free();
+              }
+            }
+          });
+    } catch (SQLException e) {
+      throw new SQLException(
+          "Failed to apply " + upserts.size() + " upserts and " + deletes.size() + " deletes", e);
+    }
+  }
+
+  @Override
+  public void truncateVehicles() throws SQLException {
+    try (PooledConnection conn = pool.borrow();
+        Statement stmt = conn.getConnection().createStatement()) {
       stmt.executeUpdate("TRUNCATE TABLE vehicles");
+      if (notifyChanges) sendNotifications(conn, List.of(nodeId + ":T:0"));
     } catch (SQLException e) {
       logger.error("Failed to truncate vehicles table: " + e.getMessage());
       throw new SQLException("Failed to truncate vehicles table", e);
@@ -159,8 +619,9 @@ public class PgStoreManager implements DbStoreManager {
   }
 
   @Override
-  public synchronized void resetVehicleIDs() throws SQLException {
-    try (Statement stmt = connection.createStatement()) {
+  public void resetVehicleIDs() throws SQLException {
+    try (PooledConnection conn = pool.borrow();
+        Statement stmt = conn.getConnection().createStatement()) {
       stmt.executeUpdate("ALTER SEQUENCE veh_id RESTART WITH 1");
     } catch (SQLException e) {
       logger.error("Failed to reset veh_id sequence: " + e.getMessage());
@@ -171,8 +632,9 @@ public class PgStoreManager implements DbStoreManager {
   }
 
   @Override
-  public synchronized void resetUsers() throws SQLException {
-    try (Statement stmt = connection.createStatement()) {
+  public void resetUsers() throws SQLException {
+    try (PooledConnection conn = pool.borrow();
+        Statement stmt = conn.getConnection().createStatement()) {
       stmt.executeUpdate("TRUNCATE TABLE users");
       stmt.executeUpdate("ALTER SEQUENCE users_id_seq RESTART WITH 1");
     } catch (SQLException e) {
@@ -180,18 +642,15 @@ public class PgStoreManager implements DbStoreManager {
       throw new SQLException("Failed to reset users", e);
     }
 
+    credentialCache.invalidateAll();
     logger.warn("Reset users by admin command!");
   }
 
-  private synchronized String hashPassword(String password) throws SQLException {
+  private String hashPassword(String password) throws SQLException {
     try {
       java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-512");
       byte[] hashBytes = md.digest(password.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-      StringBuilder sb = new StringBuilder();
-      for (byte b : hashBytes) {
-        sb.append(String.format("%02x", b));
-      }
-      return sb.toString();
+      return HexFormat.of().formatHex(hashBytes);
     } catch (java.security.NoSuchAlgorithmException e) {
       logger.error("Failed to hash password: " + e.getMessage());
       throw new SQLException("Failed to hash password", e);
@@ -199,35 +658,58 @@ public class PgStoreManager implements DbStoreManager {
   }
 
   @Override
-  public synchronized void createUser(String login, String password) throws SQLException {
-    String sql = "INSERT INTO users (login, pass_hash) VALUES (?, ?)";
+  public void createUser(String login, String password) throws SQLException {
     String passHash = hashPassword(password);
 
-    try (PreparedStatement ps = connection.prepareStatement(sql)) {
-      ps.setString(1, login);
-      ps.setString(2, passHash);
-      ps.executeUpdate();
+    try (PooledConnection conn = pool.borrow()) {
+      try {
+        PreparedStatement ps = conn.prepare(CREATE_USER_SQL);
+        ps.setString(1, login);
+        ps.setString(2, passHash);
+        ps.executeUpdate();
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
+      }
     } catch (SQLException e) {
       logger.error("Failed to create user: " + e.getMessage());
       throw new SQLException("Failed to create user", e);
+    } finally {
+      credentialCache.invalidate(login);
     }
   }
 
   @Override
-  public synchronized Integer verifyLogin(String login, String password) throws SQLException {
-    String sql = "SELECT id, pass_hash FROM users WHERE login = ?";
+  public Integer verifyLogin(String login, String password) throws SQLException {
+    String cacheKey = credentialCache.key(login, password);
+    CredentialCache.Entry cached = credentialCache.lookup(cacheKey);
+    if (cached != null) return cached.uid();
+
+    long generation = credentialCache.generation(login);
+    Integer uid = verifyLoginInDB(login, password);
+    credentialCache.put(cacheKey, uid, generation);
+    return uid;
+  }
+
+  private Integer verifyLoginInDB(String login, String password) throws SQLException {
     String passHash = hashPassword(password);
 
-    try (PreparedStatement ps = connection.prepareStatement(sql)) {
-      ps.setString(1, login);
-      try (ResultSet rs = ps.executeQuery()) {
-        if (rs.next()) {
-          String storedHash = rs.getString("pass_hash");
-          if (passHash.equals(storedHash)) {
-            return rs.getInt("id");
+    try (PooledConnection conn = pool.borrow()) {
+      try {
+        PreparedStatement ps = conn.prepare(VERIFY_LOGIN_SQL);
+        ps.setString(1, login);
+        try (ResultSet rs = ps.executeQuery()) {
+          if (rs.next()) {
+            String storedHash = rs.getString("pass_hash");
+            if (passHash.equals(storedHash)) {
+              return rs.getInt("id");
+            }
           }
+          return null;
         }
-        return null;
+      } catch (SQLException e) {
+        conn.checkBroken(e);
+        throw e;
       }
     } catch (SQLException e) {
       logger.error("Failed to verify login: " + e.getMessage());
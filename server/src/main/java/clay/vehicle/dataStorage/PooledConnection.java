@@ -0,0 +1,98 @@
+package clay.vehicle.dataStorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A connection borrowed from {@link PgConnectionPool}. Keeps its own cache of prepared statements
+ * so that frequently used queries are parsed once per connection. Closing it returns the connection
+ * to the pool instead of closing the underlying socket.
+ */
+public class PooledConnection implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(PooledConnection.class);
+
+  private final Connection connection;
+  private final PgConnectionPool pool;
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+  private boolean broken = false;
+
+  PooledConnection(Connection connection, PgConnectionPool pool) {
+    this.connection = connection;
+    this.pool = pool;
+  }
+
+  /**
+   * Gets the underlying JDBC connection.
+   *
+   * @return the raw connection
+   */
+  public Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Gets a cached prepared statement for the given SQL, preparing it on first use. The returned
+   * statement belongs to this connection and must not be closed by the caller.
+   *
+   * @param sql the statement text
+   * @return a prepared statement with cleared parameters
+   * @throws SQLException if the statement can't be prepared
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement ps = statements.get(sql);
+    if (ps == null || ps.isClosed()) {
+      ps = connection.prepareStatement(sql);
+      statements.put(sql, ps);
+    } else {
+      ps.clearParameters();
+    }
+    return ps;
+  }
+
+  /**
+   * Marks the connection as unusable if the given exception indicates a connection failure, so the
+   * pool drops it on release.
+   *
+   * @param e the exception thrown while using this connection
+   */
+  public void checkBroken(SQLException e) {
+    String state = e.getSQLState();
+    if (state == null || state.startsWith("08")) broken = true;
+  }
+
+  boolean isBroken() {
+    if (broken) return true;
+    try {
+      return connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  void reset() throws SQLException {
+    if (!connection.getAutoCommit()) {
+      connection.rollback();
+      connection.setAutoCommit(true);
+    }
+  }
+
+  void closePhysically() {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      logger.warn("Could not close connection: " + e.getMessage());
+    }
+    statements.clear();
+  }
+
+  /** Returns this connection to its pool. */
+  @Override
+  public void close() {
+    pool.release(this);
+  }
+}
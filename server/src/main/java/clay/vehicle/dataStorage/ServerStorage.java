@@ -0,0 +1,24 @@
+package clay.vehicle.dataStorage;
+
+import java.io.IOException;
+
+/** Storage kept by the server, which can defer its database writes to a background flusher. */
+public interface ServerStorage extends Storage {
+  /**
+   * Switches the storage to write-behind mode. Changes are then applied to the local collection
+   * immediately and written to the database later by the given flusher. Writes left in the journal
+   * by a previous run are applied on top of the current collection, so this should be called after
+   * the collection was loaded from the database.
+   *
+   * @param flusher the background writer
+   * @throws IOException if the journal can't be replayed
+   */
+  void enableWriteBehind(WriteBehindFlusher flusher) throws IOException;
+
+  /**
+   * Gets the background writer.
+   *
+   * @return the flusher, or null in synchronous mode
+   */
+  WriteBehindFlusher getWriteBehind();
+}
@@ -0,0 +1,254 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.commands.MiscUtils;
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import jakarta.validation.Validator;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads vehicles from a forward-only result set row by row. Rows are decoded into vehicles and
+ * validated either on the reading thread or, with parallelism above one, by a pool of workers in
+ * chunks while the next rows are being fetched. Progress is logged periodically.
+ */
+public class StreamingVehicleLoader {
+  private static final Logger logger = LogManager.getLogger(StreamingVehicleLoader.class);
+
+  /** Column list expected by {@link #load}, in this order */
+  public static final String COLUMNS =
+      "id, name, x, y, creation_date, engine_power, distance_travelled, type, fuel_type, user_id";
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final long PROGRESS_INTERVAL_MS = 2000;
+
+  private final int parallelism;
+  private final Validator validator = MiscUtils.getValidator();
+  private final ZoneId zone = ZoneId.systemDefault();
+
+  /** Undecoded row as read from the result set */
+  private record RawRow(
+      int id,
+      String name,
+      double x,
+      double y,
+      Timestamp creationDate,
+      float enginePower,
+      float distanceTravelled,
+      String type,
+      String fuelType,
+      int userId) {}
+
+  /** Vehicles decoded from one chunk of rows, in row order */
+  private record DecodedChunk(List<Vehicle> vehicles, int rejected) {}
+
+  /**
+   * Outcome of a load.
+   *
+   * @param loaded number of vehicles passed to the sink
+   * @param rejected number of rows that failed decoding or validation
+   * @param elapsedMs time spent loading
+   */
+  public record Result(int loaded, int rejected, long elapsedMs) {
+    public long rowsPerSecond() {
+      return (loaded + rejected) * 1000L / Math.max(1, elapsedMs);
+    }
+  }
+
+  /**
+   * Constructs a new loader.
+   *
+   * @param parallelism number of decode and validation workers, 1 to do it on the reading thread
+   */
+  public StreamingVehicleLoader(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Reads every row of the result set. The result set must select {@link #COLUMNS}. The sink is
+   * called on the calling thread, in row order.
+   *
+   * @param rs the result set to read
+   * @param sink receiver of valid vehicles
+   * @return load statistics
+   * @throws SQLException if reading fails
+   */
+  public Result load(ResultSet rs, Consumer<Vehicle> sink) throws SQLException {
+    return parallelism > 1 ? loadParallel(rs, sink) : loadSerial(rs, sink);
+  }
+
+  /**
+   * Decodes and validates the current row of a result set selecting {@link #COLUMNS}.
+   *
+   * @param rs the result set, positioned on a row
+   * @return the vehicle, or null if the row doesn't describe a valid vehicle
+   * @throws SQLException if reading fails
+   */
+  public Vehicle readVehicle(ResultSet rs) throws SQLException {
+    return decode(read(rs));
+  }
+
+  private Result loadSerial(ResultSet rs, Consumer<Vehicle> sink) throws SQLException {
+    Progress progress = new Progress();
+    while (rs.next()) {
+      Vehicle vehicle = decode(read(rs));
+      if (vehicle == null) progress.rejected++;
+      else {
+        sink.accept(vehicle);
+        progress.loaded++;
+      }
+      progress.report();
+    }
+    return progress.finish();
+  }
+
+  private Result loadParallel(ResultSet rs, Consumer<Vehicle> sink) throws SQLException {
+    AtomicInteger threadCounter = new AtomicInteger();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            parallelism,
+            r -> {
+              Thread t = new Thread(r, "vehicle-loader-" + threadCounter.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    // chunks in flight are bounded so the reader can't run ahead of the decoders
+    Deque<Future<DecodedChunk>> inFlight = new ArrayDeque<>();
+    int maxInFlight = parallelism * 2;
+    Progress progress = new Progress();
+
+    try {
+      List<RawRow> chunk = new ArrayList<>(CHUNK_SIZE);
+      while (rs.next()) {
+        chunk.add(read(rs));
+        if (chunk.size() == CHUNK_SIZE) {
+          List<RawRow> full = chunk;
+          inFlight.add(workers.submit(() -> decodeChunk(full)));
+          chunk = new ArrayList<>(CHUNK_SIZE);
+          while (inFlight.size() >= maxInFlight
+              || (!inFlight.isEmpty() && inFlight.peek().isDone()))
+            drain(inFlight.poll(), sink, progress);
+          progress.report();
+        }
+      }
+      if (!chunk.isEmpty()) {
+        List<RawRow> last = chunk;
+        inFlight.add(workers.submit(() -> decodeChunk(last)));
+      }
+      while (!inFlight.isEmpty()) drain(inFlight.poll(), sink, progress);
+      return progress.finish();
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private void drain(Future<DecodedChunk> future, Consumer<Vehicle> sink, Progress progress)
+      throws SQLException {
+    DecodedChunk decoded;
+    try {
+      decoded = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while loading vehicles", e);
+    } catch (ExecutionException e) {
+      throw new SQLException("Failed to decode vehicles", e.getCause());
+    }
+    for (Vehicle vehicle : decoded.vehicles()) sink.accept(vehicle);
+    progress.loaded += decoded.vehicles().size();
+    progress.rejected += decoded.rejected();
+  }
+
+  private DecodedChunk decodeChunk(List<RawRow> rows) {
+    List<Vehicle> vehicles = new ArrayList<>(rows.size());
+    int rejected = 0;
+    for (RawRow row : rows) {
+      Vehicle vehicle = decode(row);
+      if (vehicle == null) rejected++;
+      else vehicles.add(vehicle);
+    }
+    return new DecodedChunk(vehicles, rejected);
+  }
+
+  private static RawRow read(ResultSet rs) throws SQLException {
+    return new RawRow(
+        rs.getInt(1),
+        rs.getString(2),
+        rs.getDouble(3),
+        rs.getDouble(4),
+        rs.getTimestamp(5),
+        rs.getFloat(6),
+        rs.getFloat(7),
+        rs.getString(8),
+        rs.getString(9),
+        rs.getInt(10));
+  }
+
+  /**
+   * Builds and validates a vehicle from a row.
+   *
+   * @param row the raw row
+   * @return the vehicle, or null if the row doesn't describe a valid vehicle
+   */
+  private Vehicle decode(RawRow row) {
+    if (row.creationDate() == null || row.fuelType() == null) return null;
+    Vehicle vehicle;
+    try {
+      vehicle =
+          new Vehicle(
+              row.id(),
+              row.name(),
+              new Coordinates(row.x(), row.y()),
+              row.creationDate().toInstant().atZone(zone),
+              row.enginePower(),
+              row.distanceTravelled(),
+              row.type() == null ? null : VehicleType.valueOf(row.type()),
+              FuelType.valueOf(row.fuelType()),
+              row.userId());
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return validator.validate(vehicle).isEmpty() ? vehicle : null;
+  }
+
+  /** Load counters with periodic progress logging, used from the reading thread only */
+  private static class Progress {
+    final long start = System.currentTimeMillis();
+    long lastReport = start;
+    int loaded = 0;
+    int rejected = 0;
+
+    void report() {
+      long now = System.currentTimeMillis();
+      if (now - lastReport < PROGRESS_INTERVAL_MS) return;
+      lastReport = now;
+      logger.info(
+          "Loading vehicles: "
+              + loaded
+              + " loaded, "
+              + rejected
+              + " rejected, "
+              + (loaded + rejected) * 1000L / Math.max(1, now - start)
+              + " rows/s");
+    }
+
+    Result finish() {
+      return new Result(loaded, rejected, System.currentTimeMillis() - start);
+    }
+  }
+}
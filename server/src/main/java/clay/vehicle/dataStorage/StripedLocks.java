@@ -0,0 +1,77 @@
+package clay.vehicle.dataStorage;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks that vehicle ids are mapped onto, so that writes to the same id are serialized
+ * while writes to different ids mostly are not.
+ */
+public class StripedLocks {
+  private final ReentrantLock[] locks;
+
+  /**
+   * Constructs a new set of locks.
+   *
+   * @param stripes number of locks
+   */
+  public StripedLocks(int stripes) {
+    locks = new ReentrantLock[stripes];
+    for (int i = 0; i < stripes; i++) locks[i] = new ReentrantLock();
+  }
+
+  /**
+   * Gets the lock of an id.
+   *
+   * @param id the vehicle id
+   * @return the lock guarding the id
+   */
+  public ReentrantLock lockFor(int id) {
+    return locks[Math.floorMod(id, locks.length)];
+  }
+
+  /**
+   * Locks the stripes of all given ids in a fixed order, so that two batches touching overlapping
+   * ids can't deadlock.
+   *
+   * @param ids vehicle ids about to be written
+   * @return the locked stripes, to be passed to {@link #unlockAll}
+   */
+  public List<ReentrantLock> lockAll(Collection<Integer> ids) {
+    BitSet stripes = new BitSet(locks.length);
+    for (int id : ids) stripes.set(Math.floorMod(id, locks.length));
+    return lockStripes(stripes);
+  }
+
+  /**
+   * Locks every stripe, excluding all other writers.
+   *
+   * @return the locked stripes, to be passed to {@link #unlockAll}
+   */
+  public List<ReentrantLock> lockEverything() {
+    BitSet stripes = new BitSet(locks.length);
+    stripes.set(0, locks.length);
+    return lockStripes(stripes);
+  }
+
+  private List<ReentrantLock> lockStripes(BitSet stripes) {
+    List<ReentrantLock> locked = new ArrayList<>(stripes.cardinality());
+    for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+      locks[i].lock();
+      locked.add(locks[i]);
+    }
+    return locked;
+  }
+
+  /**
+   * Releases locks taken by {@link #lockAll} or {@link #lockEverything}.
+   *
+   * @param locked the locked stripes
+   */
+  public static void unlockAll(List<ReentrantLock> locked) {
+    for (int i = locked.size() - 1; i >= 0; i--) locked.get(i).unlock();
+  }
+}
@@ -0,0 +1,173 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Up to 64 vehicles with consecutive ids stored column by column in primitive arrays. Enums and
+ * time zones are stored as small codes, names are interned so that repeated names share one string.
+ * Blocks are immutable once published; writers change a {@link #copy} and publish that.
+ */
+final class VehicleBlock {
+  static final int SHIFT = 6;
+  static final int SIZE = 1 << SHIFT;
+  private static final int MASK = SIZE - 1;
+
+  private static final FuelType[] FUEL_TYPES = FuelType.values();
+  private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+
+  /** Dictionary of the time zones seen so far, few enough to be coded in a short */
+  private static final List<ZoneId> ZONES = new CopyOnWriteArrayList<>();
+
+  private static final Map<ZoneId, Short> ZONE_CODES = new ConcurrentHashMap<>();
+
+  /** Bit i is set if slot i holds a vehicle */
+  private long present;
+
+  private final String[] names = new String[SIZE];
+  private final double[] x = new double[SIZE];
+  private final double[] y = new double[SIZE];
+  private final long[] epochSeconds = new long[SIZE];
+  private final int[] nanos = new int[SIZE];
+  private final short[] zones = new short[SIZE];
+  private final float[] enginePower = new float[SIZE];
+  private final float[] distanceTravelled = new float[SIZE];
+  private final byte[] types = new byte[SIZE];
+  private final byte[] fuelTypes = new byte[SIZE];
+  private final int[] userIds = new int[SIZE];
+
+  static int blockOf(int id) {
+    return id >>> SHIFT;
+  }
+
+  private static int slotOf(int id) {
+    return id & MASK;
+  }
+
+  private static short zoneCode(ZoneId zone) {
+    Short code = ZONE_CODES.get(zone);
+    if (code != null) return code;
+    synchronized (ZONES) {
+      code = ZONE_CODES.get(zone);
+      if (code != null) return code;
+      if (ZONES.size() > Short.MAX_VALUE) throw new IllegalStateException("Too many time zones");
+      ZONES.add(zone);
+      code = (short) (ZONES.size() - 1);
+      ZONE_CODES.put(zone, code);
+      return code;
+    }
+  }
+
+  /**
+   * Copies this block for changing.
+   *
+   * @return a block with the same contents
+   */
+  VehicleBlock copy() {
+    VehicleBlock copy = new VehicleBlock();
+    copy.present = present;
+    System.arraycopy(names, 0, copy.names, 0, SIZE);
+    System.arraycopy(x, 0, copy.x, 0, SIZE);
+    System.arraycopy(y, 0, copy.y, 0, SIZE);
+    System.arraycopy(epochSeconds, 0, copy.epochSeconds, 0, SIZE);
+    System.arraycopy(nanos, 0, copy.nanos, 0, SIZE);
+    System.arraycopy(zones, 0, copy.zones, 0, SIZE);
+    System.arraycopy(enginePower, 0, copy.enginePower, 0, SIZE);
+    System.arraycopy(distanceTravelled, 0, copy.distanceTravelled, 0, SIZE);
+    System.arraycopy(types, 0, copy.types, 0, SIZE);
+    System.arraycopy(fuelTypes, 0, copy.fuelTypes, 0, SIZE);
+    System.arraycopy(userIds, 0, copy.userIds, 0, SIZE);
+    return copy;
+  }
+
+  boolean contains(int id) {
+    return (present & (1L << slotOf(id))) != 0;
+  }
+
+  int size() {
+    return Long.bitCount(present);
+  }
+
+  boolean isEmpty() {
+    return present == 0;
+  }
+
+  /**
+   * Gets the bitmap of occupied slots.
+   *
+   * @return a mask where bit i is set if slot i holds a vehicle
+   */
+  long present() {
+    return present;
+  }
+
+  /**
+   * Stores a vehicle in its slot. Only for unpublished copies.
+   *
+   * @param vehicle the vehicle
+   * @return true if the slot was empty before
+   */
+  boolean set(Vehicle vehicle) {
+    int slot = slotOf(vehicle.getId());
+    boolean added = (present & (1L << slot)) == 0;
+    present |= 1L << slot;
+    names[slot] = vehicle.getName().intern();
+    x[slot] = vehicle.getCoordinates().getX();
+    y[slot] = vehicle.getCoordinates().getY();
+    ZonedDateTime date = vehicle.getCreationDate();
+    epochSeconds[slot] = date.toEpochSecond();
+    nanos[slot] = date.getNano();
+    zones[slot] = zoneCode(date.getZone());
+    enginePower[slot] = vehicle.getEnginePower();
+    distanceTravelled[slot] = vehicle.getDistanceTravelled();
+    types[slot] = (byte) (vehicle.getType() == null ? -1 : vehicle.getType().ordinal());
+    fuelTypes[slot] = (byte) vehicle.getFuelType().ordinal();
+    userIds[slot] = vehicle.getUserId();
+    return added;
+  }
+
+  /**
+   * Empties the slot of an id. Only for unpublished copies.
+   *
+   * @param id the vehicle id
+   * @return true if the slot held a vehicle
+   */
+  boolean clear(int id) {
+    int slot = slotOf(id);
+    boolean removed = (present & (1L << slot)) != 0;
+    present &= ~(1L << slot);
+    names[slot] = null;
+    return removed;
+  }
+
+  /**
+   * Materializes a vehicle stored in this block.
+   *
+   * @param id the vehicle id
+   * @return a new vehicle object, or null if the slot is empty
+   */
+  Vehicle vehicle(int id) {
+    int slot = slotOf(id);
+    if ((present & (1L << slot)) == 0) return null;
+    return new Vehicle(
+        id,
+        names[slot],
+        new Coordinates(x[slot], y[slot]),
+        ZonedDateTime.ofInstant(
+            Instant.ofEpochSecond(epochSeconds[slot], nanos[slot]), ZONES.get(zones[slot])),
+        enginePower[slot],
+        distanceTravelled[slot],
+        types[slot] < 0 ? null : VEHICLE_TYPES[types[slot]],
+        FUEL_TYPES[fuelTypes[slot]],
+        userIds[slot]);
+  }
+}
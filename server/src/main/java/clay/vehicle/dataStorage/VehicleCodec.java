@@ -0,0 +1,76 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Coordinates;
+import clay.vehicle.vehicles.FuelType;
+import clay.vehicle.vehicles.Vehicle;
+import clay.vehicle.vehicles.VehicleType;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/** Utility class for writing vehicles to and reading them from a compact binary form. */
+public class VehicleCodec {
+  private VehicleCodec() {}
+
+  /**
+   * Writes a vehicle.
+   *
+   * @param out the output to write to
+   * @param vehicle the vehicle to write
+   * @throws IOException if writing fails
+   */
+  public static void write(DataOutput out, Vehicle vehicle) throws IOException {
+    out.writeInt(vehicle.getId());
+    out.writeUTF(vehicle.getName());
+    out.writeDouble(vehicle.getCoordinates().getX());
+    out.writeDouble(vehicle.getCoordinates().getY());
+    Instant created = vehicle.getCreationDate().toInstant();
+    out.writeLong(created.getEpochSecond());
+    out.writeInt(created.getNano());
+    out.writeUTF(vehicle.getCreationDate().getZone().getId());
+    out.writeFloat(vehicle.getEnginePower());
+    out.writeFloat(vehicle.getDistanceTravelled());
+    out.writeByte(vehicle.getType() == null ? -1 : vehicle.getType().ordinal());
+    out.writeByte(vehicle.getFuelType().ordinal());
+    out.writeInt(vehicle.getUserId());
+  }
+
+  /**
+   * Reads a vehicle written by {@link #write}.
+   *
+   * @param in the input to read from
+   * @return the decoded vehicle
+   * @throws IOException if reading fails or the data is malformed
+   */
+  public static Vehicle read(DataInput in) throws IOException {
+    int id = in.readInt();
+    String name = in.readUTF();
+    double x = in.readDouble();
+    double y = in.readDouble();
+    long seconds = in.readLong();
+    int nanos = in.readInt();
+    String zone = in.readUTF();
+    float enginePower = in.readFloat();
+    float distanceTravelled = in.readFloat();
+    byte type = in.readByte();
+    byte fuel = in.readByte();
+    int userId = in.readInt();
+
+    try {
+      return new Vehicle(
+          id,
+          name,
+          new Coordinates(x, y),
+          Instant.ofEpochSecond(seconds, nanos).atZone(ZoneId.of(zone)),
+          enginePower,
+          distanceTravelled,
+          type < 0 ? null : VehicleType.values()[type],
+          FuelType.values()[fuel],
+          userId);
+    } catch (RuntimeException e) {
+      throw new IOException("Malformed vehicle record for id " + id, e);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+package clay.vehicle.dataStorage;
+
+import clay.vehicle.vehicles.Vehicle;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Background writer for the write-behind mode of {@link VehicleStorage}. Changes are journaled
+ * locally and kept in a pending table, where later changes of the same vehicle replace earlier
+ * ones. A scheduled task writes the pending table to the database in batches. If the database is
+ * unavailable the changes stay pending and are retried on the next run.
+ *
+ * <p>Ids of new vehicles come from a block reserved from the database sequence ahead of time and
+ * topped up in the background once half of it is used, so that inserts, like every other write,
+ * keep being accepted while the database is down, until the block runs out.
+ */
+public class WriteBehindFlusher implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(WriteBehindFlusher.class);
+  private static final long COMPACT_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+  private final DbStoreManager db;
+  private final WriteBehindJournal journal;
+  private final int batchSize;
+  private final int maxPending;
+  private final long backPressureTimeoutMs;
+  private final int idBlockSize;
+
+  /** Ids reserved for new vehicles, guarded by itself */
+  private final Queue<Integer> reservedIds = new ArrayDeque<>();
+
+  private final AtomicBoolean idRefillRequested = new AtomicBoolean(false);
+
+  /** Bumped when reserved ids are discarded, so that a refill in flight drops its stale ids */
+  private final AtomicLong idEpoch = new AtomicLong();
+
+  private final Map<Integer, PendingWrite> pending = new ConcurrentHashMap<>();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final Object capacity = new Object();
+  private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Constructs a new flusher and starts its scheduled task.
+   *
+   * @param db the database to flush to
+   * @param journal the local journal of accepted changes
+   * @param flushIntervalMs delay between scheduled flushes
+   * @param batchSize maximum number of changes written in one transaction
+   * @param maxPending number of pending changes above which writers are held back
+   * @param backPressureTimeoutMs how long a writer waits for the pending table to drain
+   * @param idBlockSize how many ids of new vehicles are reserved at once
+   */
+  public WriteBehindFlusher(
+      DbStoreManager db,
+      WriteBehindJournal journal,
+      long flushIntervalMs,
+      int batchSize,
+      int maxPending,
+      long backPressureTimeoutMs,
+      int idBlockSize) {
+    this.db = db;
+    this.journal = journal;
+    this.batchSize = batchSize;
+    this.maxPending = maxPending;
+    this.backPressureTimeoutMs = backPressureTimeoutMs;
+    this.idBlockSize = idBlockSize;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "write-behind-flusher");
+              t.setDaemon(true);
+              return t;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    requestIdRefill();
+  }
+
+  /**
+   * Takes an id for a new vehicle from the reserved block. Only reads one from the database
+   * directly if the block has run out.
+   *
+   * @return the id
+   * @throws SQLException if the block has run out and the database can't give an id
+   */
+  public int nextId() throws SQLException {
+    Integer id;
+    int left;
+    synchronized (reservedIds) {
+      id = reservedIds.poll();
+      left = reservedIds.size();
+    }
+    if (left < idBlockSize / 2) requestIdRefill();
+    return id != null ? id : db.nextVehicleId();
+  }
+
+  /**
+   * Drops the reserved ids, which must be called after the id sequence was restarted, since the
+   * sequence will give them out again.
+   */
+  public void discardReservedIds() {
+    synchronized (reservedIds) {
+      idEpoch.incrementAndGet();
+      reservedIds.clear();
+    }
+    // not through requestIdRefill, a failing refill in flight could swallow the request
+    scheduler.execute(this::refillIdsQuietly);
+  }
+
+  private void requestIdRefill() {
+    if (idRefillRequested.compareAndSet(false, true)) scheduler.execute(this::refillIdsQuietly);
+  }
+
+  private void refillIdsQuietly() {
+    try {
+      // ids taken while the sequence was being restarted are stale, take new ones
+      for (boolean stale = true; stale; ) {
+        long epoch = idEpoch.get();
+        int[] ids = db.reserveVehicleIds(idBlockSize);
+        synchronized (reservedIds) {
+          stale = idEpoch.get() != epoch;
+          if (!stale) for (int id : ids) reservedIds.add(id);
+        }
+      }
+    } catch (SQLException e) {
+      logger.warn("Could not reserve vehicle ids: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.error("Unexpected error while reserving vehicle ids", e);
+    } finally {
+      idRefillRequested.set(false);
+    }
+  }
+
+  /**
+   * Reads the journal left by a previous run and puts its changes back into the pending table.
+   *
+   * @return the recovered changes in journal order, to be applied to the local collection
+   * @throws IOException if the journal can't be read
+   */
+  public List<PendingWrite> recover() throws IOException {
+    List<PendingWrite> writes = journal.replay();
+    for (PendingWrite write : writes) pending.put(write.id(), write);
+    if (!writes.isEmpty())
+      logger.info("Recovered " + writes.size() + " unflushed writes from journal");
+    return writes;
+  }
+
+  /**
+   * Blocks while the pending table is over its limit, so that writers can't outrun the database
+   * indefinitely. Should be called before taking any storage lock.
+   *
+   * @param count the number of changes about to be submitted
+   * @throws SQLException if the table didn't drain in time
+   */
+  public void awaitCapacity(int count) throws SQLException {
+    if (pending.size() + count <= maxPending) return;
+    requestFlush();
+    long deadline = System.currentTimeMillis() + backPressureTimeoutMs;
+    synchronized (capacity) {
+      while (pending.size() + count > maxPending && !pending.isEmpty()) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0)
+          throw new SQLException(
+              "Write-behind queue is full (" + pending.size() + " pending writes)");
+        try {
+          capacity.wait(left);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted while waiting for write-behind queue", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Journals changes and queues them for flushing, without waiting for the journal to reach the
+   * disk. Meant to be called under the storage lock, so that the journal and the local collection
+   * see writes of the same vehicle in the same order; the caller must then release the lock and
+   * call {@link #awaitDurable} before acknowledging the changes.
+   *
+   * @param writes the changes, already applied to the local collection or about to be
+   * @return the journal position to pass to {@link #awaitDurable}
+   * @throws SQLException if the journal can't be written; the changes must then be rejected
+   */
+  public long submit(Collection<PendingWrite> writes) throws SQLException {
+    if (writes.isEmpty()) return 0;
+    long position;
+    try {
+      // journal and pending table change together, so compaction never drops an unflushed write
+      synchronized (journal) {
+        position = journal.write(writes);
+        for (PendingWrite write : writes) pending.put(write.id(), write);
+      }
+    } catch (IOException e) {
+      throw new SQLException("Failed to journal write: " + e.getMessage(), e);
+    }
+    if (pending.size() >= batchSize) requestFlush();
+    return position;
+  }
+
+  /**
+   * Blocks until submitted changes are on disk. Should be called after releasing any storage lock,
+   * so that writers don't wait for each other's forces and concurrent submits share one.
+   *
+   * @param position a position returned by {@link #submit}
+   * @throws SQLException if the journal can't be forced; the changes must not be acknowledged
+   */
+  public void awaitDurable(long position) throws SQLException {
+    try {
+      journal.awaitDurable(position);
+    } catch (IOException e) {
+      throw new SQLException("Failed to journal write: " + e.getMessage(), e);
+    }
+  }
+
+  private void requestFlush() {
+    if (flushRequested.compareAndSet(false, true)) scheduler.execute(this::flushQuietly);
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (SQLException e) {
+      logger.warn(
+          "Write-behind flush failed, " + pending.size() + " writes pending: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.error("Unexpected error in write-behind flush", e);
+    }
+  }
+
+  /**
+   * Writes all pending changes to the database in batches.
+   *
+   * @throws SQLException if a batch fails; the remaining changes stay pending
+   */
+  public void flush() throws SQLException {
+    flushLock.lock();
+    try {
+      flushRequested.set(false);
+      // bounded by what is pending now, so a steady stream of writes can't keep the loop alive
+      int batches = pending.size() / batchSize + 1;
+      for (int i = 0; i < batches && !pending.isEmpty(); i++) {
+        Map<Integer, PendingWrite> batch = new HashMap<>();
+        for (PendingWrite write : pending.values()) {
+          batch.put(write.id(), write);
+          if (batch.size() >= batchSize) break;
+        }
+
+        List<Vehicle> upserts = new ArrayList<>();
+        List<Integer> deletes = new ArrayList<>();
+        for (PendingWrite write : batch.values()) {
+          if (write.isDelete()) deletes.add(write.id());
+          else upserts.add(write.vehicle());
+        }
+        db.applyChanges(upserts, deletes);
+
+        // keep writes that were replaced while the batch was in flight
+        for (PendingWrite write : batch.values()) pending.remove(write.id(), write);
+        synchronized (capacity) {
+          capacity.notifyAll();
+        }
+      }
+    } finally {
+      compactJournal();
+      flushLock.unlock();
+    }
+  }
+
+  private void compactJournal() {
+    try {
+      synchronized (journal) {
+        if (pending.isEmpty()) journal.truncate();
+        else if (journal.size() > COMPACT_THRESHOLD_BYTES) journal.rewrite(pending.values());
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to compact write-behind journal: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Drops every pending change without writing it, e.g. before the whole collection is cleared.
+   *
+   * @throws SQLException if the journal can't be truncated
+   */
+  public void discardAll() throws SQLException {
+    flushLock.lock();
+    try {
+      synchronized (journal) {
+        pending.clear();
+        journal.truncate();
+      }
+      synchronized (capacity) {
+        capacity.notifyAll();
+      }
+    } catch (IOException e) {
+      throw new SQLException("Failed to truncate write-behind journal", e);
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of changes not yet written to the database.
+   *
+   * @return the pending count
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Gets the changes not yet written to the database, the latest one of each vehicle.
+   *
+   * @return a copy of the pending changes
+   */
+  public List<PendingWrite> getPendingWrites() {
+    return List.copyOf(pending.values());
+  }
+
+  /**
+   * Checks whether a vehicle has a change not yet written to the database.
+   *
+   * @param id the vehicle id
+   * @return true if a change of the vehicle is pending
+   */
+  public boolean isPending(int id) {
+    return pending.containsKey(id);
+  }
+
+  /** Stops the scheduled task, makes a last attempt to flush and closes the journal. */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      flush();
+    } catch (SQLException e) {
+      logger.warn(
+          "Could not flush on shutdown, "
+              + pending.size()
+              + " writes remain in journal: "
+              + e.getMessage());
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      logger.warn("Could not close write-behind journal: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,366 @@
+package clay.vehicle.dataStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Local journal of {@link PendingWrite} records, so writes accepted in write-behind mode survive a
+ * crash until they reach the database. Records are prefixed with their length and a CRC32C and
+ * appended to numbered segment files in a directory; a new segment is started when the current one
+ * grows past {@link #SEGMENT_SIZE}. {@link #rewrite} compacts the journal into a snapshot file that
+ * supersedes every older segment.
+ *
+ * <p>Appends are forced to disk before {@link #append} returns. Concurrent appenders share forces:
+ * a force covers everything written before it started, so while one appender forces, the others
+ * only write and then find their records already durable or force them together.
+ */
+public class WriteBehindJournal implements AutoCloseable {
+  private static final Logger logger = LogManager.getLogger(WriteBehindJournal.class);
+
+  private static final byte OP_UPSERT = 1;
+  private static final byte OP_DELETE = 2;
+
+  /** Size after which a new segment is started */
+  static final long SEGMENT_SIZE = 16L << 20;
+
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  private final Path dir;
+  private FileChannel channel;
+
+  /** Sequence number of the current segment */
+  private long segment;
+
+  /** Bytes of the latest snapshot and the segments after it */
+  private long liveBytes;
+
+  /** Bytes written since the journal was opened */
+  private long written;
+
+  /** Bytes of {@link #written} known to be on disk */
+  private final AtomicLong durable = new AtomicLong();
+
+  private final Object forceLock = new Object();
+
+  /**
+   * Opens the journal, creating the directory if it doesn't exist. A journal file left by earlier
+   * versions, which kept the journal in a single file at this location, is converted into a
+   * snapshot.
+   *
+   * @param dir location of the journal directory
+   * @throws IOException if the directory can't be opened
+   */
+  public WriteBehindJournal(Path dir) throws IOException {
+    this.dir = dir;
+    List<PendingWrite> legacy = null;
+    Path legacyFile = dir.resolveSibling(dir.getFileName() + ".old");
+    if (Files.isRegularFile(dir)) {
+      Files.move(dir, legacyFile, StandardCopyOption.ATOMIC_MOVE);
+      legacy = readLegacy(legacyFile);
+    }
+    Files.createDirectories(dir);
+    this.segment = Math.max(1, Math.max(last(SEGMENT_SUFFIX), last(SNAPSHOT_SUFFIX)));
+    this.channel = open(file(segment, SEGMENT_SUFFIX));
+    Directories.force(dir);
+    if (legacy != null) {
+      rewrite(legacy);
+      Files.delete(legacyFile);
+      logger.info("Converted journal file " + dir + " into a journal directory");
+    }
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    FileChannel ch =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ch.position(ch.size());
+    return ch;
+  }
+
+  private Path file(long sequence, String suffix) {
+    return dir.resolve(String.format("%016d%s", sequence, suffix));
+  }
+
+  /**
+   * Lists the sequence numbers of the files with a suffix.
+   *
+   * @return the sequence numbers in ascending order
+   */
+  private List<Long> sequences(String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.endsWith(suffix))
+          .map(name -> name.substring(0, name.length() - suffix.length()))
+          .filter(name -> !name.isEmpty() && name.chars().allMatch(Character::isDigit))
+          .map(Long::parseLong)
+          .sorted()
+          .toList();
+    }
+  }
+
+  private long last(String suffix) throws IOException {
+    List<Long> found = sequences(suffix);
+    return found.isEmpty() ? 0 : found.get(found.size() - 1);
+  }
+
+  /**
+   * Appends records and forces them to disk.
+   *
+   * @param writes the records to append
+   * @throws IOException if writing fails
+   */
+  public void append(Collection<PendingWrite> writes) throws IOException {
+    awaitDurable(write(writes));
+  }
+
+  /**
+   * Appends records without forcing them.
+   *
+   * @param writes the records to append
+   * @return the position to pass to {@link #awaitDurable} to wait until they are on disk
+   * @throws IOException if writing fails
+   */
+  public synchronized long write(Collection<PendingWrite> writes) throws IOException {
+    byte[] encoded = encode(writes);
+    channel.write(ByteBuffer.wrap(encoded));
+    written += encoded.length;
+    liveBytes += encoded.length;
+    if (channel.position() >= SEGMENT_SIZE) startSegment(segment + 1);
+    return written;
+  }
+
+  /**
+   * Blocks until everything written up to a position is on disk, forcing it if no other thread is
+   * already doing so.
+   *
+   * @param position a position returned by {@link #write}
+   * @throws IOException if forcing fails
+   */
+  public void awaitDurable(long position) throws IOException {
+    if (durable.get() >= position) return;
+    synchronized (forceLock) {
+      while (durable.get() < position) {
+        long target;
+        FileChannel ch;
+        synchronized (this) {
+          target = written;
+          ch = channel;
+        }
+        try {
+          ch.force(false);
+          durable.accumulateAndGet(target, Math::max);
+        } catch (ClosedChannelException e) {
+          // replaced meanwhile, and forced before it was closed
+          if (durable.get() < target) throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forces and closes the current segment and starts a new one. The new segment is made durable in
+   * the directory before anything is appended to it, along with any earlier renames. Must hold this
+   * monitor.
+   */
+  private void startSegment(long sequence) throws IOException {
+    channel.force(false);
+    durable.accumulateAndGet(written, Math::max);
+    channel.close();
+    segment = sequence;
+    channel = open(file(segment, SEGMENT_SUFFIX));
+    Directories.force(dir);
+  }
+
+  private static byte[] encode(Collection<PendingWrite> writes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(record);
+    CRC32C crc = new CRC32C();
+    for (PendingWrite write : writes) {
+      record.reset();
+      if (write.isDelete()) {
+        recordOut.writeByte(OP_DELETE);
+        recordOut.writeInt(write.id());
+      } else {
+        recordOut.writeByte(OP_UPSERT);
+        VehicleCodec.write(recordOut, write.vehicle());
+      }
+      crc.reset();
+      crc.update(record.toByteArray());
+      out.writeInt(record.size());
+      out.writeInt((int) crc.getValue());
+      record.writeTo(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static PendingWrite decode(byte[] record) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    byte op = in.readByte();
+    if (op == OP_DELETE) return PendingWrite.delete(in.readInt());
+    if (op == OP_UPSERT) return PendingWrite.upsert(VehicleCodec.read(in));
+    throw new IOException("Unknown journal record type " + op);
+  }
+
+  /**
+   * Reads the intact records at the start of a file.
+   *
+   * @param path the file
+   * @param writes receives the records
+   * @return the length of the intact part
+   */
+  private static long read(Path path, List<PendingWrite> writes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+    CRC32C crc = new CRC32C();
+    long validEnd = 0;
+    while (buffer.remaining() >= 2 * Integer.BYTES) {
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) break;
+      byte[] record = new byte[length];
+      buffer.get(record);
+      crc.reset();
+      crc.update(record);
+      if ((int) crc.getValue() != checksum) break;
+      writes.add(decode(record));
+      validEnd = buffer.position();
+    }
+    return validEnd;
+  }
+
+  /** Reads a journal file of earlier versions, whose records had no checksum. */
+  private static List<PendingWrite> readLegacy(Path path) throws IOException {
+    List<PendingWrite> writes = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+    while (buffer.remaining() >= Integer.BYTES) {
+      int length = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) break;
+      byte[] record = new byte[length];
+      buffer.get(record);
+      writes.add(decode(record));
+    }
+    return writes;
+  }
+
+  /**
+   * Reads the latest snapshot and every complete record in the segments after it. A torn record at
+   * the end of the last segment, left by a crash during append, is cut off; damage anywhere else
+   * fails the replay rather than silently dropping writes.
+   *
+   * @return the records in append order
+   * @throws IOException if reading fails or the journal is damaged
+   */
+  public synchronized List<PendingWrite> replay() throws IOException {
+    List<PendingWrite> writes = new ArrayList<>();
+    long base = last(SNAPSHOT_SUFFIX);
+    liveBytes = 0;
+    if (base > 0) {
+      Path snapshot = file(base, SNAPSHOT_SUFFIX);
+      long size = Files.size(snapshot);
+      if (read(snapshot, writes) < size)
+        throw new IOException("Damaged journal snapshot " + snapshot);
+      liveBytes += size;
+    }
+    for (long sequence : sequences(SEGMENT_SUFFIX)) {
+      if (sequence < base) continue;
+      Path path = file(sequence, SEGMENT_SUFFIX);
+      long size = Files.size(path);
+      long validEnd = read(path, writes);
+      if (validEnd < size) {
+        if (sequence != segment)
+          throw new IOException("Damaged journal segment " + path + " at " + validEnd);
+        logger.warn("Discarding " + (size - validEnd) + " bytes of torn journal tail in " + path);
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+      }
+      liveBytes += validEnd;
+    }
+    deleteBefore(base);
+    return writes;
+  }
+
+  /** Deletes the segments and snapshots superseded by the snapshot of a sequence number. */
+  private void deleteBefore(long sequence) throws IOException {
+    for (long old : sequences(SEGMENT_SUFFIX))
+      if (old < sequence) Files.deleteIfExists(file(old, SEGMENT_SUFFIX));
+    for (long old : sequences(SNAPSHOT_SUFFIX))
+      if (old < sequence) Files.deleteIfExists(file(old, SNAPSHOT_SUFFIX));
+  }
+
+  /**
+   * Replaces the journal content with the given records, e.g. the writes still pending after a
+   * flush. They are written to a snapshot file, which supersedes every existing segment once it is
+   * in place, and appends continue in a new segment.
+   *
+   * @param writes the records to keep
+   * @throws IOException if writing fails
+   */
+  public synchronized void rewrite(Collection<PendingWrite> writes) throws IOException {
+    long next = segment + 1;
+    Path snapshot = file(next, SNAPSHOT_SUFFIX);
+    Path tmp = dir.resolve(snapshot.getFileName() + ".tmp");
+    byte[] encoded = encode(writes);
+    try (FileChannel out =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      out.write(ByteBuffer.wrap(encoded));
+      out.force(false);
+    }
+    Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    // forces the directory, so the snapshot is in place before what it supersedes is deleted
+    startSegment(next);
+    deleteBefore(next);
+    liveBytes = encoded.length;
+  }
+
+  /**
+   * Drops every record.
+   *
+   * @throws IOException if the journal can't be rewritten
+   */
+  public synchronized void truncate() throws IOException {
+    if (liveBytes == 0) return;
+    // an empty snapshot, so that a crash halfway through deleting can't bring old segments back
+    rewrite(List.of());
+  }
+
+  /**
+   * Gets the current journal size.
+   *
+   * @return the size in bytes of the latest snapshot and the segments after it
+   */
+  public synchronized long size() {
+    return liveBytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.force(false);
+    durable.accumulateAndGet(written, Math::max);
+    channel.close();
+  }
+}
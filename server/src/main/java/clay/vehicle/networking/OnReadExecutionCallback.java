@@ -2,12 +2,17 @@ package clay.vehicle.networking;
 
 import clay.vehicle.CommandProcessor;
 import clay.vehicle.InvalidInstructionException;
+import clay.vehicle.commands.CursorRegistry;
 import clay.vehicle.commands.Executable;
 import clay.vehicle.commands.MiscUtils;
 import clay.vehicle.commands.RecursionException;
+import java.net.SocketAddress;
 import java.sql.SQLException;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,25 +20,186 @@ import org.apache.logging.log4j.Logger;
 public class OnReadExecutionCallback implements ServerProcessingCallback {
   Set<String> commandsRequireAuth;
 
+  /** Commands whose retries must not run them again */
+  Set<String> commandsChangeData;
+
+  /** How long the response to a request with a correlation id is kept to answer its retries */
+  private static final long REPLAY_WINDOW_MS = 30_000;
+
+  /** Most responses kept for retries */
+  private static final int MAX_ANSWERS = 10_000;
+
+  /** Most bytes of responses kept for retries, roughly two per character */
+  private static final long MAX_ANSWER_BYTES = 16L << 20;
+
+  private record RequestKey(SocketAddress address, int correlationId) {}
+
+  private static final class Answer {
+    final CompletableFuture<NetworkMessage> response = new CompletableFuture<>();
+    final long expiresAt;
+
+    /** Size of the response, 0 while it's being made */
+    long bytes;
+
+    Answer(long expiresAt) {
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** Responses to requests with correlation ids, in the order the requests arrived */
+  private final Map<RequestKey, Answer> answered = new LinkedHashMap<>();
+
+  /** Total size of the responses in answered */
+  private long answeredBytes;
+
   private static final Logger logger = LogManager.getLogger(OnReadExecutionCallback.class);
   @Getter CommandProcessor processor;
+  @Getter SessionManager sessions;
 
-  public OnReadExecutionCallback() {
+  public OnReadExecutionCallback(SessionManager sessions) {
     this.processor = new CommandProcessor();
     this.commandsRequireAuth = new HashSet<>();
+    this.commandsChangeData = new HashSet<>();
+    this.sessions = sessions;
   }
 
   public void attachCommand(Executable command, String name, boolean requiresAuth) {
+    attachCommand(command, name, requiresAuth, false);
+  }
+
+  /**
+   * Attaches a command.
+   *
+   * @param command the command
+   * @param name the name it's invoked by
+   * @param requiresAuth whether the caller must be logged in
+   * @param changesData whether running it twice differs from running it once, so that its retries
+   *     are answered from the first response
+   */
+  public void attachCommand(
+      Executable command, String name, boolean requiresAuth, boolean changesData) {
     processor.attachCommand(command, name);
     if (requiresAuth) commandsRequireAuth.add(name);
+    if (changesData) commandsChangeData.add(name);
   }
 
+  /**
+   * Answers a request. A request with a correlation id that changes data is answered once: a retry
+   * of it arriving while it runs or within {@link #REPLAY_WINDOW_MS} after gets the same response
+   * without running the command again, so clients can retry requests that change the collection.
+   * Other requests are simply run again, their responses aren't kept.
+   *
+   * @param message the request
+   * @return the response, with the correlation id of the request
+   */
   @Override
   public Object execute(NetworkMessage message) {
+    if (!message.hasCorrelationId() || message.getAddress() == null || !changesData(message)) {
+      Object result = process(message);
+      if (message.hasCorrelationId())
+        ((NetworkMessage) result).setCorrelationId(message.getCorrelationId());
+      return result;
+    }
+
+    RequestKey key = new RequestKey(message.getAddress(), message.getCorrelationId());
+    CompletableFuture<NetworkMessage> response;
+    boolean retry;
+    long now = System.currentTimeMillis();
+    synchronized (answered) {
+      // oldest first, dropped when expired or when there are too many
+      evict(now, null);
+      Answer answer = answered.get(key);
+      retry = answer != null;
+      if (!retry) {
+        answer = new Answer(now + REPLAY_WINDOW_MS);
+        answered.put(key, answer);
+      }
+      response = answer.response;
+    }
+
+    if (retry) {
+      logger.info("Answering retried request " + key.correlationId() + " from " + key.address());
+      return response.join();
+    }
+    try {
+      NetworkMessage result = (NetworkMessage) process(message);
+      result.setCorrelationId(message.getCorrelationId());
+      response.complete(result);
+      synchronized (answered) {
+        Answer answer = answered.get(key);
+        if (answer != null && answer.response == response) {
+          answer.bytes = size(result);
+          answeredBytes += answer.bytes;
+          evict(System.currentTimeMillis(), answer);
+        }
+      }
+      return result;
+    } catch (RuntimeException e) {
+      synchronized (answered) {
+        Answer answer = answered.get(key);
+        if (answer != null && answer.response == response) answered.remove(key);
+      }
+      response.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Drops the oldest kept responses while they are expired or there are too many of them. Called
+   * holding the lock of answered.
+   *
+   * @param now the current time
+   * @param keep a response never to drop, or null
+   */
+  private void evict(long now, Answer keep) {
+    for (var iter = answered.values().iterator(); iter.hasNext(); ) {
+      Answer answer = iter.next();
+      if (answer == keep) break;
+      if (answer.expiresAt >= now
+          && answered.size() < MAX_ANSWERS
+          && answeredBytes <= MAX_ANSWER_BYTES) break;
+      iter.remove();
+      answeredBytes -= answer.bytes;
+    }
+  }
+
+  /**
+   * Checks whether a request may change data, so that a retry of it must not run it again.
+   *
+   * @param message the request
+   * @return true for commands attached as changing data and for batches holding any
+   */
+  private boolean changesData(NetworkMessage message) {
+    if (message.getType() == MessageType.BATCH) {
+      if (!message.hasBatch()) return false;
+      for (NetworkMessage command : message.getBatch()) if (changesData(command)) return true;
+      return false;
+    }
+    return message.hasCommand() && commandsChangeData.contains(message.getCommand());
+  }
+
+  /**
+   * Estimates the memory a kept response takes.
+   *
+   * @param response the response
+   * @return about two bytes per character of its text, plus a little per message
+   */
+  private static long size(NetworkMessage response) {
+    long size = 64;
+    if (response.hasMessage()) size += 2L * response.getMessage().length();
+    if (response.hasCursor()) size += 2L * response.getCursor().length();
+    if (response.hasToken()) size += 2L * response.getToken().length();
+    if (response.hasBatch()) for (NetworkMessage item : response.getBatch()) size += size(item);
+    return size;
+  }
+
+  private Object process(NetworkMessage message) {
+    if (message.getType() == MessageType.BATCH) return executeBatch(message);
+
     StringBuilder instructionBuilder = new StringBuilder();
     String returnMessage;
 
-    logger.info("Processing message " + NetworkMessageSerializer.serialize(message));
+    logger.info("Processing command " + message.getCommand() + " from " + message.getAddress());
 
     if (message.getType() != MessageType.COMMAND) {
       logger.warn("Message is not a command, informing client");
@@ -53,10 +219,23 @@ public class OnReadExecutionCallback implements ServerProcessingCallback {
           .build();
     }
 
+    if (message.getCommand().equals("login")) return login(message);
+    if (message.getCommand().equals("logout")) return logout(message);
+
     Integer uid = null;
 
     if (commandsRequireAuth.contains(message.getCommand())) {
-      if (message.hasLogin() && message.hasPassword()) {
+      if (message.hasToken()) {
+        uid = sessions.resolve(message.getToken());
+        if (uid == null) {
+          logger.warn(message.getAddress() + ": unknown or expired session");
+          return NetworkMessage.newBuilder()
+              .setType(MessageType.ERROR)
+              .setMessage("Session expired, please log in again")
+              .setAdress(message.getAddress())
+              .build();
+        }
+      } else if (message.hasLogin() && message.hasPassword()) {
         try {
           uid = MiscUtils.verifyLogin(message.getLogin(), message.getPassword());
           if (uid == null) {
@@ -97,9 +276,10 @@ public class OnReadExecutionCallback implements ServerProcessingCallback {
       instructionBuilder.append(uid); // add uid
     }
 
-    processor.addInstruction(instructionBuilder.toString());
+    String cursor;
     try {
-      returnMessage = processor.runReturnable();
+      CursorRegistry.takeContinuation();
+      returnMessage = processor.runInstruction(instructionBuilder.toString());
     } catch (InvalidInstructionException e) {
       logger.warn("Unknown command, informing client");
       return NetworkMessage.newBuilder()
@@ -109,12 +289,13 @@ public class OnReadExecutionCallback implements ServerProcessingCallback {
           .build();
     } catch (RecursionException e) {
       logger.warn("Recursion detected, aborting execution and informing client");
-      processor.clearQueue();
       return NetworkMessage.newBuilder()
           .setType(MessageType.ERROR)
           .setMessage("Recursion not allowed. Call stack: " + e.getMessage())
           .setAdress(message.getAddress())
           .build();
+    } finally {
+      cursor = CursorRegistry.takeContinuation();
     }
 
     if (returnMessage.charAt(0) == '!') {
@@ -125,11 +306,116 @@ public class OnReadExecutionCallback implements ServerProcessingCallback {
           .setMessage(returnMessage)
           .setAdress(message.getAddress())
           .build();
-    } else
+    }
+
+    return NetworkMessage.newBuilder()
+        .setType(MessageType.RESPONSE)
+        .setMessage(returnMessage)
+        .setCursor(cursor)
+        .setAdress(message.getAddress())
+        .build();
+  }
+
+  /**
+   * Executes the commands of a batch in order and answers them all in one batch. Each response
+   * carries the correlation id of its command. Commands without their own token or credentials use
+   * the token of the batch.
+   *
+   * @param batch the batch
+   * @return the batch of responses
+   */
+  private NetworkMessage executeBatch(NetworkMessage batch) {
+    if (!batch.hasBatch()) {
+      logger.warn("Batch from " + batch.getAddress() + " is empty, informing client");
       return NetworkMessage.newBuilder()
-          .setType(MessageType.RESPONSE)
-          .setMessage(returnMessage)
+          .setType(MessageType.ERROR)
+          .setMessage("Batch has no commands")
+          .setCorrelationId(batch.getCorrelationId())
+          .setAdress(batch.getAddress())
+          .build();
+    }
+
+    logger.info(
+        "Processing batch of " + batch.getBatch().length + " commands from " + batch.getAddress());
+    NetworkMessage[] responses = new NetworkMessage[batch.getBatch().length];
+    for (int i = 0; i < responses.length; i++) {
+      NetworkMessage command = batch.getBatch()[i];
+      if (batch.hasToken() && !command.hasToken() && !command.hasLogin())
+        command.setToken(batch.getToken());
+      NetworkMessage response;
+      if (command.getType() != MessageType.COMMAND || !command.hasCommand())
+        response =
+            NetworkMessage.newBuilder()
+                .setType(MessageType.ERROR)
+                .setMessage("Batch may only hold commands")
+                .build();
+      else response = (NetworkMessage) process(command);
+      response.setCorrelationId(command.getCorrelationId());
+      responses[i] = response;
+    }
+    return NetworkMessage.newBuilder()
+        .setType(MessageType.BATCH)
+        .setBatch(responses)
+        .setCorrelationId(batch.getCorrelationId())
+        .setAdress(batch.getAddress())
+        .build();
+  }
+
+  /**
+   * Verifies the credentials once against the database and opens a session for them.
+   *
+   * @param message the login request carrying login and password
+   * @return a response carrying the session token, or an error
+   */
+  private NetworkMessage login(NetworkMessage message) {
+    if (!message.hasLogin() || !message.hasPassword()) {
+      return NetworkMessage.newBuilder()
+          .setType(MessageType.ERROR)
+          .setMessage("Login and password are required")
+          .setAdress(message.getAddress())
+          .build();
+    }
+
+    Integer uid;
+    try {
+      uid = MiscUtils.verifyLogin(message.getLogin(), message.getPassword());
+    } catch (SQLException e) {
+      logger.error("Authentication failed!");
+      return NetworkMessage.newBuilder()
+          .setType(MessageType.ERROR)
+          .setMessage("Authentication failed")
           .setAdress(message.getAddress())
           .build();
+    }
+    if (uid == null) {
+      logger.warn(message.getAddress() + ": incorrect login or password!");
+      return NetworkMessage.newBuilder()
+          .setType(MessageType.ERROR)
+          .setMessage("Login or password is incorrect!")
+          .setAdress(message.getAddress())
+          .build();
+    }
+
+    return NetworkMessage.newBuilder()
+        .setType(MessageType.RESPONSE)
+        .setMessage("Logged in as " + message.getLogin())
+        .setToken(sessions.create(uid, message.getLogin()))
+        .setAdress(message.getAddress())
+        .build();
+  }
+
+  /**
+   * Closes the session the request was sent with.
+   *
+   * @param message the logout request carrying the session token
+   * @return a response confirming the logout
+   */
+  private NetworkMessage logout(NetworkMessage message) {
+    if (message.hasToken()) sessions.invalidate(message.getToken());
+    return NetworkMessage.newBuilder()
+        .setType(MessageType.RESPONSE)
+        .setMessage("Logged out")
+        .setAdress(message.getAddress())
+        .build();
   }
 }
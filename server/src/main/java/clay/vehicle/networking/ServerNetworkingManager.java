@@ -3,13 +3,22 @@ package clay.vehicle.networking;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
 import lombok.Setter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,6 +34,32 @@ public class ServerNetworkingManager {
   private final ForkJoinPool readPool = ForkJoinPool.commonPool();
   private final ForkJoinPool writePool = ForkJoinPool.commonPool();
 
+  /** Largest reply sent, in fragments if it doesn't fit in one datagram */
+  private static final int MAX_REPLY_SIZE = 64 << 20;
+
+  /** How long fragments of a reply are kept for retransmission */
+  private static final long RETRANSMIT_WINDOW_MS = 30_000;
+
+  private static final int SEND_ATTEMPTS = 50;
+
+  /** Most times one fragment of a reply is sent again, however often it is asked for */
+  private static final int MAX_RESENDS = 10;
+
+  /** Send buffer of each writer thread, reused for every reply that fits it */
+  private final ThreadLocal<ByteBuffer> sendBuffer =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(Fragments.MAX_DATAGRAM));
+
+  /** Most bytes of fragmented replies kept for retransmission */
+  private static final long MAX_RETAINED_BYTES = 256L << 20;
+
+  /** Source of the ids of fragmented replies, random so that they can't be guessed */
+  private final SecureRandom messageIds = new SecureRandom();
+
+  /** Fragmented replies by message id, in the order they were sent */
+  private final Map<Integer, Fragmented> fragmented = new LinkedHashMap<>();
+
+  private long retainedBytes;
+
   @Setter private ServerProcessingCallback readCallback;
 
   public ServerNetworkingManager(int port) {
@@ -84,20 +119,34 @@ public class ServerNetworkingManager {
 
       logger.info("Received " + receivedLength + " bytes from " + clientAddress);
 
+      if (Fragments.isNack(ByteBuffer.wrap(rawBytes))) {
+        writePool.execute(() -> resend(ByteBuffer.wrap(rawBytes), clientAddress));
+        return;
+      }
+
       // Offload deserialization and processing to ForkJoinPool
       readPool.execute(
           () -> {
             try {
-              String receivedMessage = new String(rawBytes);
-              NetworkMessage message =
-                  NetworkMessageDeserializer.deserialize(receivedMessage, clientAddress);
-
-              logger.info("Parsed request from " + clientAddress + ": " + receivedMessage);
+              ByteBuffer received = ByteBuffer.wrap(rawBytes);
+              // answered in the form it was asked in, so JSON clients keep working
+              boolean binary = BinaryMessageCodec.isBinary(received);
+              NetworkMessage message;
+              if (binary) {
+                message = BinaryMessageCodec.decode(received, clientAddress);
+                logger.info(
+                    "Parsed binary request from " + clientAddress + ": " + message.getCommand());
+              } else {
+                message =
+                    NetworkMessageDeserializer.deserialize(
+                        rawBytes, 0, rawBytes.length, clientAddress);
+                logger.info("Parsed request from " + clientAddress + ": " + message.getCommand());
+              }
 
               Object response = this.readCallback.execute(message);
 
+              replies.add(new Reply((NetworkMessage) response, binary));
               synchronized (key) {
-                key.attach(response);
                 key.interestOps(SelectionKey.OP_WRITE);
               }
               selector.wakeup();
@@ -108,41 +157,156 @@ public class ServerNetworkingManager {
     }
   }
 
-  private void handleWrite(SelectionKey key) {
-    SocketAddress address;
-    NetworkMessage message = (NetworkMessage) key.attachment();
+  /** A response waiting to be sent, with the form of the request it answers */
+  private record Reply(NetworkMessage message, boolean binary) {}
+
+  /** Responses waiting for the channel to be writable, several can be ready at once */
+  private final Queue<Reply> replies = new ConcurrentLinkedQueue<>();
 
+  private void handleWrite(SelectionKey key) {
     DatagramChannel dc = (DatagramChannel) key.channel();
-    address = message.hasAddress() ? message.getAddress() : null;
 
-    // Remove OP_WRITE immediately to prevent duplicate tasks
+    // Remove OP_WRITE before taking the replies, a reply queued after that sets it again
     synchronized (key) {
       key.interestOps(SelectionKey.OP_READ);
     }
 
     // Offload serialization and sending to ForkJoinPool
-    writePool.execute(
-        () -> {
-          try {
-            ByteBuffer localSendBuffer = ByteBuffer.allocate(65507);
-            byte[] data = NetworkMessageSerializer.serialize(message).getBytes();
-            localSendBuffer.put(data);
-            localSendBuffer.flip();
-
-            if (address != null) {
-              logger.info("Sending reply to " + address);
-              dc.send(localSendBuffer, address);
-            } else {
-              logger.warn(
-                  "Reply with no address: "
-                      + NetworkMessageSerializer.serialize(message)
-                      + ", skipping transmission");
-            }
-            selector.wakeup();
-          } catch (IOException e) {
-            logger.error("IOException while sending response: " + e.getMessage(), e);
-          }
-        });
+    for (Reply reply; (reply = replies.poll()) != null; ) {
+      Reply next = reply;
+      writePool.execute(() -> sendReply(dc, next));
+    }
+  }
+
+  private void sendReply(DatagramChannel dc, Reply reply) {
+    NetworkMessage message = reply.message();
+    SocketAddress address = message.hasAddress() ? message.getAddress() : null;
+    try {
+      if (address != null) {
+        ByteBuffer data = encode(reply);
+        logger.info("Sending reply of " + data.remaining() + " bytes to " + address);
+        if (data.remaining() <= Fragments.MAX_DATAGRAM) dc.send(data, address);
+        else sendFragments(data, address);
+      } else {
+        logger.warn(
+            "Reply with no address: "
+                + NetworkMessageSerializer.serialize(message)
+                + ", skipping transmission");
+      }
+      selector.wakeup();
+    } catch (IOException e) {
+      logger.error("IOException while sending response: " + e.getMessage(), e);
+    } catch (BufferOverflowException e) {
+      logger.error("Reply to " + address + " is larger than " + MAX_REPLY_SIZE + " bytes");
+    }
+  }
+
+  /**
+   * Encodes a reply in the form of its request, into the send buffer of the thread if it fits.
+   *
+   * @return the encoded reply
+   * @throws BufferOverflowException if the reply is larger than {@link #MAX_REPLY_SIZE}
+   */
+  private ByteBuffer encode(Reply reply) {
+    ByteBuffer buffer = sendBuffer.get().clear();
+    while (true) {
+      try {
+        if (reply.binary()) BinaryMessageCodec.encode(reply.message(), buffer);
+        else NetworkMessageSerializer.serialize(reply.message(), buffer);
+        return buffer.flip();
+      } catch (BufferOverflowException e) {
+        if (buffer.capacity() >= MAX_REPLY_SIZE) throw e;
+        buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 4, MAX_REPLY_SIZE));
+      }
+    }
+  }
+
+  /**
+   * A reply sent in fragments, kept for retransmission until it expires, with the number of times
+   * each fragment was sent again, guarded by the record
+   */
+  private record Fragmented(
+      SocketAddress address, List<ByteBuffer> fragments, int[] resends, int size, long expiresAt) {}
+
+  private void sendFragments(ByteBuffer data, SocketAddress address) throws IOException {
+    int id;
+    synchronized (fragmented) {
+      do id = messageIds.nextInt();
+      while (fragmented.containsKey(id));
+    }
+    int size = data.remaining();
+    List<ByteBuffer> fragments = Fragments.split(id, data);
+    long now = System.currentTimeMillis();
+    synchronized (fragmented) {
+      // oldest first, dropped when expired or when newer replies need the room
+      for (var iter = fragmented.values().iterator(); iter.hasNext(); ) {
+        Fragmented sent = iter.next();
+        if (sent.expiresAt() >= now && retainedBytes + size <= MAX_RETAINED_BYTES) continue;
+        retainedBytes -= sent.size();
+        iter.remove();
+      }
+      fragmented.put(
+          id,
+          new Fragmented(
+              address, fragments, new int[fragments.size()], size, now + RETRANSMIT_WINDOW_MS));
+      retainedBytes += size;
+    }
+    logger.info(
+        "Sending reply " + id + " to " + address + " in " + fragments.size() + " fragments");
+    for (ByteBuffer fragment : fragments) send(fragment.duplicate(), address);
+  }
+
+  /**
+   * Sends the fragments a client asked for again in a NACK. A fragment already sent again {@link
+   * #MAX_RESENDS} times is skipped, so that a client that keeps asking can't make the server send a
+   * reply without end.
+   */
+  private void resend(ByteBuffer nack, SocketAddress address) {
+    int id = Fragments.messageId(nack);
+    Fragmented sent;
+    synchronized (fragmented) {
+      sent = fragmented.get(id);
+    }
+    if (sent == null || !sent.address().equals(address)) {
+      logger.warn("NACK from " + address + " for unknown or expired reply " + id);
+      return;
+    }
+    List<Integer> indexes = Fragments.nackedIndexes(nack);
+    List<ByteBuffer> due = new ArrayList<>(indexes.size());
+    synchronized (sent) {
+      for (int index : indexes) {
+        if (index < 0 || index >= sent.fragments().size()) continue;
+        if (sent.resends()[index] >= MAX_RESENDS) continue;
+        sent.resends()[index]++;
+        due.add(sent.fragments().get(index));
+      }
+    }
+    if (due.size() < indexes.size())
+      logger.warn(
+          "Not resending "
+              + (indexes.size() - due.size())
+              + " fragments of reply "
+              + id
+              + " to "
+              + address
+              + ", invalid or resent too often");
+    logger.info("Resending " + due.size() + " fragments of reply " + id + " to " + address);
+    try {
+      for (ByteBuffer fragment : due) send(fragment.duplicate(), address);
+    } catch (IOException e) {
+      logger.error("IOException while resending fragments: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Sends a datagram, waiting briefly while the socket buffer is full. A datagram still not sent is
+   * dropped and left to be asked for again.
+   */
+  private void send(ByteBuffer datagram, SocketAddress address) throws IOException {
+    for (int attempt = 0; attempt < SEND_ATTEMPTS; attempt++) {
+      if (channel.send(datagram, address) > 0) return;
+      LockSupport.parkNanos(100_000);
+    }
   }
 
   public void stop() {
@@ -0,0 +1,138 @@
+package clay.vehicle.networking;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-memory table of authenticated sessions. A client logs in once with its password and gets an
+ * opaque token back; later requests carry only the token, which is resolved here without touching
+ * the database. Sessions expire after a period of inactivity and are evicted by a background task.
+ */
+public class SessionManager {
+  private static final Logger logger = LogManager.getLogger(SessionManager.class);
+  private static final int TOKEN_BYTES = 32;
+
+  private final SecureRandom random = new SecureRandom();
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final long ttlMs;
+  private final int maxSessions;
+  private final ScheduledExecutorService evictor;
+
+  private record Session(int uid, String login, long expiresAt) {
+    Session touch(long now, long ttlMs) {
+      return new Session(uid, login, now + ttlMs);
+    }
+  }
+
+  /**
+   * Constructs a new SessionManager and starts its eviction task.
+   *
+   * @param ttlMs how long a session stays valid after its last use
+   * @param maxSessions upper bound on simultaneously open sessions
+   */
+  public SessionManager(long ttlMs, int maxSessions) {
+    this.ttlMs = ttlMs;
+    this.maxSessions = maxSessions;
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "session-evictor");
+              t.setDaemon(true);
+              return t;
+            });
+    long period = Math.max(1000, ttlMs / 4);
+    evictor.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens a new session for an already authenticated user.
+   *
+   * @param uid the user id
+   * @param login the user login, kept for logging
+   * @return the session token to hand to the client
+   */
+  public String create(int uid, String login) {
+    long now = System.currentTimeMillis();
+    if (sessions.size() >= maxSessions) {
+      evictExpired();
+      if (sessions.size() >= maxSessions) evictOldest();
+    }
+
+    byte[] bytes = new byte[TOKEN_BYTES];
+    random.nextBytes(bytes);
+    String token = encoder.encodeToString(bytes);
+    sessions.put(token, new Session(uid, login, now + ttlMs));
+    logger.info("Opened session for " + login + " (" + sessions.size() + " active)");
+    return token;
+  }
+
+  /**
+   * Resolves a token to its user id and extends the session lifetime.
+   *
+   * @param token the session token sent by the client
+   * @return the user id, or null if the token is unknown or expired
+   */
+  public Integer resolve(String token) {
+    long now = System.currentTimeMillis();
+    Session s =
+        sessions.computeIfPresent(
+            token, (k, v) -> v.expiresAt() < now ? null : v.touch(now, ttlMs));
+    return s == null ? null : s.uid();
+  }
+
+  /**
+   * Closes a single session.
+   *
+   * @param token the session token
+   * @return true if the session existed
+   */
+  public boolean invalidate(String token) {
+    return sessions.remove(token) != null;
+  }
+
+  /** Closes every session, e.g. after the user table was reset. */
+  public void invalidateAll() {
+    sessions.clear();
+    logger.warn("Invalidated all sessions");
+  }
+
+  /**
+   * Gets the number of open sessions.
+   *
+   * @return the count of sessions, including expired ones not yet evicted
+   */
+  public int getActiveCount() {
+    return sessions.size();
+  }
+
+  private void evictExpired() {
+    long now = System.currentTimeMillis();
+    int before = sessions.size();
+    sessions.values().removeIf(s -> s.expiresAt() < now);
+    int evicted = before - sessions.size();
+    if (evicted > 0) logger.info("Evicted " + evicted + " expired sessions");
+  }
+
+  private void evictOldest() {
+    sessions.entrySet().stream()
+        .min((a, b) -> Long.compare(a.getValue().expiresAt(), b.getValue().expiresAt()))
+        .ifPresent(
+            e -> {
+              sessions.remove(e.getKey());
+              logger.warn("Session limit reached, evicted session of " + e.getValue().login());
+            });
+  }
+
+  /** Stops the eviction task. */
+  public void stop() {
+    evictor.shutdownNow();
+  }
+}